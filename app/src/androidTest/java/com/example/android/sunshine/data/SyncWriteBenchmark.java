@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Measures how long a large write to the weather table takes, and how long it keeps queries of
+ * the table waiting. A reader thread queries a single day over and over while a forecast of
+ * {@link #DAYS} days is written by a bulkInsert, by a batch that never yields, and by a batch
+ * that allows a yield every {@link #YIELD_EVERY} days. For each, the write time is logged, along
+ * with the number of queries run during the write, the longest of them, and the time spent in
+ * queries that took longer than a frame.
+ * <p>
+ * Without write-ahead logging, the database has a single connection, so a query has to wait
+ * for whichever transaction holds it. Like ParserBenchmark, this is a plain instrumented test:
+ * run it on a device with nothing else going on, and compare numbers from the same device only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncWriteBenchmark {
+
+    private static final String TAG = SyncWriteBenchmark.class.getSimpleName();
+
+    private static final int DAYS = 5000;
+
+    private static final int YIELD_EVERY = 100;
+
+    /* A query that takes longer than this has made the UI miss a frame */
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /* One way of writing the forecast */
+    private interface Writer {
+        void write(ContentResolver contentResolver, ContentValues[] forecast) throws Exception;
+    }
+
+    /* Queries one day of the weather table until stopped, timing each query */
+    private static class Reader extends Thread {
+        private final ContentResolver mContentResolver;
+        private final long mDate;
+        private volatile boolean mStopped;
+
+        int queries;
+        long longestNanos;
+        long stalledNanos;
+
+        Reader(ContentResolver contentResolver, long date) {
+            mContentResolver = contentResolver;
+            mDate = date;
+        }
+
+        @Override
+        public void run() {
+            while (!mStopped) {
+                long startNanos = System.nanoTime();
+                Cursor cursor = mContentResolver.query(
+                        WeatherContract.WeatherEntry.buildWeatherUriWithDate(mDate),
+                        new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                        null,
+                        null,
+                        null);
+                if (cursor != null) {
+                    cursor.moveToFirst();
+                    cursor.close();
+                }
+                long elapsedNanos = System.nanoTime() - startNanos;
+
+                queries++;
+                longestNanos = Math.max(longestNanos, elapsedNanos);
+                if (elapsedNanos > FRAME_NANOS) {
+                    stalledNanos += elapsedNanos;
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            mStopped = true;
+            join();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null,
+                null);
+    }
+
+    @After
+    public void tearDown() {
+        setUp();
+    }
+
+    @Test
+    public void benchmarkBulkInsert() throws Exception {
+        measure("bulkInsert", new Writer() {
+            @Override
+            public void write(ContentResolver contentResolver, ContentValues[] forecast) {
+                contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkBatch() throws Exception {
+        measure("batch", batchWriter(0));
+    }
+
+    @Test
+    public void benchmarkBatchWithYields() throws Exception {
+        measure("batch, yield every " + YIELD_EVERY, batchWriter(YIELD_EVERY));
+    }
+
+    /**
+     * @param yieldEvery Allow a yield before every yieldEvery-th insert, or never if 0
+     */
+    private static Writer batchWriter(final int yieldEvery) {
+        return new Writer() {
+            @Override
+            public void write(ContentResolver contentResolver, ContentValues[] forecast)
+                    throws Exception {
+                ArrayList<ContentProviderOperation> operations =
+                        new ArrayList<>(forecast.length + 1);
+                operations.add(ContentProviderOperation
+                        .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .build());
+                for (int i = 0; i < forecast.length; i++) {
+                    operations.add(ContentProviderOperation
+                            .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                            .withValues(forecast[i])
+                            .withYieldAllowed(yieldEvery > 0 && i % yieldEvery == 0)
+                            .build());
+                }
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            }
+        };
+    }
+
+    private void measure(String name, Writer writer) throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] forecast = createForecast();
+
+        /* Once to warm up, with nobody reading */
+        writer.write(contentResolver, forecast);
+
+        Reader reader = new Reader(contentResolver,
+                forecast[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        reader.start();
+        long startNanos = System.nanoTime();
+        writer.write(contentResolver, forecast);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        reader.finish();
+
+        Log.i(TAG, String.format("%-22s: %6d days written in %8.1f ms, %6d queries, longest "
+                        + "%7.1f ms, %8.1f ms in queries over a frame",
+                name, DAYS,
+                elapsedNanos / 1e6,
+                reader.queries,
+                reader.longestNanos / 1e6,
+                reader.stalledNanos / 1e6));
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID}, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    private static ContentValues[] createForecast() {
+        ContentValues[] forecast = new ContentValues[DAYS];
+        long date = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int i = 0; i < DAYS; i++, date += SunshineDateUtils.DAY_IN_MILLIS) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 + i % 7);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + i % 11);
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50 + i % 30);
+            values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000 + i % 40);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 1.5 + i % 5);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 10 * (i % 36));
+            forecast[i] = values;
+        }
+        return forecast;
+    }
+}
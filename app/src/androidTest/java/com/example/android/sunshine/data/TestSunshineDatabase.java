@@ -42,6 +42,7 @@ import static com.example.android.sunshine.data.TestUtilities.studentReadableNoS
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
@@ -193,7 +194,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 5;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -436,6 +437,25 @@ public class TestSunshineDatabase {
         database.close();
     }
 
+    /**
+     * Tests that upgrading the database also forgets which forecast the weather table held.
+     * Otherwise, the next sync would ask the server whether that forecast has changed, and
+     * leave the table empty on a "304 Not Modified".
+     */
+    @Test
+    public void testOnUpgradeForgetsIngestedForecast() {
+        String url = "https://example.com/weather?q=94043";
+        HttpValidatorStore.saveValidators(context, url, "\"etag\"", null);
+        HttpValidatorStore.setIngestedUrl(context, url, url, "hash");
+
+        dbHelper.onUpgrade(database, 13, 14);
+
+        assertNull(HttpValidatorStore.getIngestedUrl(context));
+        assertNull(HttpValidatorStore.getIngestedHash(context));
+        assertNull(HttpValidatorStore.getETag(context, url));
+        database.close();
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
      * contain. Although in our case, we just have one table that we expect should be added
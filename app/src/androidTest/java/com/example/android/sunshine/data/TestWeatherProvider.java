@@ -16,6 +16,8 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -27,10 +29,16 @@ import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
@@ -326,6 +334,274 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * This test inserts a ForecastBatch through {@link WeatherProvider#call}, and makes sure the
+     * rows stored are exactly those that bulkInsert stores for the same days as ContentValues.
+     * It also inserts the batch as the forecast of a saved location, twice, to make sure the
+     * second insert replaces the first rather than adding to it.
+     */
+    @Test
+    public void testInsertForecastBatch() {
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        ForecastBatch forecast = ForecastBatch.fromContentValues(bulkInsertTestContentValues);
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int insertCount = forecast.insert(contentResolver, null);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals("Number of expected records inserted does not match actual inserted "
+                + "record count", BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testInsertForecastBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    bulkInsertTestContentValues[i]);
+        }
+        cursor.close();
+
+        /* A saved location's forecast replaces whatever the location had before */
+        String location = "94043,USA";
+        forecast.insert(contentResolver, location);
+        forecast.insert(contentResolver, location);
+
+        Cursor locationCursor = contentResolver.query(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(location),
+                null,
+                null,
+                null,
+                null);
+        assertNotNull(locationCursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, locationCursor.getCount());
+        locationCursor.close();
+
+        contentResolver.delete(WeatherContract.LocationWeatherEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * This test merges a ForecastBatch into the weather table through
+     * {@link WeatherProvider#call}. Merging the same days again must not write anything, and
+     * merging a changed and a new day must write only those two, leaving the other rows as they
+     * were (with the same _ID, unlike a REPLACE).
+     */
+    @Test
+    public void testMergeForecastBatch() {
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                ForecastBatch.fromContentValues(weatherValues).merge(contentResolver));
+        long firstDayId = queryId(weatherValues[0]);
+
+        assertEquals("Merging the same forecast again should not write anything",
+                0, ForecastBatch.fromContentValues(weatherValues).merge(contentResolver));
+
+        /* Change the third day, and add a day at the end */
+        ContentValues[] changedValues = Arrays.copyOf(weatherValues, weatherValues.length + 1);
+        changedValues[2] = new ContentValues(weatherValues[2]);
+        changedValues[2].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+        changedValues[weatherValues.length] =
+                new ContentValues(weatherValues[weatherValues.length - 1]);
+        changedValues[weatherValues.length].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                weatherValues[weatherValues.length - 1]
+                        .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+
+        assertEquals(2, ForecastBatch.fromContentValues(changedValues).merge(contentResolver));
+        assertEquals("Unchanged days should not have been rewritten",
+                firstDayId, queryId(weatherValues[0]));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(changedValues.length, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < changedValues.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testMergeForecastBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    changedValues[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Tests that a merge which replaces the forecast deletes the days it doesn't cover and the
+     * days before the oldest date in the same call, and reports every change it made.
+     */
+    @Test
+    public void testMergeReplacingForecast() {
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ForecastBatch.fromContentValues(weatherValues).merge(contentResolver);
+
+        /* Leave out the fourth day, change the third, and add a day at the end */
+        List<ContentValues> replacement = new ArrayList<>(Arrays.asList(weatherValues));
+        replacement.remove(3);
+        replacement.set(2, new ContentValues(weatherValues[2]));
+        replacement.get(2).put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+        ContentValues newDay = new ContentValues(weatherValues[weatherValues.length - 1]);
+        newDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                newDay.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+        replacement.add(newDay);
+
+        /* The first day is too old to keep, even though the replacement still has it */
+        long oldestDate = weatherValues[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long secondDayId = queryId(weatherValues[1]);
+
+        MergeStats stats = ForecastBatch
+                .fromContentValues(replacement.toArray(new ContentValues[replacement.size()]))
+                .merge(contentResolver, oldestDate, true);
+
+        assertEquals("Wrong number of inserted rows", 1, stats.rowsInserted);
+        assertEquals("Wrong number of updated rows", 1, stats.rowsUpdated);
+        assertEquals("Wrong number of deleted rows", 2, stats.rowsDeleted);
+        assertEquals("Unchanged days should not have been rewritten",
+                secondDayId, queryId(weatherValues[1]));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(replacement.size() - 1, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 1; i < replacement.size(); i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testMergeReplacingForecast. Error validating WeatherEntry " + i,
+                    cursor,
+                    replacement.get(i));
+        }
+        cursor.close();
+    }
+
+    /**
+     * This test replaces the weather table's rows with a batch of operations: a delete, and an
+     * insert for each day, each of them allowed to yield. The observers must be notified, and
+     * the table must hold exactly the inserted days. A batch that fails part of the way through,
+     * without yielding, must leave the table as it was.
+     */
+    @Test
+    public void testApplyBatch() throws Exception {
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ForecastBatch.fromContentValues(weatherValues).insert(contentResolver, null);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .build());
+        for (ContentValues value : weatherValues) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(value)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results[0].count.intValue());
+        for (int i = 0; i < weatherValues.length; i++) {
+            assertNotNull("Insert " + i + " returned no URI", results[i + 1].uri);
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, queryWeatherCount());
+
+        /* The delete goes through, but the insert after it fails */
+        ContentValues badDate = new ContentValues(weatherValues[0]);
+        badDate.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                weatherValues[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) + 1);
+        ArrayList<ContentProviderOperation> failingOperations = new ArrayList<>();
+        failingOperations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .build());
+        failingOperations.add(ContentProviderOperation
+                .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValues(badDate)
+                .build());
+
+        try {
+            contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, failingOperations);
+            fail("A date that isn't normalized should have failed the batch");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals("The failed batch's delete should have been rolled back",
+                BULK_INSERT_RECORDS_TO_INSERT, queryWeatherCount());
+    }
+
+    /**
+     * @return The number of rows in the weather table
+     */
+    private int queryWeatherCount() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The _ID of the weather table's row for the date of weatherValues
+     */
+    private long queryId(ContentValues weatherValues) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                        weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)),
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.ForecastCodec;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastDispatcher;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that a sync that asks for the binary format stores exactly the forecast a sync that
+ * asks for JSON does, and caches the binary response.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBinaryWireFormat {
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new ForecastDispatcher(14));
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setWireFormat(NetworkUtils.WireFormat.JSON);
+        NetworkUtils.setTransport(mOriginalTransport);
+        mServer.shutdown();
+    }
+
+    /**
+     * @return Every column of the weather table but the _ID, one line per day
+     */
+    private String dumpForecast() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            StringBuilder dump = new StringBuilder();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < FORECAST_COLUMNS.length; i++) {
+                    dump.append(cursor.getString(i)).append(' ');
+                }
+                dump.append('\n');
+            }
+            return dump.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testBinarySyncStoresSameForecastAsJson() throws IOException {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        String fromJson = dumpForecast();
+        assertEquals(14, fromJson.split("\n").length);
+
+        NetworkUtils.setWireFormat(NetworkUtils.WireFormat.BINARY);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+
+        List<LocalWeatherServer.Request> requests = mServer.getRequests();
+        assertTrue("The second sync should have asked for the binary format",
+                ForecastDispatcher.isBinaryRequest(requests.get(requests.size() - 1)));
+        assertEquals(fromJson, dumpForecast());
+
+        InputStream cached = ForecastResponseCache.getInstance(mContext)
+                .get(NetworkUtils.getUrl(mContext).toString());
+        assertNotNull("The binary response should have been cached", cached);
+        try {
+            byte[] head = new byte[4];
+            assertEquals(head.length, cached.read(head));
+            assertTrue(ForecastCodec.isEncoded(head, head.length));
+        } finally {
+            cached.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests that a sync only rebuilds the weather table from the response cache after a location
+ * change, and never when the same location was last synced with a different number of days.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestCachedForecastSync {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(ForecastPayloads.forecast(14));
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(mOriginalTransport);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testLocationChangeIsServedFromCache() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        String location = HttpValidatorStore.getIngestedLocation(mContext);
+
+        /* The table now holds another location's forecast */
+        HttpValidatorStore.setIngestedUrl(mContext, "https://example.com/elsewhere",
+                "https://example.com/elsewhere", null);
+
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("The cached forecast should have been used", 1, mServer.getRequestCount());
+        assertEquals(location, HttpValidatorStore.getIngestedLocation(mContext));
+    }
+
+    @Test
+    public void testDayCountChangeIsNotServedFromCache() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        String location = HttpValidatorStore.getIngestedLocation(mContext);
+
+        /* The table now holds a newer, shorter forecast of the same location */
+        HttpValidatorStore.setIngestedUrl(mContext, location + "&cnt=3", location, null);
+
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("The forecast should have been downloaded", 2, mServer.getRequestCount());
+    }
+}
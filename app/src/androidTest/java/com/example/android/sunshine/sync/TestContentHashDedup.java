@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Tests that a sync drops a response identical to the one the weather table was filled from,
+ * even when the server doesn't support conditional requests.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestContentHashDedup {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    /* The response the server sends, always with a 200 and never with validators */
+    private volatile String mPayload = ForecastPayloads.forecast(14);
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(mPayload);
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(mOriginalTransport);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testIdenticalResponseIsSkipped() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        String firstHash = HttpValidatorStore.getIngestedHash(mContext);
+        assertNotNull(firstHash);
+
+        assertEquals(SyncResult.NOT_MODIFIED, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(firstHash, HttpValidatorStore.getIngestedHash(mContext));
+    }
+
+    @Test
+    public void testChangedResponseIsStored() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        String firstHash = HttpValidatorStore.getIngestedHash(mContext);
+
+        mPayload = ForecastPayloads.forecast(13);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertNotNull(HttpValidatorStore.getIngestedHash(mContext));
+        assertFalse(firstHash.equals(HttpValidatorStore.getIngestedHash(mContext)));
+    }
+}
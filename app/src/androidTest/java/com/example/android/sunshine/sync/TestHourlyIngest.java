@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HourlyForecastBatch;
+import com.example.android.sunshine.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.utilities.ForecastResult;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utils.ForecastPayloads;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that the 3-hour forecast is decoded and inserted in fixed-size chunks, and that one
+ * day of it can be queried on its own.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestHourlyIngest {
+
+    /* 5 days of entries, 3 hours apart, starting at midnight UTC */
+    private static final int ENTRIES = 40;
+    private static final long START_TIME_SECONDS = 1475323200L;
+
+    private static final int CHUNK_SIZE = 16;
+
+    private final ContentResolver mContentResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    /* The size of every chunk handed over, in order */
+    private final List<Integer> mChunkSizes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mChunkSizes.clear();
+    }
+
+    private ForecastResult stream(String json) throws IOException {
+        return OpenWeatherJsonUtils.streamHourlyForecast(
+                new ByteArrayInputStream(json.getBytes("UTF-8")),
+                new HourlyForecastBatch(CHUNK_SIZE),
+                new OpenWeatherJsonUtils.HourlyForecastHandler() {
+                    @Override
+                    public void handleChunk(HourlyForecastBatch chunk) {
+                        mChunkSizes.add(chunk.size());
+                        chunk.insert(mContentResolver);
+                    }
+                });
+    }
+
+    @Test
+    public void testForecastIsInsertedInChunks() throws IOException {
+        ForecastResult result = stream(ForecastPayloads.hourly(ENTRIES, START_TIME_SECONDS));
+
+        assertEquals(ForecastResult.Status.OK, result.getStatus());
+        assertEquals("[16, 16, 8]", mChunkSizes.toString());
+
+        Cursor cursor = mContentResolver.query(HourlyWeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        try {
+            assertEquals(ENTRIES, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testDayCanBeQueriedOnItsOwn() throws IOException {
+        stream(ForecastPayloads.hourly(ENTRIES, START_TIME_SECONDS));
+
+        Cursor all = mContentResolver.query(HourlyWeatherEntry.CONTENT_URI,
+                new String[]{HourlyWeatherEntry.COLUMN_DATE}, null, null,
+                HourlyWeatherEntry.COLUMN_TIME + " ASC");
+        long firstDate;
+        try {
+            assertTrue(all.moveToFirst());
+            firstDate = all.getLong(0);
+        } finally {
+            all.close();
+        }
+
+        Cursor day = mContentResolver.query(
+                HourlyWeatherEntry.buildHourlyWeatherUriWithDate(firstDate),
+                new String[]{HourlyWeatherEntry.COLUMN_DATE, HourlyWeatherEntry.COLUMN_TIME},
+                null, null, HourlyWeatherEntry.COLUMN_TIME + " ASC");
+        try {
+            /* However the device's time zone cuts up the forecast, no day has more than 8 */
+            assertTrue(day.getCount() > 0 && day.getCount() <= 8);
+
+            long previousTime = Long.MIN_VALUE;
+            while (day.moveToNext()) {
+                assertEquals(firstDate, day.getLong(0));
+                assertTrue(day.getLong(1) > previousTime);
+                previousTime = day.getLong(1);
+            }
+        } finally {
+            day.close();
+        }
+    }
+
+    @Test
+    public void testErrorIsReportedBeforeAnyChunk() throws IOException {
+        ForecastResult result = stream(ForecastPayloads.error(404));
+
+        assertEquals(ForecastResult.Status.LOCATION_INVALID, result.getStatus());
+        assertTrue(mChunkSizes.isEmpty());
+    }
+}
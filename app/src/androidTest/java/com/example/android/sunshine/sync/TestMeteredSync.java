@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Tests that syncs on a metered network only ask for the nearest days once the weather table
+ * holds the whole horizon of the location's forecast, and ask for all of it otherwise.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestMeteredSync {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    private LocalWeatherServer mServer;
+
+    /* The number of days the last request asked for */
+    private volatile int mLastRequestedDays;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                String days = Uri.parse(request.path).getQueryParameter("cnt");
+                mLastRequestedDays = Integer.parseInt(days);
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(ForecastPayloads.forecast(mLastRequestedDays));
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        SunshineSyncTask.setNetworkConstrained(null);
+        NetworkUtils.setTransport(mOriginalTransport);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testFirstMeteredSyncGetsTheWholeHorizon() {
+        SunshineSyncTask.setNetworkConstrained(true);
+
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(NetworkUtils.getForecastDays(), mLastRequestedDays);
+        assertEquals(NetworkUtils.getForecastDays(), queryDayCount());
+    }
+
+    @Test
+    public void testMeteredLocationChangeGetsTheWholeHorizon() {
+        SunshineSyncTask.setNetworkConstrained(false);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+
+        /* The table now holds another location's forecast, which isn't cached */
+        HttpValidatorStore.setIngestedUrl(mContext, "https://example.com/elsewhere",
+                "https://example.com/elsewhere", null);
+        ForecastResponseCache.getInstance(mContext).clear();
+
+        SunshineSyncTask.setNetworkConstrained(true);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(NetworkUtils.getForecastDays(), mLastRequestedDays);
+        assertEquals(NetworkUtils.getForecastDays(), queryDayCount());
+    }
+
+    @Test
+    public void testMeteredSyncAfterAFullOneGetsTheNearestDays() {
+        SunshineSyncTask.setNetworkConstrained(false);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+
+        SunshineSyncTask.setNetworkConstrained(true);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(3, mLastRequestedDays);
+        assertEquals("The days further out should have been kept",
+                NetworkUtils.getForecastDays(), queryDayCount());
+    }
+
+    @Test
+    public void testStaleFullForecastIsDownloadedAgain() {
+        SunshineSyncTask.setNetworkConstrained(false);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+
+        /* The last full download was two days ago */
+        HttpValidatorStore.setFullForecastTime(mContext,
+                System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000);
+
+        SunshineSyncTask.setNetworkConstrained(true);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(NetworkUtils.getForecastDays(), mLastRequestedDays);
+    }
+
+    /**
+     * @return The number of days in the weather table
+     */
+    private int queryDayCount() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
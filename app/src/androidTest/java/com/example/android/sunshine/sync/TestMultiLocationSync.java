@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationWeatherEntry;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests {@link MultiLocationSyncTask} against a local server, and measures how its throughput
+ * scales from 1 to 100 locations.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestMultiLocationSync {
+
+    private static final String TAG = TestMultiLocationSync.class.getSimpleName();
+
+    /* How long the local server takes to answer each request, to simulate a real network */
+    private static final long SERVER_LATENCY_MILLIS = 50;
+
+    private static final String UNKNOWN_LOCATION = "nowhere";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    private final AtomicInteger mRequestsInFlight = new AtomicInteger();
+    private final AtomicInteger mMostRequestsInFlight = new AtomicInteger();
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        final String forecast = ForecastPayloads.forecast(14);
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request)
+                    throws InterruptedException {
+                int inFlight = mRequestsInFlight.incrementAndGet();
+                try {
+                    int most;
+                    while (inFlight > (most = mMostRequestsInFlight.get())) {
+                        mMostRequestsInFlight.compareAndSet(most, inFlight);
+                    }
+
+                    Thread.sleep(SERVER_LATENCY_MILLIS);
+                    if (request.path.contains("q=" + UNKNOWN_LOCATION)) {
+                        return new LocalWeatherServer.Response(HttpURLConnection.HTTP_NOT_FOUND);
+                    }
+                    return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                            .setBody(forecast);
+                } finally {
+                    mRequestsInFlight.decrementAndGet();
+                }
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+        mContext.getContentResolver().delete(LocationWeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(mOriginalTransport);
+        mContext.getContentResolver().delete(LocationWeatherEntry.CONTENT_URI, null, null);
+        mServer.shutdown();
+    }
+
+    private static List<String> locations(int count) {
+        List<String> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add("location-" + i);
+        }
+        return locations;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testEachLocationGetsItsOwnResult() {
+        List<String> locations = Arrays.asList("94043,USA", UNKNOWN_LOCATION, "London,UK");
+
+        List<LocationSyncResult> results =
+                MultiLocationSyncTask.syncLocations(mContext, locations, 2);
+
+        assertEquals(3, results.size());
+        assertEquals("94043,USA", results.get(0).location);
+        assertEquals(SyncResult.SUCCESS, results.get(0).result);
+        assertEquals(14, results.get(0).rowsInserted);
+
+        assertEquals(UNKNOWN_LOCATION, results.get(1).location);
+        assertEquals("One bad location shouldn't fail the others",
+                SyncResult.FAILED, results.get(1).result);
+        assertNotNull(results.get(1).error);
+
+        assertEquals(SyncResult.SUCCESS, results.get(2).result);
+
+        assertEquals(14, countRows(LocationWeatherEntry.buildLocationWeatherUri("94043,USA")));
+        assertEquals(14, countRows(LocationWeatherEntry.buildLocationWeatherUri("London,UK")));
+        assertEquals(0, countRows(LocationWeatherEntry.buildLocationWeatherUri(UNKNOWN_LOCATION)));
+    }
+
+    @Test
+    public void testResyncReplacesOnlyThatLocation() {
+        MultiLocationSyncTask.syncLocations(mContext, locations(3));
+        MultiLocationSyncTask.syncLocations(mContext, locations(1));
+
+        assertEquals(3 * 14, countRows(LocationWeatherEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        List<LocationSyncResult> results =
+                MultiLocationSyncTask.syncLocations(mContext, locations(20), 4);
+
+        for (LocationSyncResult result : results) {
+            assertEquals(result.toString(), SyncResult.SUCCESS, result.result);
+        }
+        assertTrue("At most 4 requests should have been in flight, saw "
+                + mMostRequestsInFlight.get(), mMostRequestsInFlight.get() <= 4);
+    }
+
+    /**
+     * Syncs 1, 10, 25, 50 and then 100 locations, and logs how many locations per second were
+     * synced for each. With the server's latency dominating, throughput should grow with the
+     * number of locations until every thread is kept busy.
+     */
+    @Test
+    public void benchmarkThroughput() {
+        int[] locationCounts = {1, 10, 25, 50, 100};
+        for (int locationCount : locationCounts) {
+            List<String> locations = locations(locationCount);
+
+            long startNanos = System.nanoTime();
+            List<LocationSyncResult> results =
+                    MultiLocationSyncTask.syncLocations(mContext, locations);
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            for (LocationSyncResult result : results) {
+                assertEquals(result.toString(), SyncResult.SUCCESS, result.result);
+            }
+
+            double seconds = elapsedNanos / 1e9;
+            Log.i(TAG, String.format("%3d locations: %6.0f ms, %6.1f locations/s",
+                    locationCount, seconds * 1000, locationCount / seconds));
+        }
+
+        assertEquals(100 * 14, countRows(LocationWeatherEntry.CONTENT_URI));
+    }
+}
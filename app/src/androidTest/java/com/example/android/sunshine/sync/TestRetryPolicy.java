@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the backoff of {@link RetryPolicy} and the states of {@link CircuitBreaker}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestRetryPolicy {
+
+    @Test
+    public void testAttemptsAreLimited() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 8000);
+        assertTrue(policy.shouldRetry(1));
+        assertTrue(policy.shouldRetry(2));
+        assertFalse(policy.shouldRetry(3));
+    }
+
+    @Test
+    public void testBackoffDoublesWithJitterUpToTheLimit() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 8000, new Random(42));
+
+        long[] expectedBackoffs = {1000, 2000, 4000, 8000, 8000, 8000};
+        for (int i = 0; i < expectedBackoffs.length; i++) {
+            long backoff = expectedBackoffs[i];
+            for (int sample = 0; sample < 100; sample++) {
+                long delay = policy.getDelayMillis(i + 1);
+                assertTrue("Delay " + delay + " after " + (i + 1) + " failures",
+                        delay >= backoff / 2 && delay <= backoff);
+            }
+        }
+    }
+
+    @Test
+    public void testJitterSpreadsDelays() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 8000, new Random(42));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int sample = 0; sample < 100; sample++) {
+            long delay = policy.getDelayMillis(3);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue("Delays should not all be the same", max - min > 1000);
+    }
+
+    @Test
+    public void testBreakerOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        assertEquals("A success in between should reset the count",
+                CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(0));
+
+        breaker.recordFailure(100);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(500));
+    }
+
+    @Test
+    public void testBreakerLetsOneTrialThroughAfterOpenPeriod() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.recordFailure(0);
+        assertFalse(breaker.allowRequest(999));
+
+        assertTrue(breaker.allowRequest(1000));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse("Only one trial should be let through", breaker.allowRequest(1001));
+
+        /* A failed trial opens the breaker for another period */
+        breaker.recordFailure(1500);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(2000));
+
+        /* A successful one closes it */
+        assertTrue(breaker.allowRequest(2500));
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(2501));
+    }
+
+    @Test
+    public void testReleasedTrialLetsTheNextOneThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.recordFailure(0);
+        assertTrue(breaker.allowRequest(1000));
+
+        /* The trial was cancelled before it got an answer */
+        breaker.releaseTrial();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest(1001));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        /* Releasing does nothing once the trial has been answered */
+        breaker.recordSuccess();
+        breaker.releaseTrial();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link SingleFlight} coalesces concurrent calls for the same key, and only those.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSingleFlight {
+
+    private static final int CALLERS = 5;
+
+    @Test
+    public void testConcurrentCallsForSameKeyShareOneRun() throws Exception {
+        final SingleFlight<String, SyncResult> singleFlight = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Callable<SyncResult> work = new Callable<SyncResult>() {
+            @Override
+            public SyncResult call() throws Exception {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await();
+                return SyncResult.SUCCESS;
+            }
+        };
+
+        final SyncResult[] results = new SyncResult[CALLERS];
+        Thread[] threads = new Thread[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results[caller] = singleFlight.execute("location", work);
+                    } catch (ExecutionException | InterruptedException e) {
+                        results[caller] = SyncResult.FAILED;
+                    }
+                }
+            });
+        }
+
+        /* Start one caller first so that the others all arrive while its run is in flight */
+        threads[0].start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; i++) {
+            threads[i].start();
+        }
+        assertTrue(singleFlight.isInFlight("location"));
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertEquals("Callers that arrive during a run should not start another one",
+                1, runs.get());
+        for (SyncResult result : results) {
+            assertEquals(SyncResult.SUCCESS, result);
+        }
+        assertFalse(singleFlight.isInFlight("location"));
+    }
+
+    @Test
+    public void testCallsAfterARunFinishesRunAgain() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        Callable<Integer> work = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return runs.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, (int) singleFlight.execute("location", work));
+        assertEquals(2, (int) singleFlight.execute("location", work));
+        assertEquals(3, (int) singleFlight.execute("other-location", work));
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRemembered() throws Exception {
+        SingleFlight<String, SyncResult> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("location", new Callable<SyncResult>() {
+                @Override
+                public SyncResult call() throws Exception {
+                    throw new IllegalStateException("server down");
+                }
+            });
+            throw new AssertionError("The failure should have been rethrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertFalse(singleFlight.isInFlight("location"));
+        assertEquals(SyncResult.NOT_MODIFIED, singleFlight.execute("location",
+                new Callable<SyncResult>() {
+                    @Override
+                    public SyncResult call() {
+                        return SyncResult.NOT_MODIFIED;
+                    }
+                }));
+    }
+
+    @Test
+    public void testCallersThatJoinACancelledRunGoAgain() throws Exception {
+        final SingleFlight<String, SyncResult> singleFlight = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        /* The first run is stopped part of the way through, as onStopJob would */
+        final Callable<SyncResult> work = new Callable<SyncResult>() {
+            @Override
+            public SyncResult call() throws Exception {
+                if (runs.incrementAndGet() == 1) {
+                    started.countDown();
+                    release.await();
+                    throw new CancellationException();
+                }
+                return SyncResult.SUCCESS;
+            }
+        };
+
+        final Throwable[] cancelledCause = new Throwable[1];
+        Thread cancelled = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("location", work);
+                } catch (ExecutionException e) {
+                    cancelledCause[0] = e.getCause();
+                } catch (InterruptedException e) {
+                    cancelledCause[0] = e;
+                }
+            }
+        });
+        final SyncResult[] joinedResult = new SyncResult[1];
+        Thread joined = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    joinedResult[0] = singleFlight.execute("location", work);
+                } catch (ExecutionException | InterruptedException e) {
+                    joinedResult[0] = SyncResult.FAILED;
+                }
+            }
+        });
+
+        cancelled.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        joined.start();
+
+        release.countDown();
+        cancelled.join(5000);
+        joined.join(5000);
+
+        assertTrue("The stopped caller should be told it was stopped",
+                cancelledCause[0] instanceof CancellationException);
+        assertEquals("A caller that joined a stopped run should run the work itself",
+                SyncResult.SUCCESS, joinedResult[0]);
+        assertEquals(2, runs.get());
+        assertFalse(singleFlight.isInFlight("location"));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.data.SyncTelemetryStore;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.SyncTelemetryEntry;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Stops syncs run by {@link SyncExecutor} while the local server is holding on to their
+ * request, the way a stalled server would, to check that they give up right away rather than
+ * when the read times out, that nothing is written, and that the job is rescheduled.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncCancellation {
+
+    /* Far longer than a stopped sync may take to return, and shorter than the read timeout */
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    /* Counted down once the server has a request, and by the test to let the server answer */
+    private final CountDownLatch mRequestReceived = new CountDownLatch(1);
+    private final CountDownLatch mReleaseResponse = new CountDownLatch(1);
+
+    private LocalWeatherServer mServer;
+
+    /* Whether the server fails every request right away instead of holding on to it */
+    private volatile boolean mFailRequests;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request)
+                    throws InterruptedException {
+                mRequestReceived.countDown();
+                if (mFailRequests) {
+                    return new LocalWeatherServer.Response(
+                            HttpURLConnection.HTTP_UNAVAILABLE);
+                }
+                mReleaseResponse.await();
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(ForecastPayloads.forecast(14));
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+        SyncTelemetryStore.clear(mContext);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null,
+                null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mReleaseResponse.countDown();
+        SunshineSyncTask.setRetryPolicy(new RetryPolicy(3, 1000, 4000),
+                new CircuitBreaker(5, 15 * 60 * 1000));
+        NetworkUtils.setTransport(mOriginalTransport);
+        mServer.shutdown();
+    }
+
+    private static Callable<SyncResult> newSync(final Context context) {
+        return new Callable<SyncResult>() {
+            @Override
+            public SyncResult call() {
+                return SunshineSyncTask.syncWeather(context);
+            }
+        };
+    }
+
+    @Test
+    public void testStoppedSyncGivesUpAndIsRescheduled() throws Exception {
+        final AtomicReference<SyncResult> delivered = new AtomicReference<>();
+        SyncExecutor.Task task = SyncExecutor.execute(newSync(mContext),
+                new SyncExecutor.Callback() {
+                    @Override
+                    public void onSyncFinished(SyncResult result) {
+                        delivered.set(result);
+                    }
+                });
+
+        assertTrue(mRequestReceived.await(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        long stopMillis = SystemClock.elapsedRealtime();
+        assertTrue("A sync stopped before it is done should be rescheduled", task.cancel());
+        assertTrue("The sync kept waiting for the server",
+                task.awaitDone(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        long stoppingMillis = SystemClock.elapsedRealtime() - stopMillis;
+
+        /* The result would have been posted to the main thread by now */
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertNull("A stopped job must not be finished as well", delivered.get());
+
+        assertTrue("Stopping took " + stoppingMillis + "ms",
+                stoppingMillis < STOP_TIMEOUT_MILLIS);
+        assertEquals("A stopped sync must not write anything", 0, queryWeatherCount());
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_SYNC,
+                SyncError.CANCELLED.name()));
+    }
+
+    @Test
+    public void testSyncStoppedBetweenRetriesIsRecordedAsCancelled() throws Exception {
+        mFailRequests = true;
+        SunshineSyncTask.setRetryPolicy(new RetryPolicy(3, 60000, 60000),
+                new CircuitBreaker(5, 15 * 60 * 1000));
+        SyncExecutor.Task task = SyncExecutor.execute(newSync(mContext),
+                new SyncExecutor.Callback() {
+                    @Override
+                    public void onSyncFinished(SyncResult result) {
+                    }
+                });
+
+        /* Give the sync time to record the failure and start waiting to retry */
+        assertTrue(mRequestReceived.await(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        SystemClock.sleep(500);
+
+        assertTrue(task.cancel());
+        assertTrue("The sync kept waiting to retry",
+                task.awaitDone(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("Only the request should count as unavailable", 1,
+                queryOutcomeCount(SyncTelemetryEntry.SCOPE_REQUEST, SyncError.HTTP_STATUS.name()));
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_SYNC,
+                SyncError.CANCELLED.name()));
+    }
+
+    @Test
+    public void testFinishedSyncIsNotRescheduled() throws Exception {
+        mReleaseResponse.countDown();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<SyncResult> delivered = new AtomicReference<>();
+        SyncExecutor.Task task = SyncExecutor.execute(newSync(mContext),
+                new SyncExecutor.Callback() {
+                    @Override
+                    public void onSyncFinished(SyncResult result) {
+                        delivered.set(result);
+                        finished.countDown();
+                    }
+                });
+
+        assertTrue(finished.await(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(SyncResult.SUCCESS, delivered.get());
+        assertFalse("A sync that succeeded doesn't need to run again", task.cancel());
+        assertEquals(14, queryWeatherCount());
+    }
+
+    private int queryWeatherCount() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return How many times the outcome was recorded for the scope, per OUTCOMES_URI
+     */
+    private long queryOutcomeCount(String scope, String outcome) {
+        Cursor cursor = mContext.getContentResolver().query(SyncTelemetryEntry.OUTCOMES_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            int scopeIndex = cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_SCOPE);
+            int outcomeIndex = cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_OUTCOME);
+            int countIndex = cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_COUNT);
+            while (cursor.moveToNext()) {
+                if (scope.equals(cursor.getString(scopeIndex))
+                        && outcome.equals(cursor.getString(outcomeIndex))) {
+                    return cursor.getLong(countIndex);
+                }
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
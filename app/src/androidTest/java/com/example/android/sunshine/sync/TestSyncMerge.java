@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Tests that a sync that downloads fewer days than the weather table holds merges them into the
+ * table, rather than throwing away the days it didn't download, and that a sync only rewrites
+ * the days that changed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncMerge {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    /* How many days of forecast the server sends */
+    private volatile int mForecastDays = 14;
+
+    /* If not null, replaces the first match of the first String in the forecast with the second */
+    private volatile String[] mEdit;
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                String forecast = ForecastPayloads.forecast(mForecastDays);
+                String[] edit = mEdit;
+                if (edit != null) {
+                    forecast = forecast.replaceFirst(edit[0], edit[1]);
+                }
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(forecast);
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(mOriginalTransport);
+        mServer.shutdown();
+    }
+
+    private int countDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The _ID of every row in the weather table, by date
+     */
+    private String queryIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            StringBuilder ids = new StringBuilder();
+            while (cursor.moveToNext()) {
+                ids.append(cursor.getLong(0)).append(' ');
+            }
+            return ids.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testOnlyChangedDaysAreRewritten() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        String ids = queryIds();
+
+        /* Day 5 of the generated forecast is the only one with this humidity */
+        mEdit = new String[]{"\"humidity\":45,", "\"humidity\":99,"};
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+
+        assertEquals("Rows should have been updated in place, not replaced",
+                ids, queryIds());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_HUMIDITY},
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = 99",
+                null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testPartialForecastIsMergedIntoTable() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(14, countDays());
+
+        mForecastDays = 3;
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("Days the second sync didn't download should have been kept",
+                14, countDays());
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.data.SyncTelemetryStore;
+import com.example.android.sunshine.data.WeatherContract.SyncTelemetryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherResponse;
+import com.example.android.sunshine.utilities.WeatherTransport;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalServerTransport;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs whole syncs against a local server that fails on purpose, to check that failures are
+ * retried, that the circuit breaker stops the retries, that the outcome tells the job
+ * dispatcher whether to reschedule, and that every failure is counted in the sync telemetry,
+ * along with the stages of the sync.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncRetries {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    /* How many of the next requests the server should fail, and with what status */
+    private final AtomicInteger mFailuresLeft = new AtomicInteger();
+    private volatile int mFailureStatus = HttpURLConnection.HTTP_UNAVAILABLE;
+
+    /* What the server sends once it stops failing */
+    private volatile String mPayload = ForecastPayloads.forecast(14);
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                if (mFailuresLeft.getAndDecrement() > 0) {
+                    return new LocalWeatherServer.Response(mFailureStatus);
+                }
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(mPayload);
+            }
+        });
+        mServer.start();
+        NetworkUtils.setTransport(new LocalServerTransport(mServer));
+
+        /* Make sure every sync goes to the server */
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+        SyncTelemetryStore.clear(mContext);
+
+        /* Retry quickly, so the tests don't take long */
+        SunshineSyncTask.setRetryPolicy(new RetryPolicy(3, 10, 20), new CircuitBreaker(5, 60000));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(mOriginalTransport);
+        SunshineSyncTask.setRetryPolicy(new RetryPolicy(3, 1000, 4000),
+                new CircuitBreaker(5, 15 * 60 * 1000));
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testTransientFailuresAreRetried() {
+        mFailuresLeft.set(2);
+
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testTimeoutsAreRetriedAndCounted() {
+        /* The first request times out before the server is even asked */
+        final AtomicInteger timeoutsLeft = new AtomicInteger(1);
+        final WeatherTransport serverTransport = NetworkUtils.getTransport();
+        CircuitBreaker circuitBreaker = new CircuitBreaker(5, 60000);
+        SunshineSyncTask.setRetryPolicy(new RetryPolicy(3, 10, 20), circuitBreaker);
+        NetworkUtils.setTransport(new WeatherTransport() {
+            @Override
+            public WeatherResponse execute(URL url, Map<String, String> requestHeaders)
+                    throws IOException {
+                if (timeoutsLeft.getAndDecrement() > 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                return serverTransport.execute(url, requestHeaders);
+            }
+        });
+
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_REQUEST,
+                SyncError.TIMEOUT.name()));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testPastForecastKeepsTheTable() {
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        int currentDays = queryCurrentDayCount();
+        assertTrue(currentDays > 0);
+
+        /* Every day of this one passed weeks ago, merging it would empty the table */
+        mPayload = ForecastPayloads.forecast(14, -30);
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+        assertEquals(SyncResult.FAILED, SunshineSyncTask.syncWeather(mContext));
+
+        assertEquals(currentDays, queryCurrentDayCount());
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_SYNC,
+                SyncError.PARSE.name()));
+    }
+
+    /**
+     * @return How many days from today onwards the weather table holds
+     */
+    private int queryCurrentDayCount() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, WeatherEntry.getSqlSelectForTodayOnwards(),
+                null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testPersistentFailureAsksForReschedule() {
+        mFailuresLeft.set(Integer.MAX_VALUE);
+
+        assertEquals(SyncResult.RETRY, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("Each sync should give up after 3 attempts", 3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testUnknownLocationIsNotRetried() {
+        mFailuresLeft.set(Integer.MAX_VALUE);
+        mFailureStatus = HttpURLConnection.HTTP_NOT_FOUND;
+
+        assertEquals(SyncResult.FAILED, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testOpenBreakerSkipsTheServer() {
+        mFailuresLeft.set(Integer.MAX_VALUE);
+
+        /* The 3 attempts of the first sync, and 2 of the second, open the breaker */
+        assertEquals(SyncResult.RETRY, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(SyncResult.RETRY, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(5, mServer.getRequestCount());
+
+        /* Now, syncs are turned away without bothering the server, even once it has recovered */
+        mFailuresLeft.set(0);
+        assertEquals(SyncResult.RETRY, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(5, mServer.getRequestCount());
+    }
+
+    /**
+     * @return How many times the outcome was recorded for the scope, per OUTCOMES_URI
+     */
+    private long queryOutcomeCount(String scope, String outcome) {
+        Cursor cursor = mContext.getContentResolver().query(SyncTelemetryEntry.OUTCOMES_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            int scopeIndex = cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_SCOPE);
+            int outcomeIndex = cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_OUTCOME);
+            int countIndex = cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_COUNT);
+            while (cursor.moveToNext()) {
+                if (scope.equals(cursor.getString(scopeIndex))
+                        && outcome.equals(cursor.getString(outcomeIndex))) {
+                    return cursor.getLong(countIndex);
+                }
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testFailuresAreCountedByCategory() {
+        mFailuresLeft.set(2);
+        assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+
+        assertEquals(2, queryOutcomeCount(SyncTelemetryEntry.SCOPE_REQUEST,
+                SyncError.HTTP_STATUS.name()));
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_REQUEST, "OK"));
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_SYNC,
+                SyncResult.SUCCESS.name()));
+
+        mFailuresLeft.set(Integer.MAX_VALUE);
+        mFailureStatus = HttpURLConnection.HTTP_NOT_FOUND;
+        ForecastResponseCache.getInstance(mContext).clear();
+        HttpValidatorStore.clear(mContext);
+        assertEquals(SyncResult.FAILED, SunshineSyncTask.syncWeather(mContext));
+        assertEquals(1, queryOutcomeCount(SyncTelemetryEntry.SCOPE_SYNC,
+                SyncError.HTTP_STATUS.name()));
+
+        /* Every sync also falls in one bucket of the latency histogram */
+        Cursor latency = mContext.getContentResolver().query(SyncTelemetryEntry.LATENCY_URI,
+                null, null, null, null);
+        assertNotNull(latency);
+        try {
+            long syncs = 0;
+            while (latency.moveToNext()) {
+                if (SyncTelemetryEntry.SCOPE_SYNC.equals(latency.getString(
+                        latency.getColumnIndex(SyncTelemetryEntry.COLUMN_SCOPE)))) {
+                    syncs += latency.getLong(
+                            latency.getColumnIndex(SyncTelemetryEntry.COLUMN_COUNT));
+                }
+            }
+            assertEquals(2, syncs);
+        } finally {
+            latency.close();
+        }
+    }
+
+    @Test
+    public void testStagesAreRecorded() {
+        SyncStageRecorder.setCountAllocations(true);
+        try {
+            mFailuresLeft.set(2);
+            assertEquals(SyncResult.SUCCESS, SunshineSyncTask.syncWeather(mContext));
+        } finally {
+            SyncStageRecorder.setCountAllocations(BuildConfig.DEBUG);
+        }
+
+        /* The failed attempts add to the sync's connect stage, rather than counting as syncs */
+        String[] expectedStages = {
+                SyncTelemetryEntry.STAGE_BUILD_URL,
+                SyncTelemetryEntry.STAGE_CONNECT,
+                SyncTelemetryEntry.STAGE_DOWNLOAD,
+                SyncTelemetryEntry.STAGE_DECODE,
+                SyncTelemetryEntry.STAGE_PERSIST,
+                SyncTelemetryEntry.STAGE_NOTIFY,
+        };
+        Cursor cursor = mContext.getContentResolver().query(SyncTelemetryEntry.STAGES_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(expectedStages.length, cursor.getCount());
+            for (String expectedStage : expectedStages) {
+                cursor.moveToNext();
+                assertEquals(expectedStage, cursor.getString(
+                        cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_STAGE)));
+                assertEquals(1, cursor.getLong(
+                        cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_COUNT)));
+
+                double p50 = cursor.getDouble(
+                        cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_P50_MILLIS));
+                double max = cursor.getDouble(
+                        cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_MAX_MILLIS));
+                assertTrue(p50 >= 0 && p50 <= max);
+                assertFalse(cursor.isNull(
+                        cursor.getColumnIndex(SyncTelemetryEntry.COLUMN_P50_ALLOCATED_BYTES)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
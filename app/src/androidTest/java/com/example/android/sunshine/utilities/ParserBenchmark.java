@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utils.ForecastPayloads;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the streaming and DOM forecast parsers of {@link OpenWeatherJsonUtils}, on forecasts
+ * of 14 days (what Sunshine asks for), 16 days (the most OpenWeatherMap's daily API returns) and
+ * a synthetic 365 days. For each, the time and the bytes allocated per parse are logged. The
+ * streaming parser is also measured decoding only the columns a notification needs.
+ * <p>
+ * JMH doesn't run on Android, so this is a plain instrumented test. Run it on a device with
+ * the screen on and nothing else going on, and compare numbers from the same device only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParserBenchmark {
+
+    private static final String TAG = ParserBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 20;
+
+    /* Keep the total amount of JSON parsed about the same for every payload size */
+    private static final int MEASURED_DAYS = 14 * 200;
+
+    /* The columns a notification or a watch face shows */
+    private static final String[] SUMMARY_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    @After
+    public void tearDown() {
+        OpenWeatherJsonUtils.setParser(OpenWeatherJsonUtils.Parser.STREAMING);
+    }
+
+    private static ForecastBatch parse(OpenWeatherJsonUtils.Parser parser, byte[] payload)
+            throws IOException {
+        OpenWeatherJsonUtils.setParser(parser);
+        return OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(payload))
+                .getForecast();
+    }
+
+    @Test
+    public void testParsersAgree() throws IOException {
+        byte[] payload = ForecastPayloads.forecast(16).getBytes("UTF-8");
+
+        ContentValues[] streaming =
+                parse(OpenWeatherJsonUtils.Parser.STREAMING, payload).toContentValues();
+        ContentValues[] dom = parse(OpenWeatherJsonUtils.Parser.DOM, payload).toContentValues();
+
+        assertEquals(dom.length, streaming.length);
+        for (int i = 0; i < dom.length; i++) {
+            assertEquals("Day " + i, dom[i], streaming[i]);
+        }
+    }
+
+    @Test
+    public void testProjectionAgrees() throws IOException {
+        byte[] payload = ForecastPayloads.forecast(16).getBytes("UTF-8");
+
+        ForecastBatch full = parse(OpenWeatherJsonUtils.Parser.STREAMING, payload);
+        ForecastBatch summary = parseSummary(payload);
+
+        assertEquals(full.size(), summary.size());
+        for (int i = 0; i < full.size(); i++) {
+            assertEquals("Day " + i, full.getDate(i), summary.getDate(i));
+            assertEquals("Day " + i, full.getMaxTemp(i), summary.getMaxTemp(i));
+            assertEquals("Day " + i, full.getMinTemp(i), summary.getMinTemp(i));
+            assertEquals("Day " + i, full.getWeatherId(i), summary.getWeatherId(i));
+            /* Left out of the projection, so never decoded */
+            assertEquals("Day " + i, 0.0, summary.getPressure(i));
+        }
+    }
+
+    @Test
+    public void benchmark14Days() throws IOException {
+        compare(14);
+    }
+
+    @Test
+    public void benchmark16Days() throws IOException {
+        compare(16);
+    }
+
+    @Test
+    public void benchmark365Days() throws IOException {
+        compare(365);
+    }
+
+    private static void compare(int days) throws IOException {
+        byte[] payload = ForecastPayloads.forecast(days).getBytes("UTF-8");
+        int iterations = Math.max(10, MEASURED_DAYS / days);
+
+        for (OpenWeatherJsonUtils.Parser parser : OpenWeatherJsonUtils.Parser.values()) {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                parse(parser, payload);
+            }
+
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                parse(parser, payload);
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            Debug.stopAllocCounting();
+            long allocatedBytes = Debug.getThreadAllocSize();
+
+            Log.i(TAG, String.format("%3d days (%6d bytes), %-9s: %8.1f us/parse, %8d bytes "
+                            + "allocated/parse",
+                    days, payload.length, parser,
+                    elapsedNanos / 1000.0 / iterations,
+                    allocatedBytes / iterations));
+        }
+
+        OpenWeatherJsonUtils.setParser(OpenWeatherJsonUtils.Parser.STREAMING);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseSummary(payload);
+        }
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            parseSummary(payload);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+        long allocatedBytes = Debug.getThreadAllocSize();
+
+        Log.i(TAG, String.format("%3d days (%6d bytes), %-9s: %8.1f us/parse, %8d bytes "
+                        + "allocated/parse",
+                days, payload.length, "SUMMARY",
+                elapsedNanos / 1000.0 / iterations,
+                allocatedBytes / iterations));
+    }
+
+    private static ForecastBatch parseSummary(byte[] payload) throws IOException {
+        return OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(payload),
+                SUMMARY_PROJECTION).getForecast();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that NetworkUtils negotiates compression and decompresses forecasts while parsing them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestCompressedResponses {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final NetworkUtils.ResponseHandler<ContentValues[]> mHandler =
+            new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                @Override
+                public ContentValues[] handleResponse(InputStream in) throws IOException {
+                    return OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext, in);
+                }
+            };
+
+    private LocalWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(null);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    private void serveEncoded(final String encoding, final byte[] body) {
+        mServer.setDispatcher(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("Content-Encoding", encoding)
+                        .setBody(body);
+            }
+        });
+    }
+
+    private static byte[] compress(OutputStream compressor, ByteArrayOutputStream sink,
+                                   byte[] data) throws IOException {
+        compressor.write(data);
+        compressor.close();
+        return sink.toByteArray();
+    }
+
+    @Test
+    public void testGzipResponseIsDecompressedAndCounted() throws IOException {
+        byte[] json = ForecastPayloads.forecast(14).getBytes("UTF-8");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        byte[] gzipped = compress(new GZIPOutputStream(sink), sink, json);
+        serveEncoded("gzip", gzipped);
+
+        TransferStats stats = new TransferStats();
+        ContentValues[] values = NetworkUtils.getResponseFromHttpUrl(mContext,
+                mServer.getUrl("/weather?q=gzip"), false, stats, mHandler);
+
+        assertNotNull(values);
+        assertEquals(14, values.length);
+        assertEquals("gzip, deflate", mServer.getRequests().get(0).getHeader("Accept-Encoding"));
+        assertEquals(gzipped.length, stats.compressedBytes);
+        assertEquals(json.length, stats.uncompressedBytes);
+        assertTrue("A 14 day forecast should compress well", stats.getCompressionRatio() > 2);
+    }
+
+    @Test
+    public void testDeflateResponseIsDecompressed() throws IOException {
+        byte[] json = ForecastPayloads.forecast(14).getBytes("UTF-8");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        serveEncoded("deflate", compress(new DeflaterOutputStream(sink), sink, json));
+
+        TransferStats stats = new TransferStats();
+        ContentValues[] values = NetworkUtils.getResponseFromHttpUrl(mContext,
+                mServer.getUrl("/weather?q=deflate"), false, stats, mHandler);
+
+        assertNotNull(values);
+        assertEquals(14, values.length);
+        assertEquals(json.length, stats.uncompressedBytes);
+    }
+}
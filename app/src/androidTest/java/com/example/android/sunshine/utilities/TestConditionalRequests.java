@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests conditional requests (ETag / If-Modified-Since) in NetworkUtils against a local server
+ * that behaves like a well-mannered weather server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConditionalRequests {
+
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 01 Oct 2016 12:00:00 GMT";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private LocalWeatherServer mServer;
+
+    /* Counts how many times the response handler was asked to parse a body */
+    private int mParseCount;
+
+    private final NetworkUtils.ResponseHandler<ContentValues[]> mHandler =
+            new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                @Override
+                public ContentValues[] handleResponse(InputStream in) throws IOException {
+                    mParseCount++;
+                    return OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext, in);
+                }
+            };
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new LocalWeatherServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED);
+                }
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Last-Modified", LAST_MODIFIED)
+                        .setBody(ForecastPayloads.forecast(14));
+            }
+        });
+        mServer.start();
+        mParseCount = 0;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testValidatorsAreSentAndNotModifiedSkipsParsing() throws IOException {
+        URL url = mServer.getUrl("/weather?q=conditional-" + System.nanoTime());
+
+        ContentValues[] first = NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler);
+        assertNotNull("The first request should have returned a forecast", first);
+        assertEquals(14, first.length);
+        assertNull("No validators should be sent before we have any",
+                mServer.getRequests().get(0).getHeader("If-None-Match"));
+
+        ContentValues[] second = NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler);
+        assertNull("A 304 response should return null", second);
+        assertEquals("A 304 response should never reach the parser", 1, mParseCount);
+
+        LocalWeatherServer.Request conditionalRequest = mServer.getRequests().get(1);
+        assertEquals(ETAG, conditionalRequest.getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, conditionalRequest.getHeader("If-Modified-Since"));
+    }
+
+    @Test
+    public void testUnconditionalRequestIgnoresValidators() throws IOException {
+        URL url = mServer.getUrl("/weather?q=unconditional-" + System.nanoTime());
+
+        NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler);
+        ContentValues[] second = NetworkUtils.getResponseFromHttpUrl(mContext, url, false, mHandler);
+
+        assertNotNull("An unconditional request must always return the forecast", second);
+        assertEquals(2, mParseCount);
+        assertFalse(mServer.getRequests().get(1).headers.containsKey("if-none-match"));
+    }
+
+    @Test
+    public void testRejectedResponseDoesNotStoreValidators() throws IOException {
+        final URL url = mServer.getUrl("/weather?q=rejected-" + System.nanoTime());
+        mServer.setDispatcher(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("ETag", ETAG)
+                        .setBody(ForecastPayloads.error(HttpURLConnection.HTTP_NOT_FOUND));
+            }
+        });
+
+        assertNull(NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler));
+        NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler);
+
+        assertTrue("Validators of a rejected response must not be sent back",
+                mServer.getRequests().get(1).getHeader("If-None-Match") == null);
+    }
+}
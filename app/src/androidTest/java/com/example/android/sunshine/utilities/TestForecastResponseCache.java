@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class TestForecastResponseCache {
+
+    private static final String URL_A = "https://example.com/weather?q=A";
+    private static final String URL_B = "https://example.com/weather?q=B";
+    private static final String URL_C = "https://example.com/weather?q=C";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test_forecast_responses_" + System.nanoTime());
+    }
+
+    private static void put(ForecastResponseCache cache, String url, byte[] body)
+            throws IOException {
+        ForecastResponseCache.Writer writer = cache.edit(url);
+        assertNotNull(writer);
+        InputStream tee = writer.tee(new ByteArrayInputStream(body));
+        /* Read only part of the body, as a parser might, commit must copy the rest */
+        tee.read(new byte[body.length / 2]);
+        writer.commit();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testHitAndMiss() throws IOException {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 60000, 4096);
+        byte[] body = "{\"cod\":\"200\"}".getBytes("UTF-8");
+
+        assertNull(cache.get(URL_A));
+        put(cache, URL_A, body);
+
+        InputStream cached = cache.get(URL_A);
+        assertNotNull(cached);
+        assertEquals(new String(body, "UTF-8"), new String(readFully(cached), "UTF-8"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiredEntriesAreMisses() throws IOException, InterruptedException {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 1, 4096);
+        put(cache, URL_A, new byte[16]);
+
+        Thread.sleep(10);
+
+        assertNull(cache.get(URL_A));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+        /* Room for two 100 byte entries (plus the 8 byte timestamp each), but not three */
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 60000, 250);
+        put(cache, URL_A, new byte[100]);
+        put(cache, URL_B, new byte[100]);
+
+        /* Using A makes B the least recently used entry */
+        cache.get(URL_A).close();
+        put(cache, URL_C, new byte[100]);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(URL_B));
+        assertNotNull(cache.get(URL_A));
+        assertNotNull(cache.get(URL_C));
+    }
+
+    @Test
+    public void testWrittenBodyCanBeReadBeforeCommit() throws IOException {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 60000, 4096);
+        byte[] body = "{\"cod\":\"200\"}".getBytes("UTF-8");
+        ForecastResponseCache.Writer writer = cache.edit(URL_A);
+        assertNotNull(writer);
+        readFully(writer.tee(new ByteArrayInputStream(body)));
+
+        assertEquals(new String(body, "UTF-8"),
+                new String(readFully(writer.openWritten()), "UTF-8"));
+        assertNull("Nothing should be visible until the entry is committed", cache.get(URL_A));
+
+        writer.commit();
+        assertEquals(new String(body, "UTF-8"), new String(readFully(cache.get(URL_A)), "UTF-8"));
+    }
+
+    @Test
+    public void testAbortedWriteIsNotVisible() throws IOException {
+        ForecastResponseCache cache = new ForecastResponseCache(mDirectory, 60000, 4096);
+        ForecastResponseCache.Writer writer = cache.edit(URL_A);
+        writer.tee(new ByteArrayInputStream(new byte[32])).read();
+        writer.abort();
+
+        assertNull(cache.get(URL_A));
+    }
+}
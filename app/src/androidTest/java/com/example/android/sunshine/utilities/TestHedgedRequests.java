@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests request timeouts, latency tracking and hedged requests against a local server with one
+ * slow and one fast endpoint.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestHedgedRequests {
+
+    private static final String HEADER_ENDPOINT = "X-Endpoint";
+
+    /* How long the slow endpoint takes to answer */
+    private static final long SLOW_MILLIS = 3000;
+
+    private LocalWeatherServer mServer;
+    private volatile boolean mPrimaryIsSlow;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request)
+                    throws InterruptedException {
+                boolean primary = request.path.startsWith("/primary");
+                if (primary && mPrimaryIsSlow) {
+                    Thread.sleep(SLOW_MILLIS);
+                }
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader(HEADER_ENDPOINT, primary ? "primary" : "backup")
+                        .setBody(ForecastPayloads.forecast(14));
+            }
+        });
+        mServer.start();
+        LatencyHistogram.forEndpoint(mServer.getUrl("/primary")).reset();
+        LatencyHistogram.forEndpoint(mServer.getUrl("/backup")).reset();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    private HedgedTransport newHedgedTransport() throws IOException {
+        return new HedgedTransport(new KeepAliveHttpTransport(),
+                mServer.getUrl("/primary").toString(),
+                mServer.getUrl("/backup").toString());
+    }
+
+    private static String fetchEndpoint(WeatherTransport transport, URL url) throws IOException {
+        WeatherResponse response =
+                transport.execute(url, Collections.<String, String>emptyMap());
+        try {
+            return response.getHeader(HEADER_ENDPOINT);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.getPercentile(0.95));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+
+        long p50 = histogram.getPercentile(0.5);
+        long p95 = histogram.getPercentile(0.95);
+        assertTrue("p50 was " + p50, p50 >= 50 && p50 <= 63);
+        assertTrue("p95 was " + p95, p95 >= 95 && p95 <= 100);
+        assertEquals(100, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testLatencyIsRecordedPerEndpoint() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport();
+        fetchEndpoint(transport, mServer.getUrl("/primary?q=one"));
+        fetchEndpoint(transport, mServer.getUrl("/primary?q=two"));
+        fetchEndpoint(transport, mServer.getUrl("/backup?q=one"));
+
+        assertEquals(2, LatencyHistogram.forEndpoint(mServer.getUrl("/primary")).getCount());
+        assertEquals(1, LatencyHistogram.forEndpoint(mServer.getUrl("/backup")).getCount());
+    }
+
+    @Test
+    public void testReadTimeout() throws IOException {
+        mPrimaryIsSlow = true;
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport();
+        transport.setTimeouts(1000, 500);
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            fetchEndpoint(transport, mServer.getUrl("/primary?q=stalled"));
+            fail("A server that doesn't answer should time out");
+        } catch (SocketTimeoutException expected) {
+            assertTrue(System.currentTimeMillis() - startMillis < SLOW_MILLIS);
+        }
+    }
+
+    @Test
+    public void testHedgingWrapsTheTransportInUse() {
+        WeatherTransport originalTransport = NetworkUtils.getTransport();
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport();
+        transport.setTimeouts(1000, 500);
+        try {
+            NetworkUtils.setTransport(transport);
+
+            NetworkUtils.setHedgingEnabled(true);
+            WeatherTransport hedged = NetworkUtils.getTransport();
+            assertTrue(hedged instanceof HedgedTransport);
+            assertSame("Hedging should keep the transport and the timeouts it was set up with",
+                    transport, ((HedgedTransport) hedged).getDelegate());
+
+            NetworkUtils.setHedgingEnabled(true);
+            assertSame("Hedging twice should not hedge the hedged transport",
+                    hedged, NetworkUtils.getTransport());
+
+            NetworkUtils.setHedgingEnabled(false);
+            assertSame(transport, NetworkUtils.getTransport());
+        } finally {
+            NetworkUtils.setTransport(originalTransport);
+        }
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() throws IOException {
+        HedgedTransport transport = newHedgedTransport();
+
+        assertEquals("primary", fetchEndpoint(transport, mServer.getUrl("/primary?q=fast")));
+        assertEquals("A fast primary shouldn't trigger a backup request",
+                1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testSlowPrimaryIsHedged() throws IOException {
+        /* Teach the transport that the primary usually answers within 50ms */
+        LatencyHistogram primaryLatency = LatencyHistogram.forEndpoint(mServer.getUrl("/primary"));
+        for (int i = 0; i < 50; i++) {
+            primaryLatency.record(50);
+        }
+        HedgedTransport transport = newHedgedTransport();
+        assertEquals(50, transport.getHedgeDelayMillis(mServer.getUrl("/primary")));
+
+        mPrimaryIsSlow = true;
+        long startMillis = System.currentTimeMillis();
+        assertEquals("backup", fetchEndpoint(transport, mServer.getUrl("/primary?q=slow")));
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        assertTrue("The backup should have answered long before the primary, took "
+                + elapsedMillis + "ms", elapsedMillis < SLOW_MILLIS);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("/backup?q=slow", mServer.getRequests().get(1).path);
+    }
+
+    @Test
+    public void testOtherUrlsAreNotHedged() throws IOException {
+        mPrimaryIsSlow = true;
+        HedgedTransport transport = newHedgedTransport();
+
+        assertEquals("backup", fetchEndpoint(transport, mServer.getUrl("/backup?q=direct")));
+        assertEquals(1, mServer.getRequestCount());
+    }
+}
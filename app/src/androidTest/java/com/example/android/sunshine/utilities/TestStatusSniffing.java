@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.utils.ForecastPayloads;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that errors from the weather server are recognized from the start of the response, and
+ * come back as typed results.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestStatusSniffing {
+
+    private static int sniff(String json) throws IOException {
+        byte[] bytes = json.getBytes("UTF-8");
+        return OpenWeatherJsonUtils.sniffMessageCode(bytes, bytes.length);
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        int mBytesRead;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                mBytesRead++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mBytesRead += read;
+            }
+            return read;
+        }
+    }
+
+    @Test
+    public void testSniffsMessageCode() throws IOException {
+        assertEquals(200, sniff(ForecastPayloads.forecast(14)));
+        assertEquals(404, sniff(ForecastPayloads.error(404)));
+        assertEquals(502, sniff(" {\"message\":\"a \\\"cod\\\" of 1\", \"cod\" : 502}"));
+
+        /* Only top level keys count */
+        assertEquals(OpenWeatherJsonUtils.MESSAGE_CODE_UNKNOWN,
+                sniff("{\"city\":{\"cod\":404},\"cnt\":0}"));
+
+        /* Cut off before the code is complete */
+        assertEquals(OpenWeatherJsonUtils.MESSAGE_CODE_UNKNOWN, sniff("{\"cod\":\"40"));
+        assertEquals(OpenWeatherJsonUtils.MESSAGE_CODE_UNKNOWN, sniff("{\"cod\":40"));
+    }
+
+    @Test
+    public void testErrorStopsReading() throws IOException {
+        /* An error with a long message after the code, which should never be read */
+        StringBuilder json = new StringBuilder("{\"cod\":\"404\",\"message\":\"");
+        for (int i = 0; i < 100000; i++) {
+            json.append('x');
+        }
+        json.append("\"}");
+        CountingInputStream in = new CountingInputStream(
+                new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+
+        ForecastResult result = OpenWeatherJsonUtils.getForecastFromStream(in);
+
+        assertEquals(ForecastResult.Status.LOCATION_INVALID, result.getStatus());
+        assertTrue("Read " + in.mBytesRead + " bytes", in.mBytesRead <= 1024);
+    }
+
+    @Test
+    public void testTypedResults() throws IOException {
+        assertEquals(ForecastResult.Status.SERVER_DOWN,
+                parse(ForecastPayloads.error(500)).getStatus());
+
+        ForecastResult ok = parse(ForecastPayloads.forecast(14));
+        assertEquals(ForecastResult.Status.OK, ok.getStatus());
+        assertNotNull(ok.getForecast());
+        assertEquals(14, ok.getForecast().size());
+
+        /* A code beyond the sniffed bytes is still found by the parser */
+        StringBuilder json = new StringBuilder("{\"city\":{\"name\":\"");
+        for (int i = 0; i < 1000; i++) {
+            json.append('x');
+        }
+        json.append("\"},\"cod\":404}");
+        assertEquals(ForecastResult.Status.LOCATION_INVALID, parse(json.toString()).getStatus());
+    }
+
+    @Test
+    public void testRejectsNonObjects() throws IOException {
+        try {
+            parse("<html><body>502 Bad Gateway</body></html>");
+            fail("An HTML error page should not parse");
+        } catch (MalformedJsonException expected) {
+        }
+    }
+
+    private static ForecastResult parse(String json) throws IOException {
+        return OpenWeatherJsonUtils.getForecastFromStream(
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.LocalWeatherServer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests the transports NetworkUtils can send its requests through.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherTransports {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final NetworkUtils.ResponseHandler<ContentValues[]> mHandler =
+            new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                @Override
+                public ContentValues[] handleResponse(InputStream in) throws IOException {
+                    return OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext, in);
+                }
+            };
+
+    private final WeatherTransport mOriginalTransport = NetworkUtils.getTransport();
+
+    @After
+    public void tearDown() {
+        NetworkUtils.setTransport(mOriginalTransport);
+    }
+
+    @Test
+    public void testKeepAliveTransportReusesConnections() throws IOException {
+        LocalWeatherServer server = new LocalWeatherServer(new LocalWeatherServer.Dispatcher() {
+            @Override
+            public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+                return new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(ForecastPayloads.forecast(14));
+            }
+        });
+        server.start();
+        try {
+            NetworkUtils.setTransport(new KeepAliveHttpTransport());
+            for (int i = 0; i < 3; i++) {
+                URL url = server.getUrl("/weather?q=location-" + i);
+                assertNotNull(NetworkUtils.getResponseFromHttpUrl(mContext, url, false, mHandler));
+            }
+
+            assertEquals(3, server.getRequestCount());
+            assertEquals("Back to back requests should share a single connection",
+                    1, server.getConnectionCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testFakeTransportServesForecastsWithoutNetwork() throws IOException {
+        FakeWeatherTransport transport =
+                new FakeWeatherTransport(ForecastPayloads.forecast(14).getBytes("UTF-8"));
+        NetworkUtils.setTransport(transport);
+
+        /* Nothing listens on this port, so any real network access would fail */
+        URL url = new URL("http://127.0.0.1:1/weather?q=fake-" + System.nanoTime());
+
+        ContentValues[] first = NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler);
+        ContentValues[] second = NetworkUtils.getResponseFromHttpUrl(mContext, url, true, mHandler);
+
+        assertNotNull(first);
+        assertEquals(14, first.length);
+        assertNull("The fake transport should honor the ETag it handed out", second);
+        assertEquals(2, transport.getRequestCount());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Makes a {@link LocalWeatherServer} stand in for a weather server that speaks both wire
+ * formats. Every request is answered with a forecast from {@link ForecastPayloads}, in binary if
+ * the request's format parameter asks for {@link NetworkUtils.WireFormat#BINARY} and in JSON
+ * otherwise, just as the real server picks its format.
+ */
+public class ForecastDispatcher implements LocalWeatherServer.Dispatcher {
+
+    private static final String FORMAT_PARAM = "mode";
+
+    private volatile int mDays;
+
+    /**
+     * @param days The number of days in every forecast served
+     */
+    public ForecastDispatcher(int days) {
+        mDays = days;
+    }
+
+    public void setDays(int days) {
+        mDays = days;
+    }
+
+    /**
+     * @return Whether the request asked for the binary format
+     */
+    public static boolean isBinaryRequest(LocalWeatherServer.Request request) {
+        String mode = Uri.parse(request.path).getQueryParameter(FORMAT_PARAM);
+        return NetworkUtils.WireFormat.BINARY.getMode().equals(mode);
+    }
+
+    @Override
+    public LocalWeatherServer.Response dispatch(LocalWeatherServer.Request request) {
+        LocalWeatherServer.Response response =
+                new LocalWeatherServer.Response(HttpURLConnection.HTTP_OK);
+        if (isBinaryRequest(request)) {
+            return response.setHeader("Content-Type", "application/octet-stream")
+                    .setBody(ForecastPayloads.binaryForecast(mDays));
+        }
+        return response.setHeader("Content-Type", "application/json")
+                .setBody(ForecastPayloads.forecast(mDays));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import com.example.android.sunshine.utilities.ForecastCodec;
+import com.example.android.sunshine.utilities.ForecastResult;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds forecast JSON in the same shape as the weather server's daily forecast, or as
+ * OpenWeatherMap's 3-hour forecast. Daily forecasts can also be built in the binary format, see
+ * {@link ForecastCodec}.
+ */
+public final class ForecastPayloads {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ForecastPayloads() {
+    }
+
+    /**
+     * @param days The number of days in the forecast's "list"
+     * @return A successful forecast for Mountain View with the given number of days, starting
+     * today. Like the server's, each day's time is noon, local time.
+     */
+    public static String forecast(int days) {
+        return forecast(days, 0);
+    }
+
+    /**
+     * @param days     The number of days in the forecast's "list"
+     * @param firstDay The first day of the forecast, relative to today. Negative for a forecast
+     *                 that starts in the past, as canned data or a stale response would.
+     * @return A successful forecast for Mountain View with the given number of days
+     */
+    public static String forecast(int days, int firstDay) {
+        long localNoon = SunshineDateUtils.getNormalizedUtcDateForToday()
+                + firstDay * SunshineDateUtils.DAY_IN_MILLIS + TimeUnit.HOURS.toMillis(12);
+        long firstDaySeconds = TimeUnit.MILLISECONDS.toSeconds(
+                localNoon - TimeZone.getDefault().getOffset(localNoon));
+
+        StringBuilder json = new StringBuilder(512 + days * 320);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0132,\"cnt\":").append(days)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double max = 20 + (i % 7);
+            double min = 10 + (i % 5);
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\","
+                            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    firstDaySeconds + i * 86400L,
+                    (max + min) / 2, min, max, min, max - 1, min + 1,
+                    1000 + i * 0.5, 40 + i % 50,
+                    800 + i % 4,
+                    1.5 + i % 10, (i * 37) % 360, i % 100));
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * @param days The number of days in the forecast
+     * @return The same forecast as {@link #forecast(int)}, in the binary format
+     */
+    public static byte[] binaryForecast(int days) {
+        try {
+            ForecastResult result = OpenWeatherJsonUtils.getForecastFromStream(
+                    new ByteArrayInputStream(forecast(days).getBytes(UTF_8)));
+            return ForecastCodec.encode(result.getForecast(), result.getLatitude(),
+                    result.getLongitude());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @param entries   The number of entries in the forecast's "list", 3 hours apart
+     * @param startTime Time of the first entry, in seconds since the epoch
+     * @return A successful 3-hour forecast for Mountain View with the given number of entries
+     */
+    public static String hourly(int entries, long startTime) {
+        StringBuilder json = new StringBuilder(256 + entries * 400);
+        json.append("{\"cod\":\"200\",\"message\":0.0042,\"cnt\":").append(entries)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double temp = 12 + (i % 8);
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"main\":{\"temp\":%.2f,\"temp_min\":%.2f,"
+                            + "\"temp_max\":%.2f,\"pressure\":%.2f,\"sea_level\":%.2f,"
+                            + "\"grnd_level\":%.2f,\"humidity\":%d,\"temp_kf\":0},"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\","
+                            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+                            + "\"clouds\":{\"all\":%d},\"wind\":{\"speed\":%.2f,"
+                            + "\"deg\":%d},\"sys\":{\"pod\":\"d\"},"
+                            + "\"dt_txt\":\"unused\"}",
+                    startTime + i * 3 * 3600L,
+                    temp, temp - 0.5, temp + 0.5, 1000 + i * 0.25, 1020.0, 1000.0,
+                    40 + i % 50,
+                    800 + i % 4,
+                    i % 100, 1.5 + i % 10, (i * 37) % 360));
+        }
+
+        json.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lat\":37.3861,\"lon\":-122.0838},")
+                .append("\"country\":\"US\"}}");
+        return json.toString();
+    }
+
+    /**
+     * @param code The error code to report, such as 404
+     * @return An error response in the same shape the weather server uses
+     */
+    public static String error(int code) {
+        return "{\"cod\":\"" + code + "\",\"message\":\"Error: Not found city\"}";
+    }
+
+    /**
+     * @param code The error code to report, such as 404
+     * @return The same error as {@link #error(int)}, in the binary format
+     */
+    public static byte[] binaryError(int code) {
+        return ForecastCodec.encodeError(code);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import com.example.android.sunshine.utilities.KeepAliveHttpTransport;
+import com.example.android.sunshine.utilities.WeatherResponse;
+import com.example.android.sunshine.utilities.WeatherTransport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends every request to a {@link LocalWeatherServer}, whatever host it was addressed to. The
+ * path and query are kept. Install it with NetworkUtils.setTransport to run a whole sync
+ * against the local server.
+ */
+public class LocalServerTransport implements WeatherTransport {
+
+    private final LocalWeatherServer mServer;
+    private final WeatherTransport mTransport = new KeepAliveHttpTransport();
+
+    public LocalServerTransport(LocalWeatherServer server) {
+        mServer = server;
+    }
+
+    @Override
+    public WeatherResponse execute(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        String pathAndQuery = url.getQuery() == null
+                ? url.getPath()
+                : url.getPath() + "?" + url.getQuery();
+        return mTransport.execute(mServer.getUrl(pathAndQuery), requestHeaders);
+    }
+}
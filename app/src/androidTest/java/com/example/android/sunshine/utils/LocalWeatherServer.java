@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server that runs on the loopback interface and stands in for the weather
+ * server in tests. Every request is recorded and answered by a {@link Dispatcher}, which lets
+ * tests decide exactly what the "server" sends back.
+ */
+public class LocalWeatherServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A request received by the server.
+     */
+    public static class Request {
+        public final String method;
+        public final String path;
+        /* Header names are stored in lower case */
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * A response for the server to send.
+     */
+    public static class Response {
+        final int mStatusCode;
+        final Map<String, String> mHeaders = new LinkedHashMap<>();
+        byte[] mBody = new byte[0];
+
+        public Response(int statusCode) {
+            mStatusCode = statusCode;
+        }
+
+        public Response setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public Response setBody(String body) {
+            return setBody(body.getBytes(UTF_8));
+        }
+
+        public Response setBody(byte[] body) {
+            mBody = body;
+            return this;
+        }
+    }
+
+    /**
+     * Decides how the server answers each request.
+     */
+    public interface Dispatcher {
+        Response dispatch(Request request) throws InterruptedException;
+    }
+
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    private volatile Dispatcher mDispatcher;
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    public LocalWeatherServer(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    public void setDispatcher(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface.
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LocalWeatherServer");
+        mAcceptThread.start();
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+        try {
+            mAcceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param pathAndQuery Path of the URL, including the leading slash and any query
+     * @return A URL pointing at this server
+     */
+    public URL getUrl(String pathAndQuery) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + pathAndQuery);
+    }
+
+    /**
+     * @return The number of connections clients have opened. Fewer connections than requests
+     * means connections were kept alive and reused.
+     */
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    /**
+     * @return A snapshot of every request received so far, in the order they were received
+     */
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                /* The server socket was closed */
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serveConnection(socket);
+                    } catch (SocketException e) {
+                        /* The client went away, which some tests do on purpose */
+                    } catch (IOException | InterruptedException e) {
+                        e.printStackTrace();
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    /**
+     * Serves requests on one connection until the client closes it, which allows clients to
+     * keep connections alive between requests.
+     */
+    private void serveConnection(Socket socket) throws IOException, InterruptedException {
+        InputStream in = socket.getInputStream();
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return;
+            }
+
+            Map<String, String> headers = new LinkedHashMap<>();
+            String headerLine;
+            while ((headerLine = readLine(in)) != null && !headerLine.isEmpty()) {
+                int colon = headerLine.indexOf(':');
+                if (colon > 0) {
+                    headers.put(headerLine.substring(0, colon).trim().toLowerCase(Locale.US),
+                            headerLine.substring(colon + 1).trim());
+                }
+            }
+
+            String[] parts = requestLine.split(" ");
+            Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+            mRequests.add(request);
+
+            Response response = mDispatcher.dispatch(request);
+            writeResponse(out, response);
+
+            if ("close".equalsIgnoreCase(request.getHeader("Connection"))) {
+                return;
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mStatusCode).append(" Status\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.mBody.length).append("\r\n");
+        head.append("\r\n");
+
+        out.write(head.toString().getBytes(UTF_8));
+        out.write(response.mBody);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("UTF-8");
+    }
+}
@@ -191,6 +191,9 @@ public class MainActivity extends AppCompatActivity implements
     protected void onStart() {
         super.onStart();
 
+        /* Someone is looking at the forecast, so it is worth keeping up to date */
+        SunshineSyncUtils.onForecastViewed(this);
+
         mGoogleApiClient.connect();
     }
 
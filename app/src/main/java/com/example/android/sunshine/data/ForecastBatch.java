@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * The days of a forecast, stored column by column in arrays of primitives. Day i of the
+ * forecast is made up of element i of every array.
+ * <p>
+ * Storing a forecast as ContentValues costs a HashMap and 8 boxed values for every day, only for
+ * WeatherProvider to unbox them all again. A ForecastBatch holds the same data in 8 arrays, no
+ * matter how many days there are, and WeatherProvider binds them straight into the database.
+ * Use {@link #insert(ContentResolver, String)} to store one.
+ */
+public final class ForecastBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /* Keys used to store a batch in a Bundle */
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WIND_SPEEDS = "wind_speeds";
+    private static final String KEY_DEGREES = "degrees";
+
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of days to make room for up front. The batch grows if more
+     *                 days are added.
+     */
+    public ForecastBatch(int capacity) {
+        int initialCapacity = Math.max(capacity, 1);
+        mDates = new long[initialCapacity];
+        mWeatherIds = new int[initialCapacity];
+        mMinTemps = new double[initialCapacity];
+        mMaxTemps = new double[initialCapacity];
+        mHumidities = new double[initialCapacity];
+        mPressures = new double[initialCapacity];
+        mWindSpeeds = new double[initialCapacity];
+        mDegrees = new double[initialCapacity];
+    }
+
+    /**
+     * Adds a day to the end of the batch.
+     *
+     * @param date      Normalized UTC date of the day, in milliseconds
+     * @param weatherId Weather condition ID, as returned by the API
+     * @param minTemp   Lowest temperature of the day, in °C
+     * @param maxTemp   Highest temperature of the day, in °C
+     * @param humidity  Humidity, in percent
+     * @param pressure  Pressure, in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Wind direction, in meteorological degrees
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mDates.length * 2;
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * @return The number of days in the batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    /**
+     * Converts the batch into one ContentValues per day, keyed by the weather table's columns.
+     * This is for callers that still work with ContentValues, and allocates all the objects a
+     * ForecastBatch exists to avoid.
+     *
+     * @return One ContentValues per day, in order
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[i]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            weatherContentValues[i] = weatherValues;
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Builds a batch out of ContentValues keyed by the weather table's columns.
+     *
+     * @param weatherContentValues One ContentValues per day
+     * @return A batch holding the same days, in the same order
+     * @throws IllegalArgumentException If any of the ContentValues is missing a column
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] weatherContentValues) {
+        ForecastBatch batch = new ForecastBatch(weatherContentValues.length);
+        for (ContentValues weatherValues : weatherContentValues) {
+            batch.add(
+                    requireLong(weatherValues, WeatherEntry.COLUMN_DATE),
+                    (int) requireLong(weatherValues, WeatherEntry.COLUMN_WEATHER_ID),
+                    requireDouble(weatherValues, WeatherEntry.COLUMN_MIN_TEMP),
+                    requireDouble(weatherValues, WeatherEntry.COLUMN_MAX_TEMP),
+                    requireDouble(weatherValues, WeatherEntry.COLUMN_HUMIDITY),
+                    requireDouble(weatherValues, WeatherEntry.COLUMN_PRESSURE),
+                    requireDouble(weatherValues, WeatherEntry.COLUMN_WIND_SPEED),
+                    requireDouble(weatherValues, WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    private static long requireLong(ContentValues values, String column) {
+        Long value = values.getAsLong(column);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value for " + column);
+        }
+        return value;
+    }
+
+    private static double requireDouble(ContentValues values, String column) {
+        Double value = values.getAsDouble(column);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value for " + column);
+        }
+        return value;
+    }
+
+    /**
+     * Inserts the batch through WeatherProvider, in a single transaction.
+     *
+     * @param contentResolver Used to reach WeatherProvider
+     * @param location        The saved location this is the forecast of, in which case it
+     *                        replaces that location's previous forecast. Pass null to insert
+     *                        into the weather table instead, replacing only the same dates.
+     * @return The number of rows inserted
+     */
+    public int insert(ContentResolver contentResolver, String location) {
+        Bundle result = contentResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INSERT_FORECAST_BATCH, location, toBundle());
+        return result == null ? 0 : result.getInt(WeatherContract.KEY_ROWS_INSERTED);
+    }
+
+    /**
+     * Merges the batch into the weather table through WeatherProvider, in a single transaction.
+     * Days that aren't in the table yet are inserted, and days whose values differ from the
+     * stored ones are updated. Days that haven't changed, and days that aren't in the batch,
+     * are left alone. Observers are only notified if something was written.
+     *
+     * @param contentResolver Used to reach WeatherProvider
+     * @return The number of rows inserted or updated
+     */
+    public int merge(ContentResolver contentResolver) {
+        return merge(contentResolver, Long.MIN_VALUE, false).getRowsTouched();
+    }
+
+    /**
+     * Works like {@link #merge(ContentResolver)}, but also deletes the days that have passed
+     * and, if replace is true, the days that aren't in the batch. This is how a forecast for
+     * another location takes over the weather table: the rows of its dates are updated in
+     * place, and all of it happens in one transaction with one change notification, rather
+     * than a delete of every row followed by an insert.
+     *
+     * @param contentResolver Used to reach WeatherProvider
+     * @param oldestDate      Days before this normalized date are deleted, and never inserted.
+     *                        Long.MIN_VALUE keeps every day.
+     * @param replace         Whether to delete the days stored that aren't in the batch
+     * @return The number of rows inserted, updated and deleted
+     */
+    public MergeStats merge(ContentResolver contentResolver, long oldestDate, boolean replace) {
+        Bundle extras = toBundle();
+        extras.putLong(WeatherContract.KEY_OLDEST_DATE, oldestDate);
+        extras.putBoolean(WeatherContract.KEY_REPLACE, replace);
+        Bundle result = contentResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_MERGE_FORECAST_BATCH, null, extras);
+
+        MergeStats stats = new MergeStats();
+        if (result != null) {
+            stats.rowsInserted = result.getInt(WeatherContract.KEY_ROWS_INSERTED);
+            stats.rowsUpdated = result.getInt(WeatherContract.KEY_ROWS_UPDATED);
+            stats.rowsDeleted = result.getInt(WeatherContract.KEY_ROWS_DELETED);
+        }
+        return stats;
+    }
+
+    /**
+     * Stores the batch in a Bundle, which is how it is handed to WeatherProvider. Within the
+     * same process, the arrays are passed along without being copied.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_DATES, mDates);
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, mMinTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, mMaxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITIES, mHumidities);
+        bundle.putDoubleArray(KEY_PRESSURES, mPressures);
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, mWindSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    /**
+     * Reads a batch back out of a Bundle created by {@link #toBundle()}.
+     *
+     * @throws IllegalArgumentException If the Bundle doesn't hold a complete batch
+     */
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        ForecastBatch batch = new ForecastBatch(1);
+        batch.mSize = bundle.getInt(KEY_SIZE, -1);
+        batch.mDates = bundle.getLongArray(KEY_DATES);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        batch.mHumidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        batch.mPressures = bundle.getDoubleArray(KEY_PRESSURES);
+        batch.mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+
+        if (batch.mSize < 0
+                || batch.mDates == null || batch.mDates.length < batch.mSize
+                || batch.mWeatherIds == null || batch.mWeatherIds.length < batch.mSize
+                || !hasRoomFor(batch.mMinTemps, batch.mSize)
+                || !hasRoomFor(batch.mMaxTemps, batch.mSize)
+                || !hasRoomFor(batch.mHumidities, batch.mSize)
+                || !hasRoomFor(batch.mPressures, batch.mSize)
+                || !hasRoomFor(batch.mWindSpeeds, batch.mSize)
+                || !hasRoomFor(batch.mDegrees, batch.mSize)) {
+            throw new IllegalArgumentException("Bundle doesn't hold a complete ForecastBatch");
+        }
+        return batch;
+    }
+
+    private static boolean hasRoomFor(double[] column, int size) {
+        return column != null && column.length >= size;
+    }
+}
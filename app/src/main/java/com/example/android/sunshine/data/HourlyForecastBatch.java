@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+/**
+ * A fixed number of entries of the 3-hour forecast, stored column by column in arrays of
+ * primitives, like {@link ForecastBatch}.
+ * <p>
+ * Unlike a ForecastBatch, it never grows. The hourly forecast is decoded into the same batch
+ * over and over: once it is full, it is inserted with
+ * {@link #insert(ContentResolver)}, cleared, and filled with the next entries. However long the
+ * forecast is, decoding it never holds more than one batch of it in memory.
+ */
+public final class HourlyForecastBatch {
+
+    /* Keys used to store a batch in a Bundle */
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_TIMES = "times";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_TEMPS = "temps";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WIND_SPEEDS = "wind_speeds";
+    private static final String KEY_DEGREES = "degrees";
+
+    private int mSize;
+
+    private long[] mTimes;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mTemps;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    /**
+     * @param capacity The number of entries the batch holds once full
+     */
+    public HourlyForecastBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        mTimes = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mTemps = new double[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Adds an entry to the end of the batch.
+     *
+     * @param time      Start of the 3 hours the entry is for, in UTC milliseconds
+     * @param date      Normalized date of the local day the entry falls on
+     * @param weatherId Weather condition ID, as returned by the API
+     * @param temp      Temperature, in °C
+     * @param minTemp   Lowest temperature over the 3 hours, in °C
+     * @param maxTemp   Highest temperature over the 3 hours, in °C
+     * @param humidity  Humidity, in percent
+     * @param pressure  Pressure, in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Wind direction, in meteorological degrees
+     * @throws IllegalStateException If the batch is already full
+     */
+    public void add(long time, long date, int weatherId, double temp, double minTemp,
+                    double maxTemp, double humidity, double pressure, double windSpeed,
+                    double degrees) {
+        if (isFull()) {
+            throw new IllegalStateException("Batch is full, insert and clear it first");
+        }
+        mTimes[mSize] = time;
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mTemps[mSize] = temp;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * Empties the batch, so that it can be filled again. The arrays are kept.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return The number of entries in the batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The number of entries the batch holds once full
+     */
+    public int capacity() {
+        return mTimes.length;
+    }
+
+    public boolean isFull() {
+        return mSize == mTimes.length;
+    }
+
+    public long getTime(int entry) {
+        return mTimes[entry];
+    }
+
+    public long getDate(int entry) {
+        return mDates[entry];
+    }
+
+    public int getWeatherId(int entry) {
+        return mWeatherIds[entry];
+    }
+
+    public double getTemp(int entry) {
+        return mTemps[entry];
+    }
+
+    public double getMinTemp(int entry) {
+        return mMinTemps[entry];
+    }
+
+    public double getMaxTemp(int entry) {
+        return mMaxTemps[entry];
+    }
+
+    public double getHumidity(int entry) {
+        return mHumidities[entry];
+    }
+
+    public double getPressure(int entry) {
+        return mPressures[entry];
+    }
+
+    public double getWindSpeed(int entry) {
+        return mWindSpeeds[entry];
+    }
+
+    public double getDegrees(int entry) {
+        return mDegrees[entry];
+    }
+
+    /**
+     * Inserts the batch through WeatherProvider, in a single transaction. Entries replace any
+     * stored for the same time. Nobody is notified of the change, as a forecast is inserted in
+     * many batches: notify {@link WeatherContract.HourlyWeatherEntry#CONTENT_URI} once the last
+     * one is in.
+     *
+     * @param contentResolver Used to reach WeatherProvider
+     * @return The number of rows inserted
+     */
+    public int insert(ContentResolver contentResolver) {
+        Bundle result = contentResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INSERT_HOURLY_CHUNK, null, toBundle());
+        return result == null ? 0 : result.getInt(WeatherContract.KEY_ROWS_INSERTED);
+    }
+
+    /**
+     * Stores the batch in a Bundle, which is how it is handed to WeatherProvider. Within the
+     * same process, the arrays are passed along without being copied, so the batch must not be
+     * changed until the Bundle has been used.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_TIMES, mTimes);
+        bundle.putLongArray(KEY_DATES, mDates);
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds);
+        bundle.putDoubleArray(KEY_TEMPS, mTemps);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, mMinTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, mMaxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITIES, mHumidities);
+        bundle.putDoubleArray(KEY_PRESSURES, mPressures);
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, mWindSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    /**
+     * Reads a batch back out of a Bundle created by {@link #toBundle()}.
+     *
+     * @throws IllegalArgumentException If the Bundle doesn't hold a complete batch
+     */
+    public static HourlyForecastBatch fromBundle(Bundle bundle) {
+        HourlyForecastBatch batch = new HourlyForecastBatch(1);
+        batch.mSize = bundle.getInt(KEY_SIZE, -1);
+        batch.mTimes = bundle.getLongArray(KEY_TIMES);
+        batch.mDates = bundle.getLongArray(KEY_DATES);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.mTemps = bundle.getDoubleArray(KEY_TEMPS);
+        batch.mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        batch.mHumidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        batch.mPressures = bundle.getDoubleArray(KEY_PRESSURES);
+        batch.mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+
+        if (batch.mSize < 0
+                || batch.mTimes == null || batch.mTimes.length < batch.mSize
+                || batch.mDates == null || batch.mDates.length < batch.mSize
+                || batch.mWeatherIds == null || batch.mWeatherIds.length < batch.mSize
+                || !hasRoomFor(batch.mTemps, batch.mSize)
+                || !hasRoomFor(batch.mMinTemps, batch.mSize)
+                || !hasRoomFor(batch.mMaxTemps, batch.mSize)
+                || !hasRoomFor(batch.mHumidities, batch.mSize)
+                || !hasRoomFor(batch.mPressures, batch.mSize)
+                || !hasRoomFor(batch.mWindSpeeds, batch.mSize)
+                || !hasRoomFor(batch.mDegrees, batch.mSize)) {
+            throw new IllegalArgumentException("Bundle doesn't hold a complete batch");
+        }
+        return batch;
+    }
+
+    private static boolean hasRoomFor(double[] column, int size) {
+        return column != null && column.length >= size;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Stores the HTTP cache validators (ETag and Last-Modified) that the weather server returned for
+ * each forecast URL. Sending them back on the next request allows the server to answer with
+ * "304 Not Modified" instead of the entire forecast.
+ * <p>
+ * These are kept apart from the user's preferences, as they are just a cache of server state.
+ */
+public final class HttpValidatorStore {
+
+    private static final String PREFS_NAME = "http_validators";
+
+    /* Each URL's validators are stored under the URL followed by one of these suffixes */
+    private static final String SUFFIX_ETAG = "#etag";
+    private static final String SUFFIX_LAST_MODIFIED = "#last_modified";
+
+    /* The URL whose forecast is currently stored in the weather table */
+    private static final String KEY_INGESTED_URL = "ingested_url";
+
+    /*
+     * The location whose forecast is currently stored in the weather table, as the URL of its
+     * full forecast. Unlike KEY_INGESTED_URL, this doesn't change with the number of days the
+     * last sync asked for.
+     */
+    private static final String KEY_INGESTED_LOCATION = "ingested_location";
+
+    /* Hash of the response the forecast currently in the weather table was parsed from */
+    private static final String KEY_INGESTED_HASH = "ingested_hash";
+
+    /*
+     * When the weather table last got the whole horizon of its location's forecast, in
+     * milliseconds since the epoch
+     */
+    private static final String KEY_FULL_FORECAST_TIME = "full_forecast_time";
+
+    private HttpValidatorStore() {
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the ETag the server sent with the last successful response for this URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The forecast URL
+     * @return The ETag, or null if we don't have one
+     */
+    public static String getETag(Context context, String url) {
+        return getPreferences(context).getString(url + SUFFIX_ETAG, null);
+    }
+
+    /**
+     * Returns the Last-Modified date the server sent with the last successful response for this
+     * URL, exactly as it was sent.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The forecast URL
+     * @return The Last-Modified header value, or null if we don't have one
+     */
+    public static String getLastModified(Context context, String url) {
+        return getPreferences(context).getString(url + SUFFIX_LAST_MODIFIED, null);
+    }
+
+    /**
+     * Saves the validators of a response. Passing null for either validator removes the value
+     * previously stored for it, as the server no longer vouches for it.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The forecast URL
+     * @param eTag         Value of the ETag header, may be null
+     * @param lastModified Value of the Last-Modified header, may be null
+     */
+    public static void saveValidators(Context context, String url, String eTag,
+                                      String lastModified) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+
+        if (eTag != null) {
+            editor.putString(url + SUFFIX_ETAG, eTag);
+        } else {
+            editor.remove(url + SUFFIX_ETAG);
+        }
+
+        if (lastModified != null) {
+            editor.putString(url + SUFFIX_LAST_MODIFIED, lastModified);
+        } else {
+            editor.remove(url + SUFFIX_LAST_MODIFIED);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Returns the URL of the forecast that is currently stored in the weather table. A "304 Not
+     * Modified" for any other URL tells us nothing about the data we're displaying.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The URL of the forecast last written to the database, or null if there is none
+     */
+    public static String getIngestedUrl(Context context) {
+        return getPreferences(context).getString(KEY_INGESTED_URL, null);
+    }
+
+    /**
+     * Returns the location whose forecast is currently stored in the weather table. A forecast
+     * for the same location can be merged into the table, while one for any other location has
+     * to replace everything in it.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The URL of the full forecast for the location, or null if there is none
+     */
+    public static String getIngestedLocation(Context context) {
+        return getPreferences(context).getString(KEY_INGESTED_LOCATION, null);
+    }
+
+    /**
+     * Returns the hash of the response that the forecast currently stored in the weather table
+     * was parsed from. A response with the same hash would store exactly the same rows, so it
+     * doesn't need to be parsed, let alone written.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The hash, or null if there is none
+     */
+    public static String getIngestedHash(Context context) {
+        return getPreferences(context).getString(KEY_INGESTED_HASH, null);
+    }
+
+    /**
+     * Records the URL, location and response hash of the forecast that was just written to the
+     * weather table.
+     *
+     * @param context     Used to access SharedPreferences
+     * @param url         The forecast URL
+     * @param location    The URL of the full forecast for the same location
+     * @param contentHash Hash of the response the forecast was parsed from, may be null
+     */
+    public static void setIngestedUrl(Context context, String url, String location,
+                                      String contentHash) {
+        getPreferences(context).edit()
+                .putString(KEY_INGESTED_URL, url)
+                .putString(KEY_INGESTED_LOCATION, location)
+                .putString(KEY_INGESTED_HASH, contentHash)
+                .apply();
+    }
+
+    /**
+     * Returns when the weather table last got the whole horizon of its location's forecast,
+     * either downloaded or confirmed by the server as unchanged.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The time in milliseconds since the epoch, or 0 if it never did
+     */
+    public static long getFullForecastTime(Context context) {
+        return getPreferences(context).getLong(KEY_FULL_FORECAST_TIME, 0);
+    }
+
+    /**
+     * Records that the weather table now holds the whole horizon of its location's forecast.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param timeMillis The current time in milliseconds since the epoch
+     */
+    public static void setFullForecastTime(Context context, long timeMillis) {
+        getPreferences(context).edit()
+                .putLong(KEY_FULL_FORECAST_TIME, timeMillis)
+                .apply();
+    }
+
+    /**
+     * Forgets every validator, and what the weather table holds. The next sync of any URL will
+     * then download and store the entire forecast.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clear(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+}
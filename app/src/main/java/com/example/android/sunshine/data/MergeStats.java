@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+/**
+ * The rows of the weather table a single merge touched, see
+ * {@link ForecastBatch#merge(android.content.ContentResolver, long, boolean)}. Days that were
+ * already stored with the same values aren't counted, as they weren't touched.
+ */
+public class MergeStats {
+
+    /* Days that weren't in the table before */
+    public int rowsInserted;
+
+    /* Days that were in the table, with different values */
+    public int rowsUpdated;
+
+    /* Days that have passed, or that the forecast no longer covers */
+    public int rowsDeleted;
+
+    /**
+     * @return The number of rows written or deleted. When this is 0, the table didn't change.
+     */
+    public int getRowsTouched() {
+        return rowsInserted + rowsUpdated + rowsDeleted;
+    }
+
+    @Override
+    public String toString() {
+        return "MergeStats{"
+                + "rowsInserted=" + rowsInserted
+                + ", rowsUpdated=" + rowsUpdated
+                + ", rowsDeleted=" + rowsDeleted
+                + '}';
+    }
+}
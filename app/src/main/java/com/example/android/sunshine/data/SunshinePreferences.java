@@ -21,6 +21,13 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public final class SunshinePreferences {
 
     /*
@@ -31,6 +38,42 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * Byte counts of the forecast downloaded by the most recent sync, and running totals over
+     * every sync. Comparing the compressed and uncompressed counts tells us how much we save by
+     * asking the server to compress the forecast.
+     */
+    public static final String PREF_LAST_SYNC_COMPRESSED_BYTES = "last_sync_compressed_bytes";
+    public static final String PREF_LAST_SYNC_UNCOMPRESSED_BYTES = "last_sync_uncompressed_bytes";
+    public static final String PREF_TOTAL_COMPRESSED_BYTES = "total_compressed_bytes";
+    public static final String PREF_TOTAL_UNCOMPRESSED_BYTES = "total_uncompressed_bytes";
+
+    /*
+     * Rows of the weather table written or deleted by the most recent sync that stored a
+     * forecast, and running totals over every such sync, along with the number of days those
+     * syncs downloaded. Rewriting the whole table would have touched at least one row per day
+     * downloaded, so comparing the totals tells us how much merging saves.
+     */
+    public static final String PREF_LAST_SYNC_ROWS_TOUCHED = "last_sync_rows_touched";
+    public static final String PREF_TOTAL_ROWS_TOUCHED = "total_rows_touched";
+    public static final String PREF_TOTAL_DAYS_DOWNLOADED = "total_days_downloaded";
+
+    /*
+     * How much each of the last few syncs changed the forecast, oldest first, and when the user
+     * last looked at it. SunshineSyncUtils schedules the next sync from these.
+     */
+    public static final String PREF_RECENT_SYNC_CHANGES = "recent_sync_changes";
+    public static final String PREF_LAST_VIEWED_TIME = "last_viewed_time";
+
+    /* How many syncs PREF_RECENT_SYNC_CHANGES remembers */
+    private static final int RECENT_SYNC_CHANGES_KEPT = 6;
+
+    /*
+     * Locations whose forecasts are synced into the location_weather table, on top of the
+     * preferred location. See SunshineSyncUtils.startSavedLocationsSync.
+     */
+    public static final String PREF_SAVED_LOCATIONS = "saved_locations";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -242,4 +285,187 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Records how many bytes a sync downloaded, both as they came over the wire and after being
+     * decompressed.
+     *
+     * @param context           Used to access SharedPreferences
+     * @param compressedBytes   Bytes of forecast read from the network
+     * @param uncompressedBytes Bytes of forecast handed to the parser
+     */
+    public static void saveSyncTransferSize(Context context, long compressedBytes,
+                                            long uncompressedBytes) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        long totalCompressedBytes = sp.getLong(PREF_TOTAL_COMPRESSED_BYTES, 0) + compressedBytes;
+        long totalUncompressedBytes =
+                sp.getLong(PREF_TOTAL_UNCOMPRESSED_BYTES, 0) + uncompressedBytes;
+
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putLong(PREF_LAST_SYNC_COMPRESSED_BYTES, compressedBytes);
+        editor.putLong(PREF_LAST_SYNC_UNCOMPRESSED_BYTES, uncompressedBytes);
+        editor.putLong(PREF_TOTAL_COMPRESSED_BYTES, totalCompressedBytes);
+        editor.putLong(PREF_TOTAL_UNCOMPRESSED_BYTES, totalUncompressedBytes);
+        editor.apply();
+    }
+
+    /**
+     * Returns the byte counts recorded by {@link #saveSyncTransferSize(Context, long, long)} for
+     * the most recent sync that downloaded a forecast.
+     *
+     * @param context Used to access SharedPreferences
+     * @return An array containing the compressed and uncompressed byte counts, in that order
+     */
+    public static long[] getLastSyncTransferSize(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        long[] transferSize = new long[2];
+        transferSize[0] = sp.getLong(PREF_LAST_SYNC_COMPRESSED_BYTES, 0);
+        transferSize[1] = sp.getLong(PREF_LAST_SYNC_UNCOMPRESSED_BYTES, 0);
+        return transferSize;
+    }
+
+    /**
+     * Records how many rows of the weather table a sync touched, out of how many days it
+     * downloaded.
+     *
+     * @param context        Used to access SharedPreferences
+     * @param rowsTouched    Rows inserted, updated or deleted by the sync
+     * @param daysDownloaded Days in the forecast the sync stored
+     */
+    public static void saveSyncRowsTouched(Context context, int rowsTouched,
+                                           int daysDownloaded) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putLong(PREF_LAST_SYNC_ROWS_TOUCHED, rowsTouched);
+        editor.putLong(PREF_TOTAL_ROWS_TOUCHED,
+                sp.getLong(PREF_TOTAL_ROWS_TOUCHED, 0) + rowsTouched);
+        editor.putLong(PREF_TOTAL_DAYS_DOWNLOADED,
+                sp.getLong(PREF_TOTAL_DAYS_DOWNLOADED, 0) + daysDownloaded);
+        editor.apply();
+    }
+
+    /**
+     * Returns the row counts recorded by {@link #saveSyncRowsTouched(Context, int, int)}.
+     *
+     * @param context Used to access SharedPreferences
+     * @return An array containing the rows touched by the most recent sync, the rows touched by
+     * every sync and the days downloaded by every sync, in that order
+     */
+    public static long[] getSyncRowsTouched(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        long[] rowsTouched = new long[3];
+        rowsTouched[0] = sp.getLong(PREF_LAST_SYNC_ROWS_TOUCHED, 0);
+        rowsTouched[1] = sp.getLong(PREF_TOTAL_ROWS_TOUCHED, 0);
+        rowsTouched[2] = sp.getLong(PREF_TOTAL_DAYS_DOWNLOADED, 0);
+        return rowsTouched;
+    }
+
+    /**
+     * Records how much a sync changed the forecast. Only the most recent few syncs are kept.
+     *
+     * @param context Used to access SharedPreferences
+     * @param change  The fraction of the days the sync downloaded that it had to write or
+     *                delete, from 0 if the forecast was unchanged to 1 if all of it changed
+     */
+    public static void saveSyncChange(Context context, float change) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        float[] recentChanges = getRecentSyncChanges(context);
+        int kept = Math.min(recentChanges.length, RECENT_SYNC_CHANGES_KEPT - 1);
+        StringBuilder changes = new StringBuilder();
+        for (int i = recentChanges.length - kept; i < recentChanges.length; i++) {
+            changes.append(recentChanges[i]).append(',');
+        }
+        changes.append(Math.max(0f, Math.min(1f, change)));
+
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putString(PREF_RECENT_SYNC_CHANGES, changes.toString());
+        editor.apply();
+    }
+
+    /**
+     * Returns the changes recorded by {@link #saveSyncChange(Context, float)}.
+     *
+     * @param context Used to access SharedPreferences
+     * @return How much each of the last few syncs changed the forecast, oldest first, or an
+     * empty array if no sync has been recorded yet
+     */
+    public static float[] getRecentSyncChanges(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String changes = sp.getString(PREF_RECENT_SYNC_CHANGES, "");
+        if (changes.isEmpty()) {
+            return new float[0];
+        }
+
+        String[] values = changes.split(",");
+        float[] recentChanges = new float[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                recentChanges[i] = Float.parseFloat(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            /* Nothing to go by, which is no worse than never having synced */
+            return new float[0];
+        }
+        return recentChanges;
+    }
+
+    /**
+     * Saves the time that the user looked at the forecast.
+     *
+     * @param context       Used to access SharedPreferences
+     * @param timeOfViewing Time the forecast was shown (in UNIX time)
+     */
+    public static void saveLastViewedTime(Context context, long timeOfViewing) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putLong(PREF_LAST_VIEWED_TIME, timeOfViewing);
+        editor.apply();
+    }
+
+    /**
+     * Returns the time saved by {@link #saveLastViewedTime(Context, long)}.
+     *
+     * @param context Used to access SharedPreferences
+     * @return UNIX time of when the user last looked at the forecast, or 0 if they never have
+     */
+    public static long getLastViewedTime(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_LAST_VIEWED_TIME, 0);
+    }
+
+    /**
+     * Returns the locations the user has saved, in alphabetical order.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The saved locations, empty if there are none
+     */
+    public static List<String> getSavedLocations(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        Set<String> savedLocations =
+                sp.getStringSet(PREF_SAVED_LOCATIONS, Collections.<String>emptySet());
+        List<String> sortedLocations = new ArrayList<>(savedLocations);
+        Collections.sort(sortedLocations);
+        return sortedLocations;
+    }
+
+    /**
+     * Replaces the locations the user has saved.
+     *
+     * @param context   Used to access SharedPreferences
+     * @param locations The locations to save, in the same form as the preferred location
+     */
+    public static void setSavedLocations(Context context, Collection<String> locations) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        /* The set passed to putStringSet must not be modified afterwards, so we copy it */
+        editor.putStringSet(PREF_SAVED_LOCATIONS, new HashSet<>(locations));
+        editor.apply();
+    }
+}
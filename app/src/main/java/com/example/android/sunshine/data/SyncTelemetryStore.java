@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.data.WeatherContract.SyncTelemetryEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps counts of how syncs, and the requests they make, turned out, and histograms of how long
+ * they took, over the last WINDOW_DAYS days. Without these, the log is all there is to tell why
+ * syncs are slow or failing, and the log is long gone by the time anyone asks.
+ * <p>
+ * Every day gets one slot, reused a week later, so the store never grows. Like
+ * {@link HttpValidatorStore}, it is kept in SharedPreferences of its own. WeatherProvider serves
+ * the totals at {@link SyncTelemetryEntry#OUTCOMES_URI} and
+ * {@link SyncTelemetryEntry#LATENCY_URI}.
+ * <p>
+ * The time and allocations of each stage of the last RECENT_STAGE_RUNS syncs are kept as well,
+ * for {@link SyncTelemetryEntry#STAGES_URI}. A histogram of the whole sync can tell us that
+ * syncs got slower, but not which part of them did.
+ */
+public final class SyncTelemetryStore {
+
+    private static final String PREFS_NAME = "sync_telemetry";
+
+    private static final int WINDOW_DAYS = 7;
+
+    /*
+     * The upper bound, in milliseconds, of each bucket of the latency histograms. Syncs and
+     * requests slower than a minute go in the last one.
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, Long.MAX_VALUE
+    };
+
+    /*
+     * The keys of a slot are its number followed by one of these. The counts and histograms
+     * are then followed by the scope (and the outcome) they are for.
+     */
+    private static final String KEY_SLOT_PREFIX = "slot";
+    private static final String KEY_DAY = ".day";
+    private static final String KEY_COUNT = ".count.";
+    private static final String KEY_LATENCY = ".latency.";
+
+    /*
+     * The stages of the most recent syncs, one sync per line, oldest first. Each line holds the
+     * stages the sync went through, separated by commas, as the stage, its duration in
+     * microseconds and the bytes it allocated (or -1), separated by colons.
+     */
+    private static final String KEY_STAGE_RUNS = "stage_runs";
+    private static final int RECENT_STAGE_RUNS = 50;
+
+    /* When each outcome was last recorded, and why, whichever slot that was in */
+    private static final String KEY_LAST_TIME = "last_time.";
+    private static final String KEY_LAST_MESSAGE = "last_message.";
+
+    private static final String[] OUTCOME_COLUMNS = {
+            SyncTelemetryEntry.COLUMN_SCOPE,
+            SyncTelemetryEntry.COLUMN_OUTCOME,
+            SyncTelemetryEntry.COLUMN_COUNT,
+            SyncTelemetryEntry.COLUMN_LAST_TIME,
+            SyncTelemetryEntry.COLUMN_LAST_MESSAGE,
+    };
+
+    private static final String[] LATENCY_COLUMNS = {
+            SyncTelemetryEntry.COLUMN_SCOPE,
+            SyncTelemetryEntry.COLUMN_UPPER_BOUND,
+            SyncTelemetryEntry.COLUMN_COUNT,
+    };
+
+    private static final String[] STAGE_COLUMNS = {
+            SyncTelemetryEntry.COLUMN_STAGE,
+            SyncTelemetryEntry.COLUMN_COUNT,
+            SyncTelemetryEntry.COLUMN_P50_MILLIS,
+            SyncTelemetryEntry.COLUMN_P90_MILLIS,
+            SyncTelemetryEntry.COLUMN_MAX_MILLIS,
+            SyncTelemetryEntry.COLUMN_P50_ALLOCATED_BYTES,
+            SyncTelemetryEntry.COLUMN_P90_ALLOCATED_BYTES,
+    };
+
+    /* Each record reads, then writes, a slot */
+    private static final Object sLock = new Object();
+
+    private SyncTelemetryStore() {
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String slotKey(long day) {
+        return KEY_SLOT_PREFIX + (day % WINDOW_DAYS);
+    }
+
+    /**
+     * Records how a sync, or a request, turned out and how long it took.
+     *
+     * @param context        Used to access SharedPreferences, and to notify observers of
+     *                       {@link SyncTelemetryEntry#CONTENT_URI}
+     * @param scope          {@link SyncTelemetryEntry#SCOPE_SYNC} or
+     *                       {@link SyncTelemetryEntry#SCOPE_REQUEST}
+     * @param outcome        See {@link SyncTelemetryEntry#COLUMN_OUTCOME}
+     * @param durationMillis How long it took, in milliseconds
+     * @param message        Message of the exception behind a failure, may be null
+     */
+    public static void record(Context context, String scope, String outcome,
+                              long durationMillis, String message) {
+        long now = System.currentTimeMillis();
+        long today = now / SunshineDateUtils.DAY_IN_MILLIS;
+        String slot = slotKey(today);
+
+        synchronized (sLock) {
+            SharedPreferences sp = getPreferences(context);
+            SharedPreferences.Editor editor = sp.edit();
+
+            /* The slot last held a day that has left the window, start it over */
+            boolean freshSlot = sp.getLong(slot + KEY_DAY, -1) != today;
+            if (freshSlot) {
+                for (String key : sp.getAll().keySet()) {
+                    if (key.startsWith(slot + ".")) {
+                        editor.remove(key);
+                    }
+                }
+                editor.putLong(slot + KEY_DAY, today);
+            }
+
+            String countKey = slot + KEY_COUNT + scope + "." + outcome;
+            editor.putLong(countKey, (freshSlot ? 0 : sp.getLong(countKey, 0)) + 1);
+
+            String latencyKey = slot + KEY_LATENCY + scope;
+            long[] histogram = parseHistogram(freshSlot ? null : sp.getString(latencyKey, null));
+            histogram[findBucket(durationMillis)]++;
+            editor.putString(latencyKey, formatHistogram(histogram));
+
+            String outcomeKey = scope + "." + outcome;
+            editor.putLong(KEY_LAST_TIME + outcomeKey, now);
+            if (message != null) {
+                editor.putString(KEY_LAST_MESSAGE + outcomeKey, message);
+            } else {
+                editor.remove(KEY_LAST_MESSAGE + outcomeKey);
+            }
+            editor.apply();
+        }
+
+        context.getContentResolver().notifyChange(SyncTelemetryEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Records the stages a sync went through. Only the last RECENT_STAGE_RUNS syncs are kept.
+     *
+     * @param context         Used to access SharedPreferences, and to notify observers of
+     *                        {@link SyncTelemetryEntry#CONTENT_URI}
+     * @param stages          The stages, see {@link SyncTelemetryEntry#COLUMN_STAGE}, in the
+     *                        order the sync went through them
+     * @param durationsMicros How long each stage took, in microseconds
+     * @param allocatedBytes  How many bytes each stage allocated, or -1 if they weren't counted
+     */
+    public static void recordStages(Context context, String[] stages, long[] durationsMicros,
+                                    long[] allocatedBytes) {
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < stages.length; i++) {
+            if (i > 0) {
+                run.append(',');
+            }
+            run.append(stages[i]).append(':').append(durationsMicros[i])
+                    .append(':').append(allocatedBytes[i]);
+        }
+
+        synchronized (sLock) {
+            SharedPreferences sp = getPreferences(context);
+            String[] runs = sp.getString(KEY_STAGE_RUNS, "").split("\n");
+
+            StringBuilder recentRuns = new StringBuilder();
+            for (int i = Math.max(0, runs.length - RECENT_STAGE_RUNS + 1); i < runs.length; i++) {
+                if (!runs[i].isEmpty()) {
+                    recentRuns.append(runs[i]).append('\n');
+                }
+            }
+            recentRuns.append(run);
+
+            sp.edit().putString(KEY_STAGE_RUNS, recentRuns.toString()).apply();
+        }
+
+        context.getContentResolver().notifyChange(SyncTelemetryEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clear(Context context) {
+        synchronized (sLock) {
+            getPreferences(context).edit().clear().apply();
+        }
+        context.getContentResolver().notifyChange(SyncTelemetryEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * @return A cursor over the outcomes recorded, see {@link SyncTelemetryEntry#OUTCOMES_URI}
+     */
+    static Cursor queryOutcomes(Context context, String[] projection) {
+        Map<String, ?> values = getPreferences(context).getAll();
+
+        /* Counts by scope and outcome, which sort as "scope.outcome" */
+        Map<String, Long> counts = new TreeMap<>();
+        for (String slot : getSlotsInWindow(values)) {
+            String prefix = slot + KEY_COUNT;
+            for (Map.Entry<String, ?> value : values.entrySet()) {
+                if (value.getKey().startsWith(prefix)) {
+                    String outcomeKey = value.getKey().substring(prefix.length());
+                    Long count = counts.get(outcomeKey);
+                    counts.put(outcomeKey, (count != null ? count : 0)
+                            + (Long) value.getValue());
+                }
+            }
+        }
+        /* Outcomes that haven't happened within the window still have a last time */
+        for (String key : values.keySet()) {
+            if (key.startsWith(KEY_LAST_TIME) && !counts.containsKey(
+                    key.substring(KEY_LAST_TIME.length()))) {
+                counts.put(key.substring(KEY_LAST_TIME.length()), 0L);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(
+                projection != null ? projection : OUTCOME_COLUMNS, counts.size());
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            String outcomeKey = count.getKey();
+            int separator = outcomeKey.indexOf('.');
+            cursor.newRow()
+                    .add(SyncTelemetryEntry.COLUMN_SCOPE, outcomeKey.substring(0, separator))
+                    .add(SyncTelemetryEntry.COLUMN_OUTCOME, outcomeKey.substring(separator + 1))
+                    .add(SyncTelemetryEntry.COLUMN_COUNT, count.getValue())
+                    .add(SyncTelemetryEntry.COLUMN_LAST_TIME,
+                            values.get(KEY_LAST_TIME + outcomeKey))
+                    .add(SyncTelemetryEntry.COLUMN_LAST_MESSAGE,
+                            values.get(KEY_LAST_MESSAGE + outcomeKey));
+        }
+        return cursor;
+    }
+
+    /**
+     * @return A cursor over the latency histograms, see {@link SyncTelemetryEntry#LATENCY_URI}
+     */
+    static Cursor queryLatency(Context context, String[] projection) {
+        Map<String, ?> values = getPreferences(context).getAll();
+
+        Map<String, long[]> histograms = new TreeMap<>();
+        for (String slot : getSlotsInWindow(values)) {
+            String prefix = slot + KEY_LATENCY;
+            for (Map.Entry<String, ?> value : values.entrySet()) {
+                if (value.getKey().startsWith(prefix)) {
+                    String scope = value.getKey().substring(prefix.length());
+                    long[] histogram = histograms.get(scope);
+                    if (histogram == null) {
+                        histogram = new long[BUCKET_BOUNDS.length];
+                        histograms.put(scope, histogram);
+                    }
+                    long[] slotHistogram = parseHistogram((String) value.getValue());
+                    for (int bucket = 0; bucket < histogram.length; bucket++) {
+                        histogram[bucket] += slotHistogram[bucket];
+                    }
+                }
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : LATENCY_COLUMNS,
+                histograms.size() * BUCKET_BOUNDS.length);
+        for (Map.Entry<String, long[]> histogram : histograms.entrySet()) {
+            for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+                cursor.newRow()
+                        .add(SyncTelemetryEntry.COLUMN_SCOPE, histogram.getKey())
+                        .add(SyncTelemetryEntry.COLUMN_UPPER_BOUND, BUCKET_BOUNDS[bucket])
+                        .add(SyncTelemetryEntry.COLUMN_COUNT, histogram.getValue()[bucket]);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * @return A cursor over the stages of recent syncs, see {@link SyncTelemetryEntry#STAGES_URI}
+     */
+    static Cursor queryStages(Context context, String[] projection) {
+        String[] runs = getPreferences(context).getString(KEY_STAGE_RUNS, "").split("\n");
+
+        /* Every stage's durations and allocations, in the order syncs go through the stages */
+        Map<String, List<Long>> durations = new LinkedHashMap<>();
+        Map<String, List<Long>> allocations = new LinkedHashMap<>();
+        for (String run : runs) {
+            if (run.isEmpty()) {
+                continue;
+            }
+            for (String stageRun : run.split(",")) {
+                String[] values = stageRun.split(":");
+                if (values.length != 3) {
+                    continue;
+                }
+                try {
+                    long durationMicros = Long.parseLong(values[1]);
+                    long allocatedBytes = Long.parseLong(values[2]);
+
+                    if (!durations.containsKey(values[0])) {
+                        durations.put(values[0], new ArrayList<Long>());
+                        allocations.put(values[0], new ArrayList<Long>());
+                    }
+                    durations.get(values[0]).add(durationMicros);
+                    if (allocatedBytes >= 0) {
+                        allocations.get(values[0]).add(allocatedBytes);
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : STAGE_COLUMNS,
+                durations.size());
+        for (Map.Entry<String, List<Long>> stage : durations.entrySet()) {
+            List<Long> stageDurations = stage.getValue();
+            List<Long> stageAllocations = allocations.get(stage.getKey());
+            Collections.sort(stageDurations);
+            Collections.sort(stageAllocations);
+
+            cursor.newRow()
+                    .add(SyncTelemetryEntry.COLUMN_STAGE, stage.getKey())
+                    .add(SyncTelemetryEntry.COLUMN_COUNT, stageDurations.size())
+                    .add(SyncTelemetryEntry.COLUMN_P50_MILLIS,
+                            getPercentile(stageDurations, 0.5) / 1000.0)
+                    .add(SyncTelemetryEntry.COLUMN_P90_MILLIS,
+                            getPercentile(stageDurations, 0.9) / 1000.0)
+                    .add(SyncTelemetryEntry.COLUMN_MAX_MILLIS,
+                            getPercentile(stageDurations, 1) / 1000.0)
+                    .add(SyncTelemetryEntry.COLUMN_P50_ALLOCATED_BYTES, stageAllocations.isEmpty()
+                            ? null : getPercentile(stageAllocations, 0.5))
+                    .add(SyncTelemetryEntry.COLUMN_P90_ALLOCATED_BYTES, stageAllocations.isEmpty()
+                            ? null : getPercentile(stageAllocations, 0.9));
+        }
+        return cursor;
+    }
+
+    /**
+     * @param sorted   Values sorted in ascending order, at least one
+     * @param fraction Between 0 and 1
+     * @return The smallest value that the given fraction of the values are no larger than
+     */
+    private static long getPercentile(List<Long> sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.size());
+        return sorted.get(Math.max(1, Math.min(rank, sorted.size())) - 1);
+    }
+
+    /**
+     * @return The slots that hold one of the last WINDOW_DAYS days
+     */
+    private static TreeSet<String> getSlotsInWindow(Map<String, ?> values) {
+        long today = System.currentTimeMillis() / SunshineDateUtils.DAY_IN_MILLIS;
+        TreeSet<String> slots = new TreeSet<>();
+        for (long day = today - WINDOW_DAYS + 1; day <= today; day++) {
+            String slot = slotKey(day);
+            Object slotDay = values.get(slot + KEY_DAY);
+            if (slotDay instanceof Long && (Long) slotDay == day) {
+                slots.add(slot);
+            }
+        }
+        return slots;
+    }
+
+    private static int findBucket(long millis) {
+        int bucket = 0;
+        while (millis > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Reads a histogram stored as its counts, separated by commas. A histogram stored with
+     * other buckets than BUCKET_BOUNDS reads as empty.
+     */
+    private static long[] parseHistogram(String counts) {
+        long[] histogram = new long[BUCKET_BOUNDS.length];
+        if (counts == null) {
+            return histogram;
+        }
+        String[] values = counts.split(",");
+        if (values.length != histogram.length) {
+            return histogram;
+        }
+        try {
+            for (int bucket = 0; bucket < histogram.length; bucket++) {
+                histogram[bucket] = Long.parseLong(values[bucket]);
+            }
+        } catch (NumberFormatException e) {
+            return new long[BUCKET_BOUNDS.length];
+        }
+        return histogram;
+    }
+
+    private static String formatHistogram(long[] histogram) {
+        StringBuilder counts = new StringBuilder();
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            if (bucket > 0) {
+                counts.append(',');
+            }
+            counts.append(histogram[bucket]);
+        }
+        return counts.toString();
+    }
+}
@@ -56,6 +56,48 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /* Path for the forecasts of the user's saved locations, see LocationWeatherEntry */
+    public static final String PATH_LOCATION_WEATHER = "location_weather";
+
+    /* Path for the 3-hour forecast of the preferred location, see HourlyWeatherEntry */
+    public static final String PATH_HOURLY_WEATHER = "hourly_weather";
+
+    /* Path for the counts, latencies and stage timings of recent syncs, see SyncTelemetryEntry */
+    public static final String PATH_SYNC_TELEMETRY = "sync_telemetry";
+
+    /*
+     * Name of the ContentProvider#call method that inserts a ForecastBatch, see
+     * ForecastBatch#insert. The result Bundle holds the number of rows inserted under
+     * KEY_ROWS_INSERTED.
+     */
+    public static final String METHOD_INSERT_FORECAST_BATCH = "insert_forecast_batch";
+    public static final String KEY_ROWS_INSERTED = "rows_inserted";
+
+    /*
+     * Name of the ContentProvider#call method that merges a ForecastBatch into the weather
+     * table, see ForecastBatch#merge. Only the days that are new or have changed are written.
+     *
+     * Besides the batch, the extras may hold KEY_OLDEST_DATE, to delete the days before it,
+     * and KEY_REPLACE, to delete the days that aren't in the batch, all in the same
+     * transaction. The result Bundle holds the number of rows inserted, updated and deleted
+     * under KEY_ROWS_INSERTED, KEY_ROWS_UPDATED and KEY_ROWS_DELETED, and their sum under
+     * KEY_ROWS_CHANGED.
+     */
+    public static final String METHOD_MERGE_FORECAST_BATCH = "merge_forecast_batch";
+    public static final String KEY_OLDEST_DATE = "oldest_date";
+    public static final String KEY_REPLACE = "replace";
+    public static final String KEY_ROWS_CHANGED = "rows_changed";
+    public static final String KEY_ROWS_UPDATED = "rows_updated";
+    public static final String KEY_ROWS_DELETED = "rows_deleted";
+
+    /*
+     * Name of the ContentProvider#call method that inserts one chunk of an hourly forecast, see
+     * HourlyForecastBatch#insert. Unlike the other inserts, it doesn't notify anyone, as a
+     * forecast arrives in many chunks. The result Bundle holds the number of rows inserted
+     * under KEY_ROWS_INSERTED.
+     */
+    public static final String METHOD_INSERT_HOURLY_CHUNK = "insert_hourly_chunk";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -135,4 +177,199 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the table contents of the location_weather table. This table
+     * holds the forecasts of every location the user has saved, as opposed to the weather table,
+     * which only holds the forecast for the preferred location. Each row is one day of one
+     * location's forecast.
+     */
+    public static final class LocationWeatherEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location_weather table */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION_WEATHER)
+                .build();
+
+        /* Used internally as the name of our location_weather table. */
+        public static final String TABLE_NAME = "location_weather";
+
+        /* The saved location the forecast is for, exactly as it is stored in preferences */
+        public static final String COLUMN_LOCATION = "location";
+
+        /*
+         * The rest of the columns are the same as the weather table's, so that the ContentValues
+         * parsed from a forecast can be stored in either table.
+         */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /**
+         * Builds a URI that matches the forecast of a single saved location.
+         *
+         * @param location The saved location
+         * @return Uri to query details about the location's forecast
+         */
+        public static Uri buildLocationWeatherUri(String location) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(location)
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the hourly_weather table. Each row is one
+     * entry of the 3-hour forecast of the preferred location. There are 8 entries per day, and
+     * the forecast covers about 5 days.
+     */
+    public static final class HourlyWeatherEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the hourly_weather table */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HOURLY_WEATHER)
+                .build();
+
+        /* Used internally as the name of our hourly_weather table. */
+        public static final String TABLE_NAME = "hourly_weather";
+
+        /* Start of the 3 hours the entry is for, in UTC milliseconds */
+        public static final String COLUMN_TIME = "time";
+
+        /*
+         * The local date the entry falls on, normalized in the same way as the date column of
+         * the weather table. This is what lets the entries of one day be queried on their own.
+         */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+
+        /* Weather ID as returned by API, used to identify the icon to be used */
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+
+        /* Temperature in °C, and its lowest and highest values over the 3 hours */
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        /* These are the same as the weather table's */
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /**
+         * Builds a URI that matches the hourly entries of a single day, for the list and detail
+         * views to query that day's slice of the forecast on its own.
+         *
+         * @param date Normalized date in milliseconds, as in the weather table
+         * @return Uri to query the entries of that day
+         */
+        public static Uri buildHourlyWeatherUriWithDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that describes the diagnostics kept about recent syncs. They aren't stored in
+     * the database, but are queried like a table. Both URIs are read only, and are notified
+     * whenever a sync or request is recorded.
+     */
+    public static final class SyncTelemetryEntry {
+
+        /* The base CONTENT_URI of the sync diagnostics. It can't be queried itself. */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC_TELEMETRY)
+                .build();
+
+        public static final String PATH_OUTCOMES = "outcomes";
+        public static final String PATH_LATENCY = "latency";
+        public static final String PATH_STAGES = "stages";
+
+        /*
+         * One row per outcome that was recorded, with COLUMN_SCOPE, COLUMN_OUTCOME,
+         * COLUMN_COUNT, COLUMN_LAST_TIME and COLUMN_LAST_MESSAGE.
+         */
+        public static final Uri OUTCOMES_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_OUTCOMES)
+                .build();
+
+        /*
+         * One row per bucket of each scope's latency histogram, with COLUMN_SCOPE,
+         * COLUMN_UPPER_BOUND and COLUMN_COUNT.
+         */
+        public static final Uri LATENCY_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_LATENCY)
+                .build();
+
+        /*
+         * One row per stage of the syncs of the preferred location, in the order a sync goes
+         * through them, with COLUMN_STAGE, COLUMN_COUNT and percentiles of how long the stage
+         * took and how much it allocated, over the last 50 syncs.
+         */
+        public static final Uri STAGES_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_STAGES)
+                .build();
+
+        /* What was recorded: a whole sync, or a single request to the weather server */
+        public static final String COLUMN_SCOPE = "scope";
+        public static final String SCOPE_SYNC = "sync";
+        public static final String SCOPE_REQUEST = "request";
+
+        /*
+         * SUCCESS or NOT_MODIFIED for a sync and OK for a request that succeeded, or else the
+         * name of the SyncError the failure was classified as
+         */
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        /* How many times it happened, or how many latencies fell in the bucket, in 7 days */
+        public static final String COLUMN_COUNT = "count";
+
+        /* When the outcome last happened, in UTC milliseconds */
+        public static final String COLUMN_LAST_TIME = "last_time";
+
+        /* The message of the exception behind the last failure with this outcome, if any */
+        public static final String COLUMN_LAST_MESSAGE = "last_message";
+
+        /*
+         * The longest latency, in milliseconds, that falls in the bucket. The last bucket has no
+         * bound, and holds Long.MAX_VALUE.
+         */
+        public static final String COLUMN_UPPER_BOUND = "upper_bound_millis";
+
+        /*
+         * A stage of a sync. Building the URL of the forecast, connecting to the server until
+         * the response headers are in, downloading the response (or reading it from the
+         * response cache), parsing it, writing it to the weather table and notifying the user.
+         */
+        public static final String COLUMN_STAGE = "stage";
+        public static final String STAGE_BUILD_URL = "build_url";
+        public static final String STAGE_CONNECT = "connect";
+        public static final String STAGE_DOWNLOAD = "download";
+        public static final String STAGE_DECODE = "decode";
+        public static final String STAGE_PERSIST = "persist";
+        public static final String STAGE_NOTIFY = "notify";
+
+        /*
+         * How long the stage took, in milliseconds with a fraction, in half (p50), 90% (p90) and
+         * all (max) of the syncs that went through it. A stage run more than once in a sync, such
+         * as a download that was retried, counts as the total of its runs.
+         */
+        public static final String COLUMN_P50_MILLIS = "p50_millis";
+        public static final String COLUMN_P90_MILLIS = "p90_millis";
+        public static final String COLUMN_MAX_MILLIS = "max_millis";
+
+        /*
+         * How many bytes the stage allocated on the sync's thread, in half and 90% of the syncs.
+         * Allocations are only counted in debug builds, counting slows down every allocation in
+         * the app. Null if none of the syncs counted them.
+         */
+        public static final String COLUMN_P50_ALLOCATED_BYTES = "p50_allocated_bytes";
+        public static final String COLUMN_P90_ALLOCATED_BYTES = "p90_allocated_bytes";
+    }
+}
@@ -19,6 +19,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationWeatherEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -43,15 +45,22 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 5;
+
+    private final Context mContext;
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
     }
 
     /**
      * Called when the database is created for the first time. This is where the creation of
      * tables and the initial population of the tables should happen.
+     * <p>
+     * The tables start out empty, so whatever HttpValidatorStore remembers about the forecast
+     * they held no longer applies. Left in place, it would have the next sync ask the server
+     * whether that forecast has changed, and keep the tables empty on a "304 Not Modified".
      *
      * @param sqLiteDatabase The database.
      */
@@ -99,6 +108,71 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        /*
+         * The location_weather table holds the forecasts of the user's saved locations. It has
+         * the same columns as the weather table, plus the location each row belongs to. Each
+         * location can only have one weather entry per date.
+         */
+        final String SQL_CREATE_LOCATION_WEATHER_TABLE =
+
+                "CREATE TABLE " + LocationWeatherEntry.TABLE_NAME + " (" +
+
+                LocationWeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationWeatherEntry.COLUMN_LOCATION   + " TEXT NOT NULL, "                    +
+                LocationWeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+
+                LocationWeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+
+                LocationWeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+                LocationWeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+                LocationWeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+                LocationWeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+                LocationWeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+                LocationWeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+                " UNIQUE (" + LocationWeatherEntry.COLUMN_LOCATION + ", "
+                        + LocationWeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_WEATHER_TABLE);
+
+        /*
+         * The hourly_weather table holds the 3-hour forecast of the preferred location. There
+         * can only be one entry per time. The index on the date column lets one day's entries
+         * be found without scanning the whole forecast.
+         */
+        final String SQL_CREATE_HOURLY_WEATHER_TABLE =
+
+                "CREATE TABLE " + HourlyWeatherEntry.TABLE_NAME + " (" +
+
+                HourlyWeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                HourlyWeatherEntry.COLUMN_TIME       + " INTEGER NOT NULL, "                 +
+                HourlyWeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+
+                HourlyWeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+
+                HourlyWeatherEntry.COLUMN_TEMP       + " REAL NOT NULL, "                    +
+                HourlyWeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+                HourlyWeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+                HourlyWeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+                HourlyWeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+                HourlyWeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+                HourlyWeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+                " UNIQUE (" + HourlyWeatherEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_WEATHER_TABLE);
+        sqLiteDatabase.execSQL("CREATE INDEX " + HourlyWeatherEntry.TABLE_NAME + "_"
+                + HourlyWeatherEntry.COLUMN_DATE + " ON " + HourlyWeatherEntry.TABLE_NAME
+                + " (" + HourlyWeatherEntry.COLUMN_DATE + ");");
+
+        HttpValidatorStore.clear(mContext);
     }
 
     /**
@@ -108,6 +182,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * depend on the version number for your application found in your app/build.gradle file. If
      * you want to update the schema without wiping data, commenting out the current body of this
      * method should be your top priority before modifying this method.
+     * <p>
+     * onCreate also forgets the validators of the forecast that was discarded.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -116,6 +192,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationWeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyWeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
\ No newline at end of file
@@ -17,22 +17,33 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, query data, and delete data, on their own or in a batch of operations.
  * <p>
  * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
+ * perform updates, and the ability to get the type of the data from a URI. However, here, they
+ * are not implemented for the sake of brevity and simplicity. If you would
  * like, you may implement them on your own. However, we are not going to be teaching how to do
  * so in this course.
  */
@@ -45,6 +56,13 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_LOCATION_WEATHER = 200;
+    public static final int CODE_LOCATION_WEATHER_WITH_LOCATION = 201;
+    public static final int CODE_HOURLY_WEATHER = 300;
+    public static final int CODE_HOURLY_WEATHER_WITH_DATE = 301;
+    public static final int CODE_SYNC_OUTCOMES = 400;
+    public static final int CODE_SYNC_LATENCY = 401;
+    public static final int CODE_SYNC_STAGES = 402;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +72,12 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * While applyBatch runs on a thread, the URIs its operations changed are collected here
+     * instead of being notified, so that each is notified once the batch has been committed.
+     */
+    private final ThreadLocal<Set<Uri>> mDeferredNotifications = new ThreadLocal<>();
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +120,34 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* content://com.example.android.sunshine/location_weather/ for every saved location */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION_WEATHER, CODE_LOCATION_WEATHER);
+
+        /*
+         * content://com.example.android.sunshine/location_weather/94043,USA for one saved
+         * location. The "/*" matches any text, as locations can be any String.
+         */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION_WEATHER + "/*",
+                CODE_LOCATION_WEATHER_WITH_LOCATION);
+
+        /* content://com.example.android.sunshine/hourly_weather/ for the whole 3-hour forecast */
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY_WEATHER, CODE_HOURLY_WEATHER);
+
+        /* content://com.example.android.sunshine/hourly_weather/1472214172 for one day of it */
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY_WEATHER + "/#",
+                CODE_HOURLY_WEATHER_WITH_DATE);
+
+        /*
+         * content://com.example.android.sunshine/sync_telemetry/outcomes/, .../latency/ and
+         * .../stages/
+         */
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TELEMETRY + "/"
+                + WeatherContract.SyncTelemetryEntry.PATH_OUTCOMES, CODE_SYNC_OUTCOMES);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TELEMETRY + "/"
+                + WeatherContract.SyncTelemetryEntry.PATH_LATENCY, CODE_SYNC_LATENCY);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TELEMETRY + "/"
+                + WeatherContract.SyncTelemetryEntry.PATH_STAGES, CODE_SYNC_STAGES);
+
         return matcher;
     }
 
@@ -126,11 +178,9 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * Handles requests to insert a set of new rows. In Sunshine, we are only going to be
-     * inserting multiple rows of data at a time from a weather forecast. There is no use case
-     * for inserting a single row of data into our ContentProvider, and so we are only going to
-     * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
-     * to provide proper functionality for the insert method as well.
+     * Handles requests to insert a set of new rows. In Sunshine, we are mostly going to be
+     * inserting multiple rows of data at a time from a weather forecast. Single rows are only
+     * inserted by the operations of a batch, see {@link #applyBatch(ArrayList)}.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -145,37 +195,558 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
+                /*
+                 * ContentValues are only kept around for callers that still use them. Every row
+                 * goes through the same insert as a ForecastBatch handed to call().
+                 */
+                int rowsInserted = insertForecastBatch(db, null,
+                        ForecastBatch.fromContentValues(values));
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
                 }
 
                 return rowsInserted;
 
+            case CODE_LOCATION_WEATHER:
+                return bulkInsertLocationWeather(db, uri, values);
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Inserts the forecasts of one or more saved locations. The forecast of every location in
+     * values replaces whatever was stored for that location before, in the same transaction, so
+     * that nobody ever sees a location with half of an old forecast and half of a new one.
+     * Forecasts of other locations are left alone.
+     *
+     * @return The number of values that were inserted.
+     */
+    private int bulkInsertLocationWeather(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        Set<String> replacedLocations = new HashSet<>();
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                String location =
+                        value.getAsString(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION);
+                if (location == null) {
+                    throw new IllegalArgumentException("Location must be set to insert");
+                }
+                long weatherDate =
+                        value.getAsLong(WeatherContract.LocationWeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                if (replacedLocations.add(location)) {
+                    db.delete(WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                            WeatherContract.LocationWeatherEntry.COLUMN_LOCATION + " = ?",
+                            new String[]{location});
+                }
+
+                long _id = db.insert(WeatherContract.LocationWeatherEntry.TABLE_NAME, null,
+                        value);
+                if (_id != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Applies a batch of operations in a transaction. A batch that allows no yield is applied
+     * atomically: readers see all of it at once, and if any operation fails, none of it.
+     * <p>
+     * Holding the database for the whole batch would keep every query waiting until a large
+     * batch is done. So at each operation built with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}, if someone is waiting
+     * for the database, the transaction is committed and the database handed over, before a new
+     * transaction carries on with the rest of the batch. A batch that yields is therefore only
+     * atomic between its yield points: readers may see the operations before a yield without
+     * those after it, and if a later operation fails, those before the yield stay applied.
+     * Callers should only allow a yield where their data makes sense to readers, and where
+     * they can live with the batch stopping there.
+     * <p>
+     * Observers are notified once the batch is done, once for each URI it changed, however many
+     * of its operations changed it.
+     *
+     * @param operations The operations to apply
+     * @return The result of each operation, in the same order as operations
+     * @throws OperationApplicationException If any operation fails. The operations since the
+     *                                       last yield are rolled back, those before it aren't.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        boolean committed = false;
+
+        mDeferredNotifications.set(changedUris);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && db.yieldIfContendedSafely()) {
+                    committed = true;
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mDeferredNotifications.remove();
+
+            /* After a yield, part of the batch is committed even if the rest failed */
+            if (committed) {
+                for (Uri uri : changedUris) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Notifies the observers of uri, or if an applyBatch is running on this thread, once it
+     * is done.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> deferredNotifications = mDeferredNotifications.get();
+        if (deferredNotifications != null) {
+            deferredNotifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Handles the methods WeatherProvider offers besides the usual insert, query and delete:
+     * {@link WeatherContract#METHOD_INSERT_FORECAST_BATCH}, which inserts a ForecastBatch stored
+     * in extras with {@link ForecastBatch#toBundle()},
+     * {@link WeatherContract#METHOD_MERGE_FORECAST_BATCH}, which merges one into the weather
+     * table, and {@link WeatherContract#METHOD_INSERT_HOURLY_CHUNK}, which inserts an
+     * HourlyForecastBatch stored with {@link HourlyForecastBatch#toBundle()}.
+     *
+     * @param method The method to run
+     * @param arg    For METHOD_INSERT_FORECAST_BATCH, the saved location the forecast belongs
+     *               to, or null for the weather table. Unused otherwise.
+     * @param extras The batch to insert or merge, and for METHOD_MERGE_FORECAST_BATCH,
+     *               {@link WeatherContract#KEY_OLDEST_DATE} and
+     *               {@link WeatherContract#KEY_REPLACE}
+     * @return A Bundle holding the number of rows inserted under
+     * {@link WeatherContract#KEY_ROWS_INSERTED}. For METHOD_MERGE_FORECAST_BATCH, it also holds
+     * the rows updated under {@link WeatherContract#KEY_ROWS_UPDATED}, the rows deleted under
+     * {@link WeatherContract#KEY_ROWS_DELETED}, and the sum of all three under
+     * {@link WeatherContract#KEY_ROWS_CHANGED}
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_MERGE_FORECAST_BATCH.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("No ForecastBatch to merge");
+            }
+
+            MergeStats stats = mergeForecastBatch(mOpenHelper.getWritableDatabase(),
+                    ForecastBatch.fromBundle(extras),
+                    extras.getLong(WeatherContract.KEY_OLDEST_DATE, Long.MIN_VALUE),
+                    extras.getBoolean(WeatherContract.KEY_REPLACE));
+
+            /* However much changed, the CursorLoaders re-query once */
+            if (stats.getRowsTouched() > 0) {
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.KEY_ROWS_INSERTED, stats.rowsInserted);
+            result.putInt(WeatherContract.KEY_ROWS_UPDATED, stats.rowsUpdated);
+            result.putInt(WeatherContract.KEY_ROWS_DELETED, stats.rowsDeleted);
+            result.putInt(WeatherContract.KEY_ROWS_CHANGED, stats.getRowsTouched());
+            return result;
+        }
+        if (WeatherContract.METHOD_INSERT_HOURLY_CHUNK.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("No HourlyForecastBatch to insert");
+            }
+
+            /* The caller notifies once it has inserted every chunk of the forecast */
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.KEY_ROWS_INSERTED, insertHourlyChunk(
+                    mOpenHelper.getWritableDatabase(), HourlyForecastBatch.fromBundle(extras)));
+            return result;
+        }
+        if (!WeatherContract.METHOD_INSERT_FORECAST_BATCH.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (extras == null) {
+            throw new IllegalArgumentException("No ForecastBatch to insert");
+        }
+
+        ForecastBatch forecast = ForecastBatch.fromBundle(extras);
+        int rowsInserted = insertForecastBatch(mOpenHelper.getWritableDatabase(), arg, forecast);
+
+        if (rowsInserted > 0) {
+            Uri uri = arg == null
+                    ? WeatherContract.WeatherEntry.CONTENT_URI
+                    : WeatherContract.LocationWeatherEntry.CONTENT_URI;
+            notifyChange(uri);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_ROWS_INSERTED, rowsInserted);
+        return result;
+    }
+
+    /**
+     * Inserts every day of a forecast in a single transaction, binding each value straight from
+     * the batch's arrays into one compiled INSERT statement.
+     *
+     * @param location If not null, the saved location the forecast belongs to. The location's
+     *                 previous forecast is deleted in the same transaction. If null, the
+     *                 forecast goes into the weather table, where it replaces rows of the same
+     *                 dates only.
+     * @return The number of rows inserted
+     */
+    private static int insertForecastBatch(SQLiteDatabase db, String location,
+                                           ForecastBatch forecast) {
+        for (int i = 0; i < forecast.size(); i++) {
+            if (!SunshineDateUtils.isDateNormalized(forecast.getDate(i))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+
+        String table = location == null
+                ? WeatherContract.WeatherEntry.TABLE_NAME
+                : WeatherContract.LocationWeatherEntry.TABLE_NAME;
+
+        /* The UNIQUE constraints of both tables replace any row with the same date */
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_HUMIDITY).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_PRESSURE).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        if (location != null) {
+            sql.append(", ").append(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION);
+        }
+        sql.append(") VALUES (?, ?, ?, ?, ?, ?, ?, ?").append(location != null ? ", ?)" : ")");
+
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            if (location != null) {
+                db.delete(table, WeatherContract.LocationWeatherEntry.COLUMN_LOCATION + " = ?",
+                        new String[]{location});
+            }
+
+            SQLiteStatement insert = db.compileStatement(sql.toString());
+            try {
+                if (location != null) {
+                    insert.bindString(9, location);
+                }
+                for (int i = 0; i < forecast.size(); i++) {
+                    insert.bindLong(1, forecast.getDate(i));
+                    insert.bindLong(2, forecast.getWeatherId(i));
+                    insert.bindDouble(3, forecast.getMinTemp(i));
+                    insert.bindDouble(4, forecast.getMaxTemp(i));
+                    insert.bindDouble(5, forecast.getHumidity(i));
+                    insert.bindDouble(6, forecast.getPressure(i));
+                    insert.bindDouble(7, forecast.getWindSpeed(i));
+                    insert.bindDouble(8, forecast.getDegrees(i));
+                    if (insert.executeInsert() != -1) {
+                        rowsInserted++;
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Merges a forecast into the weather table in a single transaction. Each day is first
+     * updated, but only if one of its values differs from the stored row. If that didn't write
+     * anything, the day is inserted, unless a row for its date already exists. So an unchanged
+     * day costs one lookup by date, and is never rewritten.
+     * <p>
+     * The rows to delete are found in the same transaction, by comparing the dates stored with
+     * the dates of the forecast, so the table is never seen empty, nor half written.
+     *
+     * @param oldestDate Days before this date are deleted. Long.MIN_VALUE keeps them all.
+     * @param replace    Whether to delete the days that aren't in the forecast, as when the
+     *                   forecast is for another location than the one stored
+     * @return The rows inserted, updated and deleted
+     */
+    private static MergeStats mergeForecastBatch(SQLiteDatabase db, ForecastBatch forecast,
+                                                 long oldestDate, boolean replace) {
+        for (int i = 0; i < forecast.size(); i++) {
+            if (!SunshineDateUtils.isDateNormalized(forecast.getDate(i))) {
+                throw new IllegalArgumentException("Date must be normalized to merge");
+            }
+        }
+
+        /*
+         * Both statements take the same numbered parameters: ?1 is the date, and ?2 to ?8 are
+         * the values, in the order of valueColumns. IS compares values the way = does, but
+         * can't be fooled by NULLs.
+         */
+        String[] valueColumns = {
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES,
+        };
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" SET ");
+        StringBuilder unchanged = new StringBuilder();
+        StringBuilder insert = new StringBuilder("INSERT OR IGNORE INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE);
+        StringBuilder values = new StringBuilder(") VALUES (?1");
+        for (int i = 0; i < valueColumns.length; i++) {
+            String parameter = "?" + (i + 2);
+            if (i > 0) {
+                update.append(", ");
+                unchanged.append(" AND ");
+            }
+            update.append(valueColumns[i]).append(" = ").append(parameter);
+            unchanged.append(valueColumns[i]).append(" IS ").append(parameter);
+            insert.append(", ").append(valueColumns[i]);
+            values.append(", ").append(parameter);
+        }
+        update.append(" WHERE ").append(WeatherContract.WeatherEntry.COLUMN_DATE)
+                .append(" = ?1 AND NOT (").append(unchanged).append(')');
+        insert.append(values).append(')');
+
+        MergeStats stats = new MergeStats();
+
+        db.beginTransaction();
+        try {
+            if (replace) {
+                stats.rowsDeleted += deleteDatesNotIn(db, forecast);
+            }
+            if (oldestDate != Long.MIN_VALUE) {
+                stats.rowsDeleted += db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(oldestDate)});
+            }
+
+            SQLiteStatement updateChanged = db.compileStatement(update.toString());
+            SQLiteStatement insertNew = db.compileStatement(insert.toString());
+            try {
+                for (int i = 0; i < forecast.size(); i++) {
+                    if (forecast.getDate(i) < oldestDate) {
+                        /* It would only be deleted again */
+                        continue;
+                    }
+                    bindDay(updateChanged, forecast, i);
+                    if (updateChanged.executeUpdateDelete() > 0) {
+                        stats.rowsUpdated++;
+                        continue;
+                    }
+                    bindDay(insertNew, forecast, i);
+                    if (insertNew.executeInsert() != -1) {
+                        stats.rowsInserted++;
+                    }
+                }
+            } finally {
+                updateChanged.close();
+                insertNew.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return stats;
+    }
+
+    /**
+     * Deletes the rows of the weather table whose dates aren't in the forecast. Must be called
+     * within a transaction.
+     *
+     * @return The number of rows deleted
+     */
+    private static int deleteDatesNotIn(SQLiteDatabase db, ForecastBatch forecast) {
+        Set<Long> forecastDates = new HashSet<>();
+        for (int i = 0; i < forecast.size(); i++) {
+            forecastDates.add(forecast.getDate(i));
+        }
+
+        /* Read every stale date before deleting any, so the cursor never sees a delete */
+        List<Long> staleDates = new ArrayList<>();
+        Cursor stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null, null, null, null, null);
+        try {
+            while (stored.moveToNext()) {
+                if (!forecastDates.contains(stored.getLong(0))) {
+                    staleDates.add(stored.getLong(0));
+                }
+            }
+        } finally {
+            stored.close();
+        }
+
+        int rowsDeleted = 0;
+        SQLiteStatement deleteDate = db.compileStatement("DELETE FROM "
+                + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?");
+        try {
+            for (long date : staleDates) {
+                deleteDate.bindLong(1, date);
+                rowsDeleted += deleteDate.executeUpdateDelete();
+            }
+        } finally {
+            deleteDate.close();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Binds a day of the forecast to the numbered parameters of mergeForecastBatch's statements.
+     */
+    private static void bindDay(SQLiteStatement statement, ForecastBatch forecast, int day) {
+        statement.bindLong(1, forecast.getDate(day));
+        statement.bindLong(2, forecast.getWeatherId(day));
+        statement.bindDouble(3, forecast.getMinTemp(day));
+        statement.bindDouble(4, forecast.getMaxTemp(day));
+        statement.bindDouble(5, forecast.getHumidity(day));
+        statement.bindDouble(6, forecast.getPressure(day));
+        statement.bindDouble(7, forecast.getWindSpeed(day));
+        statement.bindDouble(8, forecast.getDegrees(day));
+    }
+
+    /**
+     * Inserts one chunk of the hourly forecast in a single transaction, through one compiled
+     * INSERT statement. Keeping each transaction to one chunk keeps the database from holding
+     * the write lock for the whole download of the forecast.
+     *
+     * @return The number of rows inserted
+     */
+    private static int insertHourlyChunk(SQLiteDatabase db, HourlyForecastBatch chunk) {
+        for (int i = 0; i < chunk.size(); i++) {
+            if (!SunshineDateUtils.isDateNormalized(chunk.getDate(i))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+
+        /* The UNIQUE constraint on the time column replaces any entry for the same time */
+        String sql = "INSERT INTO " + WeatherContract.HourlyWeatherEntry.TABLE_NAME + " ("
+                + WeatherContract.HourlyWeatherEntry.COLUMN_TIME + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_DATE + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_TEMP + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(sql);
+            try {
+                for (int i = 0; i < chunk.size(); i++) {
+                    insert.bindLong(1, chunk.getTime(i));
+                    insert.bindLong(2, chunk.getDate(i));
+                    insert.bindLong(3, chunk.getWeatherId(i));
+                    insert.bindDouble(4, chunk.getTemp(i));
+                    insert.bindDouble(5, chunk.getMinTemp(i));
+                    insert.bindDouble(6, chunk.getMaxTemp(i));
+                    insert.bindDouble(7, chunk.getHumidity(i));
+                    insert.bindDouble(8, chunk.getPressure(i));
+                    insert.bindDouble(9, chunk.getWindSpeed(i));
+                    insert.bindDouble(10, chunk.getDegrees(i));
+                    if (insert.executeInsert() != -1) {
+                        rowsInserted++;
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Combines the selection needed to pick out the date of a CODE_HOURLY_WEATHER_WITH_DATE URI
+     * with the caller's own selection, if any.
+     */
+    private static String selectHourlyDate(String selection) {
+        String dateSelection = WeatherContract.HourlyWeatherEntry.COLUMN_DATE + " = ?";
+        if (selection == null) {
+            return dateSelection;
+        }
+        return dateSelection + " AND (" + selection + ")";
+    }
+
+    /**
+     * Combines the selection needed to pick out the location of a
+     * CODE_LOCATION_WEATHER_WITH_LOCATION URI with the caller's own selection, if any.
+     */
+    private static String selectLocation(String selection) {
+        String locationSelection =
+                WeatherContract.LocationWeatherEntry.COLUMN_LOCATION + " = ?";
+        if (selection == null) {
+            return locationSelection;
+        }
+        return locationSelection + " AND (" + selection + ")";
+    }
+
+    /**
+     * Puts the last path segment of a URI, such as the location of a
+     * CODE_LOCATION_WEATHER_WITH_LOCATION URI, in front of the caller's own selection arguments,
+     * to go with {@link #selectLocation(String)} or {@link #selectHourlyDate(String)}.
+     */
+    private static String[] selectLastPathSegmentArgs(Uri uri, String[] selectionArgs) {
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argCount + 1];
+        args[0] = uri.getLastPathSegment();
+        if (argCount > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, argCount);
+        }
+        return args;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -285,6 +856,85 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /* Every day of every saved location's forecast */
+            case CODE_LOCATION_WEATHER: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* Every day of one saved location's forecast */
+            case CODE_LOCATION_WEATHER_WITH_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        projection,
+                        selectLocation(selection),
+                        selectLastPathSegmentArgs(uri, selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* Every entry of the 3-hour forecast */
+            case CODE_HOURLY_WEATHER: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * The entries of the 3-hour forecast that fall on one day. The date is the last
+             * path segment, as with CODE_WEATHER_WITH_DATE, but here the caller's selection is
+             * kept, so that a screen can narrow the day down further.
+             */
+            case CODE_HOURLY_WEATHER_WITH_DATE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                        projection,
+                        selectHourlyDate(selection),
+                        selectLastPathSegmentArgs(uri, selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * The sync diagnostics aren't in the database, SyncTelemetryStore builds a cursor
+             * over them. Only the projection applies, they are always in the same order.
+             */
+            case CODE_SYNC_OUTCOMES: {
+                cursor = SyncTelemetryStore.queryOutcomes(getContext(), projection);
+                break;
+            }
+
+            case CODE_SYNC_LATENCY: {
+                cursor = SyncTelemetryStore.queryLatency(getContext(), projection);
+                break;
+            }
+
+            case CODE_SYNC_STAGES: {
+                cursor = SyncTelemetryStore.queryStages(getContext(), projection);
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -326,13 +976,38 @@ public class WeatherProvider extends ContentProvider {
 
                 break;
 
+            case CODE_LOCATION_WEATHER:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_LOCATION_WEATHER_WITH_LOCATION:
+                /* "1" isn't much of a selection to AND with, so we leave it out */
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        selectLocation("1".equals(selection) ? null : selection),
+                        selectLastPathSegmentArgs(uri, selectionArgs));
+
+                break;
+
+            case CODE_HOURLY_WEATHER:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numRowsDeleted;
@@ -354,20 +1029,60 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Inserts a single row into the weather, location weather or hourly weather table. Sunshine
+     * writes forecasts through {@link #bulkInsert} and {@link #call}; this is here for the
+     * insert operations of {@link #applyBatch(ArrayList)}.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the inserted row's date (or location), or null if nothing was inserted
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        Long weatherDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+
+        String table;
+        Uri insertedUri;
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                table = WeatherContract.WeatherEntry.TABLE_NAME;
+                insertedUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(weatherDate);
+                break;
+
+            case CODE_LOCATION_WEATHER:
+                String location =
+                        values.getAsString(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION);
+                if (location == null) {
+                    throw new IllegalArgumentException("Location must be set to insert");
+                }
+                table = WeatherContract.LocationWeatherEntry.TABLE_NAME;
+                insertedUri = WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(
+                        location);
+                break;
+
+            case CODE_HOURLY_WEATHER:
+                table = WeatherContract.HourlyWeatherEntry.TABLE_NAME;
+                insertedUri = WeatherContract.HourlyWeatherEntry.buildHourlyWeatherUriWithDate(
+                        weatherDate);
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        /* The UNIQUE constraints of the tables replace any row for the same date or time */
+        long _id = mOpenHelper.getWritableDatabase().insert(table, null, values);
+        if (_id == -1) {
+            return null;
+        }
+
+        notifyChange(uri);
+        return insertedUri;
     }
 
     @Override
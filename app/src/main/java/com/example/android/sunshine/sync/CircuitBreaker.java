@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+/**
+ * Stops us from hammering a weather server that is down. After a number of failures in a row,
+ * the breaker "opens" and no requests are allowed for a while. Once that while has passed, one
+ * trial request is let through: if it succeeds, the breaker closes and everything goes back to
+ * normal, and if it fails, the breaker stays open for another while.
+ * <p>
+ * The current time is passed in by the caller (as {@link android.os.SystemClock#elapsedRealtime}
+ * or anything else that only moves forward), which keeps this class easy to test.
+ */
+class CircuitBreaker {
+
+    enum State {
+        /* Requests are allowed */
+        CLOSED,
+        /* Requests are refused until the open period ends */
+        OPEN,
+        /* The open period has ended, and one trial request is in flight */
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAtMillis;
+
+    /**
+     * @param failureThreshold How many failures in a row open the breaker
+     * @param openMillis       How long the breaker stays open before letting a trial through
+     */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Asks whether a request may be made now. If the open period has just ended, this call is
+     * let through as the trial request.
+     *
+     * @param nowMillis The current time
+     * @return true if the request may be made
+     */
+    synchronized boolean allowRequest(long nowMillis) {
+        switch (mState) {
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                if (nowMillis - mOpenedAtMillis >= mOpenMillis) {
+                    mState = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+
+            default:
+                /* Only one trial at a time */
+                return false;
+        }
+    }
+
+    /**
+     * Reports that a request reached the server and got an answer.
+     */
+    synchronized void recordSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+    }
+
+    /**
+     * Reports that a request failed.
+     *
+     * @param nowMillis The current time
+     */
+    synchronized void recordFailure(long nowMillis) {
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mState = State.OPEN;
+            mOpenedAtMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Gives up the trial request without reporting how it went, for a request that was
+     * cancelled or never made. The next call to {@link #allowRequest(long)} makes the trial
+     * instead. Does nothing unless a trial is in flight.
+     */
+    synchronized void releaseTrial() {
+        if (mState == State.HALF_OPEN) {
+            /* The open period has already ended, so the next request is let through */
+            mState = State.OPEN;
+        }
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.HourlyForecastBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.CancellationToken;
+import com.example.android.sunshine.utilities.ForecastResult;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Syncs the 3-hour forecast of the preferred location into the hourly_weather table.
+ * <p>
+ * The forecast is inserted while it downloads, CHUNK_SIZE entries at a time, each chunk in a
+ * transaction of its own. Neither the response nor the decoded forecast is ever held in memory
+ * as a whole.
+ */
+public class HourlySyncTask {
+
+    private static final String TAG = HourlySyncTask.class.getSimpleName();
+
+    /* Two days' worth of entries, of the 40 or so in a forecast */
+    private static final int CHUNK_SIZE = 16;
+
+    /**
+     * Inserts each chunk of the forecast as soon as it is decoded, and keeps track of what it
+     * inserted.
+     */
+    private static final class ChunkWriter implements OpenWeatherJsonUtils.HourlyForecastHandler {
+
+        private final ContentResolver mContentResolver;
+
+        int rowsInserted;
+
+        /* Time of the earliest entry inserted */
+        long firstTime = Long.MAX_VALUE;
+
+        ChunkWriter(ContentResolver contentResolver) {
+            mContentResolver = contentResolver;
+        }
+
+        @Override
+        public void handleChunk(HourlyForecastBatch chunk) throws IOException {
+            /* A chunk decoded from what was buffered before a stop isn't inserted either */
+            CancellationToken cancellationToken = CancellationToken.current();
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCancelled();
+            }
+            rowsInserted += chunk.insert(mContentResolver);
+            for (int i = 0; i < chunk.size(); i++) {
+                firstTime = Math.min(firstTime, chunk.getTime(i));
+            }
+        }
+    }
+
+    /**
+     * Downloads the 3-hour forecast of the preferred location and stores it. Entries replace
+     * those stored for the same time, and entries older than the new forecast are deleted.
+     * Observers of {@link WeatherContract.HourlyWeatherEntry#CONTENT_URI} are notified once,
+     * after the last chunk is in.
+     * <p>
+     * If the download fails or the sync is stopped part of the way through, the chunks stored
+     * until then are kept, and no chunk is stored after a stop. Each entry is complete on its
+     * own, and replaced the stored entry for the same time, so they are still good to show until
+     * the next sync. Deleting them would leave nothing for those times.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     * @return The outcome of the sync. {@link SyncResult#RETRY} means the sync should be
+     * rescheduled.
+     */
+    public static SyncResult syncHourlyWeather(Context context) {
+        URL hourlyRequestUrl = NetworkUtils.getHourlyUrl(context);
+        if (hourlyRequestUrl == null) {
+            Log.v(TAG, "No API key for the 3-hour forecast, not syncing it");
+            return SyncResult.FAILED;
+        }
+
+        ContentResolver sunshineContentResolver = context.getContentResolver();
+        final ChunkWriter writer = new ChunkWriter(sunshineContentResolver);
+
+        try {
+            ForecastResult result = NetworkUtils.getResponseFromHttpUrl(hourlyRequestUrl,
+                    new NetworkUtils.ResponseHandler<ForecastResult>() {
+                        @Override
+                        public ForecastResult handleResponse(InputStream in) throws IOException {
+                            return OpenWeatherJsonUtils.streamHourlyForecast(in,
+                                    new HourlyForecastBatch(CHUNK_SIZE), writer);
+                        }
+                    });
+
+            switch (result.getStatus()) {
+                case OK:
+                    break;
+
+                case LOCATION_INVALID:
+                    Log.e(TAG, "No 3-hour forecast for the location (" + result + ")");
+                    return SyncResult.FAILED;
+
+                default:
+                    Log.e(TAG, "Unable to get the 3-hour forecast (" + result + ")");
+                    return SyncResult.RETRY;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to download the 3-hour forecast", e);
+            notifyIfInserted(sunshineContentResolver, writer);
+            return SyncResult.RETRY;
+        }
+
+        /* Like the daily sync, we don't count a forecast without any entries as a success */
+        if (writer.rowsInserted == 0) {
+            return SyncResult.FAILED;
+        }
+
+        /*
+         * What came before the new forecast has passed, or belonged to another location. If
+         * there was any, deleting it has already notified the observers.
+         */
+        int rowsDeleted = sunshineContentResolver.delete(
+                WeatherContract.HourlyWeatherEntry.CONTENT_URI,
+                WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " < ?",
+                new String[]{Long.toString(writer.firstTime)});
+
+        if (rowsDeleted == 0) {
+            notifyIfInserted(sunshineContentResolver, writer);
+        }
+        return SyncResult.SUCCESS;
+    }
+
+    private static void notifyIfInserted(ContentResolver contentResolver, ChunkWriter writer) {
+        if (writer.rowsInserted > 0) {
+            contentResolver.notifyChange(WeatherContract.HourlyWeatherEntry.CONTENT_URI, null);
+        }
+    }
+}
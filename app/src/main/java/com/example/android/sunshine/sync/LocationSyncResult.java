@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+/**
+ * The outcome of syncing the forecast of one saved location.
+ */
+public class LocationSyncResult {
+
+    /* The saved location */
+    public final String location;
+
+    public final SyncResult result;
+
+    /* The number of days of forecast written to the location_weather table */
+    public final int rowsInserted;
+
+    /* Why the sync failed, or null if it didn't */
+    public final Exception error;
+
+    /* How long the fetch, parse and write took, in milliseconds */
+    public final long elapsedMillis;
+
+    LocationSyncResult(String location, SyncResult result, int rowsInserted, Exception error,
+                       long elapsedMillis) {
+        this.location = location;
+        this.result = result;
+        this.rowsInserted = rowsInserted;
+        this.error = error;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationSyncResult{" + location + ": " + result
+                + ", rows=" + rowsInserted
+                + ", " + elapsedMillis + "ms"
+                + (error != null ? ", error=" + error : "")
+                + "}";
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.CancellationToken;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the forecasts of many saved locations at once. Each location's forecast is fetched,
+ * parsed and written to the location_weather table on its own, so one location failing doesn't
+ * stop the others. At most a fixed number of locations are synced at the same time, which
+ * keeps a long list of locations from opening dozens of connections to the weather server.
+ * <p>
+ * The user's preferred location is still synced by {@link SunshineSyncTask}, into the weather
+ * table.
+ */
+public final class MultiLocationSyncTask {
+
+    private static final String TAG = MultiLocationSyncTask.class.getSimpleName();
+
+    /*
+     * How many locations to sync at the same time by default. This matches the number of idle
+     * connections KeepAliveHttpTransport keeps, so every location can reuse a connection.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 5;
+
+    private MultiLocationSyncTask() {
+    }
+
+    /**
+     * Syncs the forecast of every location given, {@link #DEFAULT_MAX_CONCURRENCY} at a time.
+     *
+     * @see #syncLocations(Context, List, int)
+     */
+    public static List<LocationSyncResult> syncLocations(Context context, List<String> locations) {
+        return syncLocations(context, locations, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Syncs the forecast of every location given, blocking until all of them are done.
+     *
+     * @param context        Used to access the ContentResolver
+     * @param locations      The locations to sync
+     * @param maxConcurrency The most locations to sync at the same time
+     * @return The result of each location, in the same order as locations
+     */
+    public static List<LocationSyncResult> syncLocations(final Context context,
+                                                         List<String> locations,
+                                                         int maxConcurrency) {
+        List<LocationSyncResult> results = new ArrayList<>(locations.size());
+        if (locations.isEmpty()) {
+            return results;
+        }
+
+        int threadCount = Math.max(1, Math.min(maxConcurrency, locations.size()));
+        ExecutorService executor = new ThreadPoolExecutor(threadCount, threadCount,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+        /* Cancelling the caller's work cancels every location's sync too */
+        final CancellationToken cancellationToken = CancellationToken.current();
+
+        try {
+            List<Future<LocationSyncResult>> futures = new ArrayList<>(locations.size());
+            for (final String location : locations) {
+                futures.add(executor.submit(new Callable<LocationSyncResult>() {
+                    @Override
+                    public LocationSyncResult call() {
+                        CancellationToken previous = CancellationToken.bind(cancellationToken);
+                        try {
+                            return syncLocation(context, location);
+                        } finally {
+                            CancellationToken.bind(previous);
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    /* syncLocation catches everything it expects, this is a bug */
+                    results.add(new LocationSyncResult(locations.get(i), SyncResult.FAILED, 0,
+                            e, 0));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            for (int i = results.size(); i < locations.size(); i++) {
+                results.add(new LocationSyncResult(locations.get(i), SyncResult.RETRY, 0, e, 0));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return results;
+    }
+
+    /**
+     * Fetches, parses and stores the forecast of a single location.
+     */
+    static LocationSyncResult syncLocation(Context context, String location) {
+        long startMillis = SystemClock.elapsedRealtime();
+        try {
+            CancellationToken.throwIfCurrentCancelled();
+
+            URL weatherRequestUrl = NetworkUtils.buildUrlWithLocationQuery(location);
+            if (weatherRequestUrl == null) {
+                return new LocationSyncResult(location, SyncResult.FAILED, 0, null,
+                        SystemClock.elapsedRealtime() - startMillis);
+            }
+
+            ForecastBatch forecast = NetworkUtils.getResponseFromHttpUrl(context,
+                    weatherRequestUrl, false,
+                    new NetworkUtils.ResponseHandler<ForecastBatch>() {
+                        @Override
+                        public ForecastBatch handleResponse(InputStream in) throws IOException {
+                            return SunshineSyncTask.requireForecast(
+                                    OpenWeatherJsonUtils.getForecastFromStream(in));
+                        }
+                    });
+
+            /* Like the preferred location's, a forecast of days that have passed is no use */
+            if (!SunshineSyncTask.hasCurrentDays(forecast)) {
+                Log.e(TAG, "Every day of the forecast for " + location + " has passed");
+                return new LocationSyncResult(location, SyncResult.FAILED, 0, null,
+                        SystemClock.elapsedRealtime() - startMillis);
+            }
+
+            /* Replaces the location's previous forecast, in the same transaction */
+            int rowsInserted = forecast.insert(context.getContentResolver(), location);
+
+            return new LocationSyncResult(location, SyncResult.SUCCESS, rowsInserted, null,
+                    SystemClock.elapsedRealtime() - startMillis);
+
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "No forecast for " + location, e);
+            return new LocationSyncResult(location, SyncResult.FAILED, 0, e,
+                    SystemClock.elapsedRealtime() - startMillis);
+
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to sync " + location, e);
+            return new LocationSyncResult(location, SyncResult.RETRY, 0, e,
+                    SystemClock.elapsedRealtime() - startMillis);
+
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to sync " + location, e);
+            return new LocationSyncResult(location, SyncResult.FAILED, 0, e,
+                    SystemClock.elapsedRealtime() - startMillis);
+        }
+    }
+
+    /**
+     * @return true if any of the results asks for the sync to be tried again later
+     */
+    public static boolean needsRetry(List<LocationSyncResult> results) {
+        for (LocationSyncResult result : results) {
+            if (result.result == SyncResult.RETRY) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.util.Random;
+
+/**
+ * Decides how many times a failed request is tried again, and how long to wait before each
+ * try. The wait doubles after every failure (exponential backoff), up to a limit. Each wait is
+ * then picked at random from the upper half of that range (jitter), so that many devices that
+ * failed at the same moment don't all come back at the same moment too.
+ */
+class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    /**
+     * @param maxAttempts        The most times to try, counting the first try
+     * @param initialDelayMillis The longest wait before the second try
+     * @param maxDelayMillis     The longest wait before any try
+     */
+    RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, initialDelayMillis, maxDelayMillis, new Random());
+    }
+
+    RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        mMaxAttempts = maxAttempts;
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @param failedAttempts How many tries have failed so far
+     * @return true if another try should be made
+     */
+    boolean shouldRetry(int failedAttempts) {
+        return failedAttempts < mMaxAttempts;
+    }
+
+    /**
+     * Returns how long to wait before trying again.
+     *
+     * @param failedAttempts How many tries have failed so far, at least 1
+     * @return A wait between half of the backoff for this many failures and all of it
+     */
+    long getDelayMillis(int failedAttempts) {
+        long backoff = mInitialDelayMillis;
+        for (int i = 1; i < failedAttempts && backoff < mMaxDelayMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, mMaxDelayMillis);
+
+        long half = backoff / 2;
+        synchronized (mRandom) {
+            return half + (long) (mRandom.nextDouble() * (backoff - half));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls that do the same work. The first caller for a key runs the work;
+ * anyone else who asks for the same key while that work is in flight waits for it to finish and
+ * gets the same result, rather than running the work a second time.
+ * <p>
+ * Once the work finishes, the next call for the key runs it again. Nothing is cached.
+ * <p>
+ * Work that was stopped before it was done says so by throwing a {@link CancellationException}.
+ * Only the caller that ran it was stopped, so that outcome isn't shared: the callers that joined
+ * the run go again, and one of them runs the work in its place.
+ *
+ * @param <K> The type of key identifying the work
+ * @param <V> The type of result the work produces
+ */
+class SingleFlight<K, V> {
+
+    private final Map<K, FutureTask<V>> mInFlight = new HashMap<>();
+
+    /**
+     * Runs the work for a key, or joins the run that is already in flight for it.
+     *
+     * @param key  Identifies the work. Calls with equal keys are coalesced.
+     * @param work The work to run if nothing is in flight for the key
+     * @return The result of the run this call ran or joined
+     * @throws ExecutionException   If the work threw, wrapping what it threw. A
+     *                              CancellationException is only thrown this way to the caller
+     *                              whose run was stopped.
+     * @throws InterruptedException If interrupted while waiting for another caller's run
+     */
+    V execute(K key, Callable<V> work) throws ExecutionException, InterruptedException {
+        while (true) {
+            FutureTask<V> task;
+            boolean runHere = false;
+
+            synchronized (mInFlight) {
+                task = mInFlight.get(key);
+                if (task == null) {
+                    task = new FutureTask<>(work);
+                    mInFlight.put(key, task);
+                    runHere = true;
+                }
+            }
+
+            if (runHere) {
+                try {
+                    task.run();
+                } finally {
+                    synchronized (mInFlight) {
+                        mInFlight.remove(key);
+                    }
+                }
+                return task.get();
+            }
+
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof CancellationException)) {
+                    throw e;
+                }
+                /* The caller whose run this was got stopped, this one wasn't */
+            }
+        }
+    }
+
+    /**
+     * @return true if work for the key is in flight right now
+     */
+    boolean isInFlight(K key) {
+        synchronized (mInFlight) {
+            return mInFlight.containsKey(key);
+        }
+    }
+}
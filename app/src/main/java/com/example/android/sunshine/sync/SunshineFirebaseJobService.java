@@ -16,17 +16,21 @@
 package com.example.android.sunshine.sync;
 
 import android.content.Context;
-import android.os.AsyncTask;
+
+import com.example.android.sunshine.data.SunshinePreferences;
 
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
 import com.firebase.jobdispatcher.RetryStrategy;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private SyncExecutor.Task mSyncTask;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -34,35 +38,72 @@ public class SunshineFirebaseJobService extends JobService {
      *
      * This is called by the Job Dispatcher to tell us we should start our job. Keep in mind this
      * method is run on the application's main thread, so we need to offload work to a background
-     * thread.
+     * thread. We hand it to {@link SyncExecutor}, which can stop the sync in the middle of a
+     * download if the job is stopped.
      *
      * @return whether there is more work remaining.
      */
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
+        final Context context = getApplicationContext();
+        mSyncTask = SyncExecutor.execute(new Callable<SyncResult>() {
             @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
+            public SyncResult call() {
+                SyncResult result = SunshineSyncTask.syncWeather(context);
+
+                /* Keep the forecasts of the user's saved locations up to date as well */
+                List<String> savedLocations = SunshinePreferences.getSavedLocations(context);
+                if (!savedLocations.isEmpty() && !SyncExecutor.isCancelled()) {
+                    List<LocationSyncResult> locationResults =
+                            MultiLocationSyncTask.syncLocations(context, savedLocations);
+                    if (result != SyncResult.RETRY
+                            && MultiLocationSyncTask.needsRetry(locationResults)) {
+                        result = SyncResult.RETRY;
+                    }
+                }
+
+                /*
+                 * The 3-hour forecast is extra detail on top of the daily one, so whether it
+                 * needs another try doesn't decide whether the job is rescheduled.
+                 */
+                if (!SyncExecutor.isCancelled()) {
+                    HourlySyncTask.syncHourlyWeather(context);
+                }
+                return result;
             }
+        }, new SyncExecutor.Callback() {
 
+            /*
+             * If the sync failed for a reason that might go away (the weather server being down,
+             * for example), ask the dispatcher to reschedule it using the job's retry strategy,
+             * rather than going without new weather until the next periodic sync.
+             *
+             * Otherwise, how much the sync changed decides when the next one runs. Replacing the
+             * job while it is being retried would start its backoff over, so that waits for a
+             * sync that gets through.
+             */
             @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+            public void onSyncFinished(SyncResult result) {
+                mSyncTask = null;
+                boolean needsRetry = result == SyncResult.RETRY;
+                jobFinished(jobParameters, needsRetry);
+                if (!needsRetry) {
+                    SunshineSyncUtils.scheduleFirebaseJobDispatcherSync(context);
+                }
             }
-        };
+        });
 
-        mFetchWeatherTask.execute();
         return true;
     }
 
     /**
      * Called when the scheduling engine has decided to interrupt the execution of a running job,
      * most likely because the runtime constraints associated with the job are no longer satisfied.
+     * <p>
+     * The sync is stopped right away, dropping whatever download is in progress, so it doesn't
+     * keep using the network once the job no longer holds a wakelock for it. jobFinished is
+     * never called for a stopped job.
      *
      * @return whether the job should be retried
      * @see Job.Builder#setRetryStrategy(RetryStrategy)
@@ -70,9 +111,12 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        if (mSyncTask == null) {
+            /* The sync is done, and has already told the dispatcher how it went */
+            return false;
         }
-        return true;
+        boolean needsRetry = mSyncTask.cancel();
+        mSyncTask = null;
+        return needsRetry;
     }
-}
\ No newline at end of file
+}
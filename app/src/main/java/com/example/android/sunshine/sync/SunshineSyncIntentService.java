@@ -18,18 +18,30 @@ package com.example.android.sunshine.sync;
 import android.app.IntentService;
 import android.content.Intent;
 
+import com.example.android.sunshine.data.SunshinePreferences;
+
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
  * a service on a separate handler thread.
  */
 public class SunshineSyncIntentService extends IntentService {
 
+    /* Syncs the forecasts of the saved locations instead of the preferred location */
+    static final String ACTION_SYNC_SAVED_LOCATIONS =
+            "com.example.android.sunshine.sync.action.SYNC_SAVED_LOCATIONS";
+
     public SunshineSyncIntentService() {
         super("SunshineSyncIntentService");
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        if (intent != null && ACTION_SYNC_SAVED_LOCATIONS.equals(intent.getAction())) {
+            MultiLocationSyncTask.syncLocations(this,
+                    SunshinePreferences.getSavedLocations(this));
+        } else {
+            SunshineSyncTask.syncWeather(this);
+            HourlySyncTask.syncHourlyWeather(this);
+        }
     }
 }
\ No newline at end of file
@@ -16,70 +16,401 @@
 package com.example.android.sunshine.sync;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HttpValidatorStore;
+import com.example.android.sunshine.data.MergeStats;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.SyncTelemetryStore;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.SyncTelemetryEntry;
+import com.example.android.sunshine.utilities.ByteArrayPool;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.ForecastResult;
+import com.example.android.sunshine.utilities.HttpStatusException;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.PooledBufferedInputStream;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.TransferStats;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /*
+     * Syncs for the same location that arrive while one is already running (from the job
+     * service, the intent service and a preference change all at once, for example) share that
+     * run's result instead of each running a full fetch, parse and write of their own.
+     */
+    private static final SingleFlight<String, SyncResult> sInFlightSyncs = new SingleFlight<>();
+
+    /*
+     * Syncs for different locations may still run at the same time, but only one of them may
+     * write to the weather table at a time. Otherwise, their deletes and inserts could
+     * interleave and leave a mix of both forecasts in the table.
+     */
+    private static final Object sWriteLock = new Object();
+
+    /*
+     * A failed download is tried up to 3 times within one sync, waiting about 1 and then 2
+     * seconds in between. That rides out brief blips in connectivity. Longer outages are left
+     * to the job dispatcher, which reschedules the sync with its own backoff.
+     */
+    private static volatile RetryPolicy sRetryPolicy = new RetryPolicy(3, 1000, 4000);
+
+    /* After 5 failed downloads in a row, leave the weather server alone for 15 minutes */
+    private static volatile CircuitBreaker sCircuitBreaker =
+            new CircuitBreaker(5, 15 * DateUtils.MINUTE_IN_MILLIS);
+
+    /*
+     * On metered or slow networks, we only download this many days of forecast, starting today.
+     * These are the days that change the most between syncs and that the user looks at the
+     * most. The rest of the days already in the weather table are kept, and are brought up to
+     * date by the next sync on an unmetered network, or by the next full download, see
+     * holdsFullHorizon.
+     */
+    private static final int NEAR_FORECAST_DAYS = 3;
+
+    /*
+     * Even on metered networks, the whole horizon is downloaded again once the last full
+     * download is this old, so that the days further out don't go stale on a device that never
+     * sees an unmetered network.
+     */
+    private static final long FULL_FORECAST_MAX_AGE_MILLIS = DateUtils.DAY_IN_MILLIS;
+
+    /* Overrides NetworkUtils.isNetworkConstrained in tests, null otherwise */
+    private static volatile Boolean sNetworkConstrained;
+
+    /*
+     * Retention policy of the weather table: days are kept until this many days after they
+     * have passed, whether or not the latest forecast still covers them. Sunshine only ever
+     * shows today onwards, so there's no point in keeping any.
+     */
+    private static final int RETAINED_PAST_DAYS = 0;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /* The outcome a request that succeeded is recorded under, see SyncTelemetryEntry */
+    private static final String OUTCOME_REQUEST_OK = "OK";
+
+    /**
+     * A forecast that was downloaded or read from the response cache, along with everything that
+     * is recorded once it has been written to the weather table.
+     */
+    private static final class DownloadedForecast {
+
+        final ForecastBatch forecast;
+
+        /* Coordinates of the forecast's city, for SunshinePreferences.setLocationDetails */
+        final double latitude;
+        final double longitude;
+
+        /* Identifies the response the forecast was parsed from, see hashPayload */
+        final String contentHash;
+
+        DownloadedForecast(ForecastResult result, String contentHash) throws IOException {
+            this.forecast = requireForecast(result);
+            this.latitude = result.getLatitude();
+            this.longitude = result.getLongitude();
+            this.contentHash = contentHash;
+        }
+    }
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * If a sync for the same location is already in progress, this method waits for it to finish
+     * and returns its result rather than starting another one. If that sync is stopped instead,
+     * this one goes ahead with its own.
+     * <p>
+     * How long each stage of the sync takes is recorded by a {@link SyncStageRecorder}.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return The outcome of the sync. {@link SyncResult#RETRY} means the sync should be
+     * rescheduled.
      */
-    synchronized public static void syncWeather(Context context) {
+    public static SyncResult syncWeather(final Context context) {
+        final SyncStageRecorder stages = new SyncStageRecorder();
+        stages.begin(SyncTelemetryEntry.STAGE_BUILD_URL);
+
+        /*
+         * The getUrl method will return the URL that we need to get the forecast JSON for the
+         * weather. It will decide whether to create a URL based off of the latitude and
+         * longitude or off of a simple location as a String.
+         */
+        final URL fullForecastUrl = NetworkUtils.getUrl(context);
+        final URL weatherRequestUrl = fullForecastUrl != null
+                && isNetworkConstrained(context)
+                && holdsFullHorizon(context, fullForecastUrl.toString())
+                ? NetworkUtils.getUrl(context, NEAR_FORECAST_DAYS)
+                : fullForecastUrl;
+        stages.end();
+        if (weatherRequestUrl == null) {
+            return SyncResult.FAILED;
+        }
 
         try {
+            return sInFlightSyncs.execute(weatherRequestUrl.toString(),
+                    new Callable<SyncResult>() {
+                        @Override
+                        public SyncResult call() {
+                            SyncResult result;
+                            try {
+                                result = performSync(context, stages, weatherRequestUrl,
+                                        fullForecastUrl.toString());
+                            } finally {
+                                stages.record(context);
+                            }
+                            /* Anyone who joined this sync wasn't stopped, and syncs again */
+                            if (result == SyncResult.RETRY && SyncExecutor.isCancelled()) {
+                                throw new CancellationException();
+                            }
+                            return result;
+                        }
+                    });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                return SyncResult.RETRY;
+            }
+            /* performSync catches everything it expects, this is a bug */
+            Log.e(TAG, "Unable to sync", e);
+            return SyncResult.FAILED;
+        } catch (InterruptedException e) {
+            /* Stopped while waiting for the other sync, which didn't fail */
+            Thread.currentThread().interrupt();
+            return SyncResult.RETRY;
+        }
+    }
+
+    private static boolean isNetworkConstrained(Context context) {
+        Boolean networkConstrained = sNetworkConstrained;
+        return networkConstrained != null
+                ? networkConstrained
+                : NetworkUtils.isNetworkConstrained(context);
+    }
+
+    /**
+     * Tells whether the weather table holds the whole horizon of a location's forecast, fresh
+     * enough that a sync on a constrained network can ask for the nearest days only. Otherwise,
+     * on the first sync, after a location change, or once the days further out have aged, a
+     * forecast of the nearest days would leave the table short of the rest.
+     *
+     * @param location The URL of the location's full forecast
+     */
+    private static boolean holdsFullHorizon(Context context, String location) {
+        if (!location.equals(HttpValidatorStore.getIngestedLocation(context))) {
+            return false;
+        }
+
+        long fullForecastAgeMillis =
+                System.currentTimeMillis() - HttpValidatorStore.getFullForecastTime(context);
+        if (fullForecastAgeMillis < 0 || fullForecastAgeMillis >= FULL_FORECAST_MAX_AGE_MILLIS) {
+            return false;
+        }
+
+        long lastHorizonDate = SunshineDateUtils.getNormalizedUtcDateForToday()
+                + (NetworkUtils.getForecastDays() - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+        return getLastStoredDate(context) >= lastHorizonDate;
+    }
+
+    /**
+     * @return The normalized date of the last day in the weather table, or Long.MIN_VALUE if
+     * the table is empty
+     */
+    private static long getLastStoredDate(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " DESC");
+        if (cursor == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : Long.MIN_VALUE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Makes syncs treat the network as constrained or not, whatever it really is.
+     *
+     * @param networkConstrained Whether the network is constrained, or null to go back to
+     *                           asking {@link NetworkUtils#isNetworkConstrained(Context)}
+     */
+    @VisibleForTesting
+    static void setNetworkConstrained(Boolean networkConstrained) {
+        sNetworkConstrained = networkConstrained;
+    }
+
+    /**
+     * Does the actual work of {@link #syncWeather(Context)} for one location. How it turned out
+     * and how long it took are recorded in SyncTelemetryStore, with failures classified by
+     * {@link SyncError}.
+     *
+     * @param context           Used to access utility methods and the ContentResolver
+     * @param stages            Times each stage of the sync
+     * @param weatherRequestUrl The URL of the forecast to sync
+     * @param location          The URL of the full forecast for the same location, which
+     *                          identifies the location no matter how many days are requested
+     * @return The outcome of the sync
+     */
+    private static SyncResult performSync(Context context, SyncStageRecorder stages,
+                                          URL weatherRequestUrl, String location) {
+        long startMillis = SystemClock.elapsedRealtime();
+
+        try {
+            String weatherRequestUrlString = weatherRequestUrl.toString();
+
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * If the weather table already holds the forecast for this exact URL, we can ask the
+             * server to only send the forecast if it has changed since we last downloaded it.
+             * After a location change, the stored forecast is for a different URL, so we need the
+             * new forecast no matter what.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            boolean haveForecastForUrl = weatherRequestUrlString
+                    .equals(HttpValidatorStore.getIngestedUrl(context));
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            DownloadedForecast weatherValues = null;
+            long fullForecastTimeMillis = 0;
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * After a location change, we may have downloaded the forecast for the new location
+             * recently (the user flipping back and forth between two locations, for example). If
+             * so, we can rebuild the weather table from the cached response without going to
+             * the network at all.
+             *
+             * Only after a location change, though. The URL also changes with the number of days
+             * asked for, and a cached 14 day forecast can be older than the 3 day forecast the
+             * table got on a metered network since. Merging it would write the older days back.
+             */
+            ForecastResponseCache responseCache = ForecastResponseCache.getInstance(context);
+            boolean locationChanged =
+                    !location.equals(HttpValidatorStore.getIngestedLocation(context));
+            if (locationChanged) {
+                weatherValues = readCachedWeatherValues(context, stages, responseCache,
+                        weatherRequestUrlString);
+            }
+
+            if (weatherValues == null) {
+                if (!sCircuitBreaker.allowRequest(SystemClock.elapsedRealtime())) {
+                    Log.w(TAG, "Weather server has been failing, not syncing for now");
+                    return recordSync(context, startMillis, SyncResult.RETRY,
+                            SyncError.CIRCUIT_OPEN, null);
+                }
+                weatherValues = fetchWeatherValuesWithRetries(context, stages, responseCache,
+                        weatherRequestUrl, haveForecastForUrl);
+
+                /*
+                 * Whether it was sent or the server told us it hasn't changed, the table now
+                 * holds the whole horizon as the server has it right now. A cached forecast may
+                 * not be that fresh, so it doesn't count.
+                 */
+                if (weatherRequestUrlString.equals(location)) {
+                    fullForecastTimeMillis = System.currentTimeMillis();
+                }
+            }
+            Log.v(TAG, "Response cache: " + responseCache);
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * fetchWeatherValues returns null if the forecast was not modified, or if the server
+             * sent exactly the response we last stored. In that case, we have no reason to write
+             * anything, nor to notify anyone.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
+            if (weatherValues == null) {
+                /* The forecast hasn't changed, but the days in it may have passed since */
+                stages.begin(SyncTelemetryEntry.STAGE_PERSIST);
+                synchronized (sWriteLock) {
+                    ageOutPastDays(context.getContentResolver());
+                }
+                stages.end();
+                if (fullForecastTimeMillis != 0) {
+                    HttpValidatorStore.setFullForecastTime(context, fullForecastTimeMillis);
+                }
+                SunshinePreferences.saveSyncChange(context, 0f);
+                return recordSync(context, startMillis, SyncResult.NOT_MODIFIED, null, null);
+            }
+
+            /*
+             * Days that have passed are aged out of the table as the forecast is merged, so a
+             * forecast made only of such days (a canned or badly out of date response) would
+             * leave the table empty. Keep the forecast we have instead, and treat the response
+             * as unusable.
+             */
+            if (!hasCurrentDays(weatherValues.forecast)) {
+                Log.e(TAG, "Every day of the forecast for " + weatherRequestUrl + " has passed");
+                return recordSync(context, startMillis, SyncResult.FAILED, SyncError.PARSE,
+                        null);
+            }
+
+            /* We also have no reason to insert fresh data if there isn't any to insert. */
+            if (weatherValues.forecast.size() != 0) {
                 /* Get a handle on the ContentResolver to delete and insert data */
                 ContentResolver sunshineContentResolver = context.getContentResolver();
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+                stages.begin(SyncTelemetryEntry.STAGE_PERSIST);
+                synchronized (sWriteLock) {
+                    /*
+                     * Only the days that are new or have changed are written, and the days
+                     * that have passed are aged out, in one transaction with one change
+                     * notification. If the table already holds this location's forecast, any
+                     * days further out that we didn't ask for this time are kept until the
+                     * retention policy ages them out. Otherwise, none of the previous
+                     * location's days apply, and those the new forecast doesn't cover go.
+                     */
+                    boolean sameLocation =
+                            location.equals(HttpValidatorStore.getIngestedLocation(context));
+                    MergeStats mergeStats = weatherValues.forecast.merge(
+                            sunshineContentResolver, getOldestRetainedDate(), !sameLocation);
+                    Log.v(TAG, "Merged forecast: " + mergeStats);
+                    SunshinePreferences.saveSyncRowsTouched(context,
+                            mergeStats.getRowsTouched(), weatherValues.forecast.size());
+                    SunshinePreferences.saveSyncChange(context,
+                            (float) mergeStats.getRowsTouched() / weatherValues.forecast.size());
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+                    /* The parser leaves it to us to store the coordinates that go with it */
+                    SunshinePreferences.setLocationDetails(context, weatherValues.latitude,
+                            weatherValues.longitude);
+
+                    /* Remember which forecast the table now holds for conditional requests */
+                    HttpValidatorStore.setIngestedUrl(context, weatherRequestUrlString, location,
+                            weatherValues.contentHash);
+                    if (fullForecastTimeMillis != 0) {
+                        HttpValidatorStore.setFullForecastTime(context, fullForecastTimeMillis);
+                    }
+                }
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
                  */
+                stages.begin(SyncTelemetryEntry.STAGE_NOTIFY);
                 boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
 
                 /*
@@ -103,14 +434,402 @@ public class SunshineSyncTask {
                 if (notificationsEnabled && oneDayPassedSinceLastNotification) {
                     NotificationUtils.notifyUserOfNewWeather(context);
                 }
+                stages.end();
+
+                /* If the code reaches this point, we have successfully performed our sync */
+                return recordSync(context, startMillis, SyncResult.SUCCESS, null, null);
+            }
+
+            /* The server sent a forecast without a single day in it */
+            Log.e(TAG, "Empty forecast for " + weatherRequestUrl);
+            return recordSync(context, startMillis, SyncResult.FAILED, SyncError.PARSE, null);
+
+        } catch (FileNotFoundException e) {
+            /* The server doesn't know the location, asking again won't change its mind */
+            Log.e(TAG, "No forecast for " + weatherRequestUrl, e);
+            return recordSync(context, startMillis, SyncResult.FAILED, SyncError.classify(e), e);
 
-            /* If the code reaches this point, we have successfully performed our sync */
+        } catch (IOException e) {
+            /* The server couldn't be reached, or sent something we couldn't use */
+            Log.e(TAG, "Unable to download forecast", e);
+            return recordSync(context, startMillis, SyncResult.RETRY, SyncError.classify(e), e);
+
+        } catch (RuntimeException e) {
+            /* Most likely the database, which retrying won't fix */
+            Log.e(TAG, "Unable to sync", e);
+            return recordSync(context, startMillis, SyncResult.FAILED, SyncError.classify(e), e);
+        }
+    }
+
+    /**
+     * Records the outcome of a sync started at startMillis, and returns its result.
+     *
+     * @param error Why the sync failed, or null if it didn't
+     * @param cause The exception behind the failure, may be null
+     */
+    private static SyncResult recordSync(Context context, long startMillis, SyncResult result,
+                                         SyncError error, Throwable cause) {
+        SyncTelemetryStore.record(context, SyncTelemetryEntry.SCOPE_SYNC,
+                error != null ? error.name() : result.name(),
+                SystemClock.elapsedRealtime() - startMillis,
+                cause != null ? cause.toString() : null);
+        return result;
+    }
+
+    /**
+     * Calls {@link #fetchWeatherValues} until it succeeds, following sRetryPolicy. Every attempt
+     * is reported to sCircuitBreaker, and no more attempts are made once the breaker opens. A
+     * timeout is a failure like any other. Only a sync that was cancelled stops without
+     * retrying or reporting anything, as its last attempt tells us nothing about the server.
+     *
+     * @throws IOException What the last attempt threw, if none succeeded
+     */
+    private static DownloadedForecast fetchWeatherValuesWithRetries(
+            Context context, SyncStageRecorder stages, ForecastResponseCache responseCache,
+            URL weatherRequestUrl, boolean conditional) throws IOException {
+        RetryPolicy retryPolicy = sRetryPolicy;
+        CircuitBreaker circuitBreaker = sCircuitBreaker;
 
+        try {
+            int failedAttempts = 0;
+            while (true) {
+                long attemptStartMillis = SystemClock.elapsedRealtime();
+                try {
+                    DownloadedForecast weatherValues = fetchWeatherValues(context, stages,
+                            responseCache, weatherRequestUrl, conditional);
+                    circuitBreaker.recordSuccess();
+                    recordRequest(context, attemptStartMillis, null);
+                    return weatherValues;
+
+                } catch (FileNotFoundException e) {
+                    /* The server is up, it just doesn't know the location */
+                    circuitBreaker.recordSuccess();
+                    recordRequest(context, attemptStartMillis, e);
+                    throw e;
+
+                } catch (IOException e) {
+                    recordRequest(context, attemptStartMillis, e);
+                    if (SyncExecutor.isCancelled()) {
+                        /* We were asked to stop */
+                        throw e;
+                    }
+                    failedAttempts++;
+                    circuitBreaker.recordFailure(SystemClock.elapsedRealtime());
+
+                    if (!retryPolicy.shouldRetry(failedAttempts)) {
+                        throw e;
+                    }
+                    long delayMillis = retryPolicy.getDelayMillis(failedAttempts);
+                    Log.w(TAG, "Attempt " + failedAttempts + " failed, retrying in "
+                            + delayMillis + "ms", e);
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException interrupted) {
+                        /* Stopped while waiting, which isn't what the last attempt failed of */
+                        Thread.currentThread().interrupt();
+                        InterruptedIOException cancelled = new InterruptedIOException();
+                        cancelled.initCause(e);
+                        throw cancelled;
+                    }
+
+                    if (!circuitBreaker.allowRequest(SystemClock.elapsedRealtime())) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            /*
+             * If the breaker let this sync make its trial request, and the sync stopped before
+             * the trial got an answer, the next sync gets to make the trial instead. Otherwise
+             * the breaker would wait for the answer forever.
+             */
+            circuitBreaker.releaseTrial();
+        }
+    }
+
+    /**
+     * Records the outcome of one attempt at downloading the forecast, started at startMillis.
+     *
+     * @param failure What the attempt threw, or null if it succeeded
+     */
+    private static void recordRequest(Context context, long startMillis, IOException failure) {
+        SyncTelemetryStore.record(context, SyncTelemetryEntry.SCOPE_REQUEST,
+                failure != null ? SyncError.classify(failure).name() : OUTCOME_REQUEST_OK,
+                SystemClock.elapsedRealtime() - startMillis,
+                failure != null ? failure.toString() : null);
+    }
+
+    /**
+     * Replaces the retry policy and circuit breaker used by every sync from now on.
+     */
+    @VisibleForTesting
+    static void setRetryPolicy(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        sRetryPolicy = retryPolicy;
+        sCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Parses the forecast cached for a URL, if the cache has a fresh copy.
+     *
+     * @return The parsed forecast, or null if nothing usable was cached
+     */
+    private static DownloadedForecast readCachedWeatherValues(Context context,
+                                                              SyncStageRecorder stages,
+                                                              ForecastResponseCache responseCache,
+                                                              String url) {
+        InputStream cached = responseCache.get(url);
+        if (cached == null) {
+            return null;
+        }
+
+        try {
+            return readWeatherValues(context, stages, new PooledBufferedInputStream(cached), url,
+                    null);
+        } catch (IOException e) {
+            /* A damaged cache entry isn't worth failing the sync over, use the network */
+            Log.w(TAG, "Unable to read cached forecast", e);
+            return null;
+        } finally {
+            stages.end();
+            try {
+                cached.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Uses the URL to retrieve the JSON, and parses it unless it is exactly the response we last
+     * stored. Every response that parses successfully is also copied into the response cache.
+     *
+     * @param conditional Whether the weather table already holds the forecast for this URL
+     * @return The parsed forecast, or null if the server told us the forecast hasn't changed or
+     * sent the same response as last time (in which case nothing was parsed, unless the
+     * response cache couldn't be written, see readWeatherValues)
+     * @throws FileNotFoundException If the server doesn't know the location
+     * @throws IOException           If the forecast couldn't be downloaded, or the server
+     *                               reported any other error
+     */
+    private static DownloadedForecast fetchWeatherValues(final Context context,
+                                                         final SyncStageRecorder stages,
+                                                         final ForecastResponseCache responseCache,
+                                                         URL weatherRequestUrl,
+                                                         boolean conditional) throws IOException {
+        final String weatherRequestUrlString = weatherRequestUrl.toString();
+
+        TransferStats transferStats = new TransferStats();
+        DownloadedForecast weatherValues;
+        stages.begin(SyncTelemetryEntry.STAGE_CONNECT);
+        try {
+            weatherValues = NetworkUtils.getResponseFromHttpUrl(context,
+                    weatherRequestUrl,
+                    conditional,
+                    transferStats,
+                    new NetworkUtils.ResponseHandler<DownloadedForecast>() {
+                        @Override
+                        public DownloadedForecast handleResponse(InputStream in)
+                                throws IOException {
+                            return readWeatherValues(context, stages, in, weatherRequestUrlString,
+                                    responseCache.edit(weatherRequestUrlString));
+                        }
+                    });
+        } finally {
+            /* Whichever stage the request got to, the wait before a retry isn't part of it */
+            stages.end();
+        }
+
+        /* Keep track of how many bytes compression saved us, if anything was downloaded */
+        if (transferStats.compressedBytes > 0) {
+            SunshinePreferences.saveSyncTransferSize(context,
+                    transferStats.compressedBytes,
+                    transferStats.uncompressedBytes);
+            Log.v(TAG, "Downloaded forecast: " + transferStats);
+        }
+
+        return weatherValues;
+    }
+
+    /**
+     * Reads a response and parses it, unless it is exactly the response the weather table was
+     * last filled from.
+     * <p>
+     * With a cache writer, the response is first downloaded into the cache entry and hashed on
+     * the way, then parsed back from the entry on disk only if the hash doesn't match. Either
+     * way, the response is never held in memory as a whole. Without one, there is nowhere to
+     * read the response back from, so it is hashed as it is parsed, and a match only saves the
+     * write.
+     * <p>
+     * Time spent reading the response is timed as {@link SyncTelemetryEntry#STAGE_DOWNLOAD},
+     * and the parsing as {@link SyncTelemetryEntry#STAGE_DECODE}, which is still running when
+     * this returns.
+     *
+     * @param url         The forecast URL the response is for
+     * @param cacheWriter If not null, the response is copied into it, and committed if it holds
+     *                    a forecast
+     * @return The parsed forecast, or null if it is the one already stored
+     */
+    private static DownloadedForecast readWeatherValues(Context context,
+                                                        SyncStageRecorder stages, InputStream in,
+                                                        String url,
+                                                        ForecastResponseCache.Writer cacheWriter)
+            throws IOException {
+        if (cacheWriter == null) {
+            return parseWeatherValues(context, stages, in, url);
+        }
+
+        try {
+            stages.begin(SyncTelemetryEntry.STAGE_DOWNLOAD);
+            MessageDigest digest = newPayloadDigest(url);
+            drain(new DigestInputStream(cacheWriter.tee(in), digest));
+
+            String contentHash = toHex(digest.digest());
+            if (contentHash.equals(HttpValidatorStore.getIngestedHash(context))) {
+                /* Only a forecast's hash is ever stored, so this is one too */
+                cacheWriter.commit();
+                Log.v(TAG, "Forecast is unchanged, skipping it");
+                return null;
             }
 
-        } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            stages.begin(SyncTelemetryEntry.STAGE_DECODE);
+            ForecastResult result;
+            InputStream downloaded = new PooledBufferedInputStream(cacheWriter.openWritten());
+            try {
+                result = OpenWeatherJsonUtils.getForecastFromStream(downloaded);
+            } finally {
+                downloaded.close();
+            }
+            if (result.getStatus() == ForecastResult.Status.OK) {
+                cacheWriter.commit();
+            }
+            return new DownloadedForecast(result, contentHash);
+        } finally {
+            cacheWriter.abort();
+        }
+    }
+
+    /**
+     * Parses a response, hashing it as it is read. If the hash matches that of the response the
+     * weather table was last filled from, the forecast is dropped before anything is written.
+     */
+    private static DownloadedForecast parseWeatherValues(Context context,
+                                                         SyncStageRecorder stages,
+                                                         InputStream in, String url)
+            throws IOException {
+        stages.begin(SyncTelemetryEntry.STAGE_DECODE);
+        MessageDigest digest = newPayloadDigest(url);
+        InputStream payload = new DigestInputStream(
+                stages.timeReads(in, SyncTelemetryEntry.STAGE_DOWNLOAD), digest);
+
+        ForecastResult result = OpenWeatherJsonUtils.getForecastFromStream(payload);
+
+        /* The parser stops at the end of the JSON, the hash needs the rest */
+        drain(payload);
+
+        String contentHash = toHex(digest.digest());
+        if (contentHash.equals(HttpValidatorStore.getIngestedHash(context))) {
+            Log.v(TAG, "Forecast is unchanged, skipping it");
+            return null;
+        }
+        return new DownloadedForecast(result, contentHash);
+    }
+
+    /**
+     * Returns a digest to hash a response with, which has already been fed the response's URL.
+     * The dates stored in the weather table come from the response itself, so the same response
+     * for the same URL always stores the same rows.
+     */
+    private static MessageDigest newPayloadDigest(String url) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Android device has SHA-1 */
+            throw new IllegalStateException(e);
+        }
+        digest.update(url.getBytes(Charset.forName("UTF-8")));
+        return digest;
+    }
+
+    /**
+     * Reads what's left of a stream, without keeping any of it.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = ByteArrayPool.acquire();
+        try {
+            while (in.read(buffer) != -1) {
+                /* Only the reading matters */
+            }
+        } finally {
+            ByteArrayPool.release(buffer);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Applies the weather table's retention policy, deleting the days that passed more than
+     * RETAINED_PAST_DAYS ago. Must be called holding sWriteLock.
+     */
+    private static void ageOutPastDays(ContentResolver contentResolver) {
+        contentResolver.delete(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(getOldestRetainedDate())});
+    }
+
+    /**
+     * @return true if the forecast has at least one day the retention policy keeps, or is empty
+     */
+    static boolean hasCurrentDays(ForecastBatch forecast) {
+        if (forecast.size() == 0) {
+            return true;
+        }
+        long oldestRetainedDate = getOldestRetainedDate();
+        for (int day = 0; day < forecast.size(); day++) {
+            if (forecast.getDate(day) >= oldestRetainedDate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The normalized date of the oldest day the retention policy keeps
+     */
+    private static long getOldestRetainedDate() {
+        return SunshineDateUtils.getNormalizedUtcDateForToday()
+                - RETAINED_PAST_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * Turns an error the server sent in place of a forecast into the exception the sync handles
+     * it with. Besides choosing between giving up and retrying, this keeps an error from being
+     * mistaken for a "304 Not Modified", which is what null means to our callers.
+     *
+     * @throws FileNotFoundException If the server doesn't know the location, so there is no
+     *                               point in asking again
+     * @throws HttpStatusException   If the server failed in any other way
+     */
+    static ForecastBatch requireForecast(ForecastResult result) throws IOException {
+        switch (result.getStatus()) {
+            case OK:
+                return result.getForecast();
+
+            case LOCATION_INVALID:
+                throw new FileNotFoundException("The weather server doesn't know the location ("
+                        + result.getMessageCode() + ")");
+
+            default:
+                throw new HttpStatusException(result.getMessageCode(),
+                        "The weather server responded with an error code ("
+                                + result.getMessageCode() + ")");
         }
     }
-}
\ No newline at end of file
+}
@@ -20,7 +20,9 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
@@ -28,31 +30,45 @@ import com.firebase.jobdispatcher.FirebaseJobDispatcher;
 import com.firebase.jobdispatcher.GooglePlayDriver;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.RetryStrategy;
 import com.firebase.jobdispatcher.Trigger;
 
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncUtils {
 
     /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
+     * Decides how long to wait between syncs. Use TimeUnit for convenience, rather than writing
+     * out a bunch of multiplication ourselves and risk making a silly mistake. We never sync more
+     * often than every 3 hours, and syncs that keep finding nothing new back off to every 12
+     * hours. Once nobody has looked at the forecast for a day, we only sync once a day.
      */
-    private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+    private static final SyncSchedulePolicy SCHEDULE_POLICY = new SyncSchedulePolicy(
+            TimeUnit.HOURS.toMillis(3),
+            TimeUnit.HOURS.toMillis(12),
+            TimeUnit.HOURS.toMillis(24),
+            TimeUnit.HOURS.toMillis(24));
+
+    private static final String TAG = SunshineSyncUtils.class.getSimpleName();
 
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
     /**
-     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
+     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher, replacing
+     * the one already scheduled. How soon the next sync runs depends on how much the last few
+     * syncs changed and on when the user last looked at the forecast, see
+     * {@link SyncSchedulePolicy}, so this is called again after every periodic sync.
      * @param context Context used to create the GooglePlayDriver that powers the
      *                FirebaseJobDispatcher
      */
     static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
 
+        SyncSchedulePolicy.Window window = getNextSyncWindow(context);
+        Log.v(TAG, "Next sync in " + window);
+
         Driver driver = new GooglePlayDriver(context);
         FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
 
@@ -76,29 +92,60 @@ public class SunshineSyncUtils {
                 .setLifetime(Lifetime.FOREVER)
                 /*
                  * We want Sunshine's weather data to stay up to date, so we tell this Job to recur.
+                 * Should the app not get to reschedule it after a sync, it keeps recurring in the
+                 * window we last worked out.
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
+                 * The first argument for Trigger's static executionWindow method is the start of
+                 * the time frame when the sync should be performed. The second argument is the
+                 * latest point in time at which the data should be synced. Please note that this
+                 * end time is not guaranteed, but is more of a guideline for
+                 * FirebaseJobDispatcher to go off of.
                  */
-                .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                .setTrigger(Trigger.executionWindow(window.startSeconds, window.endSeconds))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
                  */
                 .setReplaceCurrent(true)
+                /*
+                 * If a sync fails because the weather server can't be reached, the job asks to be
+                 * rescheduled. Retry it 30 seconds later, then a minute later, two minutes, and
+                 * so on, until the next periodic sync comes around.
+                 */
+                .setRetryStrategy(RetryStrategy.DEFAULT_EXPONENTIAL)
                 /* Once the Job is ready, call the builder's build method to return the Job */
                 .build();
 
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    private static SyncSchedulePolicy.Window getNextSyncWindow(Context context) {
+        double volatility = SyncSchedulePolicy.getVolatility(
+                SunshinePreferences.getRecentSyncChanges(context));
+        return SCHEDULE_POLICY.getNextWindow(volatility, System.currentTimeMillis(),
+                SunshinePreferences.getLastViewedTime(context), TimeZone.getDefault());
+    }
+
+    /**
+     * Records that the user is looking at the forecast. If nobody had for long enough that the
+     * periodic sync was slowed down, it is brought back to its usual pace.
+     *
+     * @param context Used to access SharedPreferences and to reschedule the sync
+     */
+    public static void onForecastViewed(@NonNull final Context context) {
+        long nowMillis = System.currentTimeMillis();
+        boolean wasIdle =
+                SCHEDULE_POLICY.isIdle(nowMillis, SunshinePreferences.getLastViewedTime(context));
+        SunshinePreferences.saveLastViewedTime(context, nowMillis);
+
+        if (wasIdle) {
+            scheduleFirebaseJobDispatcherSync(context);
+        }
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -189,4 +236,16 @@ public class SunshineSyncUtils {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
         context.startService(intentToSyncImmediately);
     }
-}
\ No newline at end of file
+
+    /**
+     * Syncs the forecasts of every saved location right away, using the same IntentService as
+     * {@link #startImmediateSync(Context)}.
+     *
+     * @param context The Context used to start the IntentService for the sync.
+     */
+    public static void startSavedLocationsSync(@NonNull final Context context) {
+        Intent intentToSyncSavedLocations = new Intent(context, SunshineSyncIntentService.class);
+        intentToSyncSavedLocations.setAction(SunshineSyncIntentService.ACTION_SYNC_SAVED_LOCATIONS);
+        context.startService(intentToSyncSavedLocations);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.database.SQLException;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * Why a sync, or one request to the weather server, failed. These are the categories the
+ * failures are counted under in {@link com.example.android.sunshine.data.SyncTelemetryStore}.
+ */
+public enum SyncError {
+
+    /* The weather server's host name couldn't be resolved, usually as there is no network */
+    DNS,
+
+    /* No connection could be made to the server, or it was reset or failed its TLS handshake */
+    CONNECT,
+
+    /* The server took too long to accept the connection or to send the response */
+    TIMEOUT,
+
+    /* The server answered with an error status, in its headers or in its body */
+    HTTP_STATUS,
+
+    /* The response couldn't be read as a forecast */
+    PARSE,
+
+    /* The forecast couldn't be written to the database */
+    DATABASE,
+
+    /* The sync was interrupted before it finished */
+    CANCELLED,
+
+    /* No request was made, as the server has been failing (see CircuitBreaker) */
+    CIRCUIT_OPEN,
+
+    /* Anything else */
+    OTHER;
+
+    /**
+     * Finds the category of a failure. Exceptions that wrap others are classified by the first
+     * of their causes that falls in a category.
+     *
+     * @param error What the sync or request threw
+     * @return The category of the failure
+     */
+    public static SyncError classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            SyncError category = classifyOne(cause);
+            if (category != OTHER) {
+                return category;
+            }
+        }
+        return OTHER;
+    }
+
+    private static SyncError classifyOne(Throwable error) {
+        if (error instanceof UnknownHostException) {
+            return DNS;
+        }
+        /* A SocketTimeoutException is also an InterruptedIOException, so it goes first */
+        if (error instanceof SocketTimeoutException) {
+            return TIMEOUT;
+        }
+        if (error instanceof InterruptedIOException) {
+            return CANCELLED;
+        }
+        if (error instanceof SocketException || error instanceof SSLException) {
+            return CONNECT;
+        }
+        if (error instanceof HttpStatusException || error instanceof FileNotFoundException) {
+            return HTTP_STATUS;
+        }
+        if (error instanceof MalformedJsonException || error instanceof JSONException
+                || error instanceof EOFException) {
+            return PARSE;
+        }
+        if (error instanceof SQLException) {
+            return DATABASE;
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.CancellationToken;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs syncs in the background, one at a time, in a way that lets them be stopped part of the
+ * way through. This is what a job uses when the job dispatcher may stop it at any moment.
+ * <p>
+ * Stopping a sync with {@link Task#cancel()} cancels the {@link CancellationToken} it runs
+ * with, which drops the connections it is reading from, and interrupts its thread, which ends
+ * any retry backoff or wait for another sync. The sync then returns quickly with
+ * {@link SyncResult#RETRY}, instead of holding on to the network for as long as a read may
+ * block. A daily forecast that is dropped is never written, and each one is written in a single
+ * transaction, so a stopped sync leaves either all of it or none of it. The 3-hour forecast is
+ * written a chunk at a time as it downloads, and keeps the chunks written before the stop, see
+ * {@link HourlySyncTask#syncHourlyWeather(android.content.Context)}.
+ * <p>
+ * AsyncTask, which the job used to run its sync with, could only do the interrupting, which
+ * doesn't unblock a read from a socket.
+ */
+public final class SyncExecutor {
+
+    private static final String TAG = SyncExecutor.class.getSimpleName();
+
+    /* Every sync writes to the same tables, so there is nothing to gain from running two */
+    private static final ExecutorService sExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            /* Like AsyncTask, stay out of the way of the UI thread */
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "SunshineSync");
+                }
+            });
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Is told how a sync turned out.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the main thread once the sync is done, unless it was cancelled first.
+         *
+         * @param result The outcome of the sync
+         */
+        void onSyncFinished(SyncResult result);
+    }
+
+    /**
+     * A sync submitted with {@link #execute(Callable, Callback)}.
+     */
+    public static final class Task implements Runnable {
+
+        private final Callable<SyncResult> mSync;
+        private final Callback mCallback;
+        private final CancellationToken mCancellationToken = new CancellationToken();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        /* All guarded by this */
+        private Thread mThread;
+        private SyncResult mResult;
+        private boolean mCancelled;
+
+        Task(Callable<SyncResult> sync, Callback callback) {
+            mSync = sync;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mCancelled) {
+                    mDone.countDown();
+                    return;
+                }
+                mThread = Thread.currentThread();
+            }
+
+            CancellationToken previous = CancellationToken.bind(mCancellationToken);
+            SyncResult result;
+            try {
+                result = mSync.call();
+            } catch (Exception e) {
+                /* Syncs catch everything they expect, this is a bug */
+                Log.e(TAG, "Unable to sync", e);
+                result = SyncResult.FAILED;
+            } finally {
+                CancellationToken.bind(previous);
+                synchronized (this) {
+                    mThread = null;
+                    /* Whatever interrupt cancel() sent was meant for this sync only */
+                    Thread.interrupted();
+                }
+            }
+
+            synchronized (this) {
+                mResult = result;
+            }
+            mDone.countDown();
+
+            final SyncResult finalResult = result;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Task.this) {
+                        if (mCancelled) {
+                            return;
+                        }
+                    }
+                    mCallback.onSyncFinished(finalResult);
+                }
+            });
+        }
+
+        /**
+         * Stops the sync, if it is still running. The callback won't be called after this,
+         * even if the sync had already finished.
+         *
+         * @return Whether the sync should be run again: true if it was stopped before it was
+         * done, or if it finished asking for a retry
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return true;
+                }
+                mCancelled = true;
+                if (mResult != null) {
+                    return mResult == SyncResult.RETRY;
+                }
+                if (mThread != null) {
+                    mThread.interrupt();
+                }
+            }
+
+            mCancellationToken.cancel();
+            return true;
+        }
+
+        /**
+         * Waits for the sync to return, or to be dropped before it started.
+         *
+         * @return false if it didn't within the timeout
+         */
+        @VisibleForTesting
+        boolean awaitDone(long timeout, TimeUnit unit) throws InterruptedException {
+            return mDone.await(timeout, unit);
+        }
+    }
+
+    private SyncExecutor() {
+    }
+
+    /**
+     * Queues a sync to run once every sync queued before it is done.
+     *
+     * @param sync     Runs the sync. It runs bound to a {@link CancellationToken}, which is how
+     *                 {@link Task#cancel()} reaches the connections it opens.
+     * @param callback Told the result on the main thread, unless the sync is cancelled
+     * @return The task to cancel the sync with
+     */
+    public static Task execute(Callable<SyncResult> sync, Callback callback) {
+        Task task = new Task(sync, callback);
+        sExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * @return Whether the sync running on the calling thread has been cancelled. Syncs that
+     * run several steps check this in between, so they don't start another one once stopped.
+     * {@link Task#cancel()} interrupts the sync's thread before it cancels the token, so an
+     * interrupted thread running a sync counts as cancelled too.
+     */
+    public static boolean isCancelled() {
+        CancellationToken token = CancellationToken.current();
+        return token != null
+                && (token.isCancelled() || Thread.currentThread().isInterrupted());
+    }
+}
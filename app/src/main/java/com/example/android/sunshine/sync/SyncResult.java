@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+/**
+ * The outcome of a single run of {@link SunshineSyncTask#syncWeather}.
+ */
+public enum SyncResult {
+
+    /* A new forecast was written to the weather table */
+    SUCCESS,
+
+    /* The server told us the forecast we already have is current, so nothing was written */
+    NOT_MODIFIED,
+
+    /*
+     * The sync didn't produce a forecast, and trying again won't help until something changes
+     * (the location, for example). The weather table was left as it was.
+     */
+    FAILED,
+
+    /*
+     * The sync didn't produce a forecast because the weather server couldn't be reached or
+     * answered with an error. It should be tried again later. The weather table was left as it
+     * was.
+     */
+    RETRY
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the periodic sync should run next, instead of always running it every 3 hours:
+ * <ul>
+ * <li>The less the last few syncs changed, the longer the wait, from the minimum interval when
+ * every sync changes a good part of the forecast, up to the maximum when none of them change
+ * anything.</li>
+ * <li>Once nobody has looked at the forecast for a while, the wait is stretched to the idle
+ * interval. Nothing is gained by keeping a forecast fresh that nobody reads.</li>
+ * <li>Otherwise, when the local day rolls over before the wait is up, the sync is brought
+ * forward to just after midnight. The weather table then ages out the day that has just
+ * passed, and picks up the day the forecast gained, before anyone looks at today's
+ * forecast.</li>
+ * </ul>
+ * The policy only does arithmetic, so it can be replayed against sync histories on the JVM.
+ */
+class SyncSchedulePolicy {
+
+    /*
+     * A sync that changes this much of the forecast is as volatile as it gets. A forecast is
+     * rarely rewritten from one end to the other, and one that keeps changing a third of its
+     * days already needs every sync it can get.
+     */
+    static final double FULLY_VOLATILE_CHANGE = 1 / 3d;
+
+    /* A sync this long after midnight sees the new day, even with a bit of clock skew */
+    static final long ROLLOVER_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * When the job dispatcher should run the next sync, in seconds from now.
+     */
+    static final class Window {
+        final int startSeconds;
+        final int endSeconds;
+
+        Window(int startSeconds, int endSeconds) {
+            this.startSeconds = startSeconds;
+            this.endSeconds = endSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return startSeconds + "s to " + endSeconds + "s";
+        }
+    }
+
+    private final long mMinIntervalMillis;
+    private final long mMaxIntervalMillis;
+    private final long mIdleIntervalMillis;
+    private final long mIdleAfterMillis;
+
+    /**
+     * @param minIntervalMillis  The wait after syncs that change the whole forecast
+     * @param maxIntervalMillis  The wait after syncs that don't change anything
+     * @param idleIntervalMillis The shortest wait once nobody is looking
+     * @param idleAfterMillis    How long after the forecast was last looked at nobody is
+     */
+    SyncSchedulePolicy(long minIntervalMillis, long maxIntervalMillis, long idleIntervalMillis,
+                       long idleAfterMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Intervals must be positive, min before max");
+        }
+        mMinIntervalMillis = minIntervalMillis;
+        mMaxIntervalMillis = maxIntervalMillis;
+        mIdleIntervalMillis = idleIntervalMillis;
+        mIdleAfterMillis = idleAfterMillis;
+    }
+
+    /**
+     * Sums up how much the last few syncs changed. More recent syncs count for more, so the
+     * schedule follows the weather when it turns unsettled.
+     *
+     * @param recentChanges For each recent sync, oldest first, the fraction of the days it
+     *                      downloaded that it inserted, updated or deleted, from 0 to 1
+     * @return From 0 (nothing changed) to 1 (at least {@link #FULLY_VOLATILE_CHANGE} did), or 1
+     * if there are no syncs to go by, so that a new install syncs as often as it always has
+     */
+    static double getVolatility(float[] recentChanges) {
+        if (recentChanges.length == 0) {
+            return 1;
+        }
+
+        double weightedChanges = 0;
+        double totalWeight = 0;
+        for (int i = 0; i < recentChanges.length; i++) {
+            double weight = i + 1;
+            weightedChanges += weight * Math.max(0, Math.min(1, recentChanges[i]));
+            totalWeight += weight;
+        }
+        return Math.min(1, weightedChanges / totalWeight / FULLY_VOLATILE_CHANGE);
+    }
+
+    /**
+     * @param nowMillis        The current time
+     * @param lastViewedMillis When the forecast was last looked at, or 0 if never
+     * @return true if nobody has looked at the forecast for long enough to stop keeping it
+     * fresh
+     */
+    boolean isIdle(long nowMillis, long lastViewedMillis) {
+        return nowMillis - lastViewedMillis > mIdleAfterMillis;
+    }
+
+    /**
+     * Returns how long to wait for the next sync, before moving it to the day rollover. The
+     * wait falls geometrically from the maximum to the minimum interval as volatility rises, so
+     * each step in volatility changes the wait by the same factor.
+     *
+     * @param volatility See {@link #getVolatility(float[])}
+     */
+    long getIntervalMillis(double volatility, long nowMillis, long lastViewedMillis) {
+        double ratio = (double) mMinIntervalMillis / mMaxIntervalMillis;
+        long intervalMillis = Math.round(mMaxIntervalMillis * Math.pow(ratio, volatility));
+        intervalMillis = Math.max(mMinIntervalMillis, Math.min(mMaxIntervalMillis,
+                intervalMillis));
+
+        if (isIdle(nowMillis, lastViewedMillis)) {
+            intervalMillis = Math.max(intervalMillis, mIdleIntervalMillis);
+        }
+        return intervalMillis;
+    }
+
+    /**
+     * Returns the window in which the next sync should run. Like the fixed schedule, the
+     * window stays open for a third of the wait, which gives the job dispatcher room to batch
+     * the sync with other work.
+     *
+     * @param volatility       See {@link #getVolatility(float[])}
+     * @param nowMillis        The current time
+     * @param lastViewedMillis When the forecast was last looked at, or 0 if never
+     * @param timeZone         Where the local day begins and ends
+     */
+    Window getNextWindow(double volatility, long nowMillis, long lastViewedMillis,
+                         TimeZone timeZone) {
+        long waitMillis = getIntervalMillis(volatility, nowMillis, lastViewedMillis);
+
+        if (!isIdle(nowMillis, lastViewedMillis)) {
+            long untilRolloverMillis =
+                    getMillisUntilMidnight(nowMillis, timeZone) + ROLLOVER_DELAY_MILLIS;
+            waitMillis = Math.min(waitMillis, untilRolloverMillis);
+        }
+
+        int startSeconds = (int) TimeUnit.MILLISECONDS.toSeconds(waitMillis);
+        return new Window(startSeconds, startSeconds + startSeconds / 3);
+    }
+
+    /**
+     * @return How long it is from nowMillis until the next local midnight
+     */
+    static long getMillisUntilMidnight(long nowMillis, TimeZone timeZone) {
+        long dayMillis = TimeUnit.DAYS.toMillis(1);
+        long localMillis = nowMillis + timeZone.getOffset(nowMillis);
+        long localMidnight = localMillis - (localMillis % dayMillis + dayMillis) % dayMillis
+                + dayMillis;
+        return localMidnight - localMillis;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.SyncTelemetryStore;
+import com.example.android.sunshine.data.WeatherContract.SyncTelemetryEntry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the stages of one sync, see {@link SyncTelemetryEntry#COLUMN_STAGE}, and counts what
+ * they allocate. Each stage is also a section of the system trace, named after the stage with
+ * a "sync:" prefix, so that systrace shows where a sync spends its time next to everything else
+ * the device was doing.
+ * <p>
+ * A recorder belongs to the thread the sync runs on, and isn't thread safe.
+ */
+final class SyncStageRecorder {
+
+    private static final String TRACE_SECTION_PREFIX = "sync:";
+
+    /*
+     * Allocation counting is global, and slows down every allocation while it is on, so it is
+     * only turned on while a stage runs, and only in debug builds.
+     */
+    private static volatile boolean sCountAllocations = BuildConfig.DEBUG;
+
+    /* How many stages are counting allocations, across every sync */
+    private static int sCountingStages;
+    private static final Object sCountingLock = new Object();
+
+    /* The stages run so far, in the order they first ran */
+    private final List<String> mStages = new ArrayList<>();
+    private final List<long[]> mTotals = new ArrayList<>();
+
+    /* The stage that is running, or null */
+    private String mStage;
+    private long mStageStartNanos;
+    private int mStageStartAllocatedBytes;
+    private boolean mStageCountsAllocations;
+
+    /**
+     * Ends the stage that is running, if any, and starts another. A stage that runs more than
+     * once adds up the time and allocations of each run.
+     *
+     * @param stage See {@link SyncTelemetryEntry#COLUMN_STAGE}
+     */
+    void begin(String stage) {
+        end();
+
+        Trace.beginSection(TRACE_SECTION_PREFIX + stage);
+        mStage = stage;
+        mStageCountsAllocations = sCountAllocations;
+        if (mStageCountsAllocations) {
+            startAllocCounting();
+            mStageStartAllocatedBytes = getThreadAllocSize();
+        }
+        mStageStartNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Ends the stage that is running, if any.
+     */
+    void end() {
+        if (mStage == null) {
+            return;
+        }
+
+        long durationNanos = SystemClock.elapsedRealtimeNanos() - mStageStartNanos;
+        long allocatedBytes = -1;
+        if (mStageCountsAllocations) {
+            /* The counter is an int, but no stage allocates anywhere near 2 GB */
+            allocatedBytes = getThreadAllocSize() - mStageStartAllocatedBytes;
+            stopAllocCounting();
+        }
+        Trace.endSection();
+
+        int index = mStages.indexOf(mStage);
+        if (index < 0) {
+            mStages.add(mStage);
+            mTotals.add(new long[]{durationNanos, allocatedBytes});
+        } else {
+            long[] totals = mTotals.get(index);
+            totals[0] += durationNanos;
+            totals[1] = totals[1] >= 0 && allocatedBytes >= 0 ? totals[1] + allocatedBytes : -1;
+        }
+        mStage = null;
+    }
+
+    /**
+     * Wraps a stream so that the time spent in its reads counts toward a stage of its own,
+     * rather than toward whichever stage is reading from it. After each read, the reading stage
+     * carries on.
+     *
+     * @param in    The stream to read from
+     * @param stage The stage reads count toward, see {@link SyncTelemetryEntry#COLUMN_STAGE}
+     */
+    InputStream timeReads(InputStream in, final String stage) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                String readingStage = beginRead(stage);
+                try {
+                    return super.read();
+                } finally {
+                    endRead(readingStage);
+                }
+            }
+
+            @Override
+            public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+                String readingStage = beginRead(stage);
+                try {
+                    return super.read(buffer, offset, count);
+                } finally {
+                    endRead(readingStage);
+                }
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                String readingStage = beginRead(stage);
+                try {
+                    return super.skip(count);
+                } finally {
+                    endRead(readingStage);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return The stage that is reading, to carry on with once the read is done
+     */
+    private String beginRead(String stage) {
+        String readingStage = mStage;
+        begin(stage);
+        return readingStage;
+    }
+
+    private void endRead(String readingStage) {
+        if (readingStage != null) {
+            begin(readingStage);
+        } else {
+            end();
+        }
+    }
+
+    /**
+     * Ends the stage that is running, if any, and records every stage run in
+     * SyncTelemetryStore.
+     *
+     * @param context Used to access SyncTelemetryStore
+     */
+    void record(Context context) {
+        end();
+        if (mStages.isEmpty()) {
+            return;
+        }
+
+        String[] stages = mStages.toArray(new String[mStages.size()]);
+        long[] durationsMicros = new long[stages.length];
+        long[] allocatedBytes = new long[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            long[] totals = mTotals.get(i);
+            durationsMicros[i] = totals[0] / 1000;
+            allocatedBytes[i] = totals[1];
+        }
+        SyncTelemetryStore.recordStages(context, stages, durationsMicros, allocatedBytes);
+    }
+
+    /**
+     * Turns counting allocations on or off for stages that begin from now on.
+     */
+    @VisibleForTesting
+    static void setCountAllocations(boolean countAllocations) {
+        sCountAllocations = countAllocations;
+    }
+
+    /*
+     * Debug's allocation counters are deprecated since API 23, in favor of Debug.getRuntimeStat.
+     * Those runtime stats only count what the whole process allocated, though, and nothing else
+     * counts what one thread did, which is what a stage needs while other threads are busy.
+     */
+    @SuppressWarnings("deprecation")
+    private static int getThreadAllocSize() {
+        return Debug.getThreadAllocSize();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void startAllocCounting() {
+        synchronized (sCountingLock) {
+            if (sCountingStages++ == 0) {
+                Debug.startAllocCounting();
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void stopAllocCounting() {
+        synchronized (sCountingLock) {
+            if (--sCountingStages == 0) {
+                Debug.stopAllocCounting();
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of fixed-size byte buffers that are reused for reading HTTP response bodies.
+ * Every sync reads a forecast from the network, and allocating a fresh buffer each time only
+ * gives the garbage collector more work to do.
+ */
+public final class ByteArrayPool {
+
+    /* The size of every buffer handed out by the pool */
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    /* Syncs rarely overlap, so there is no reason to hold on to more than a few buffers */
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    private ByteArrayPool() {
+    }
+
+    /**
+     * Returns a buffer of {@link #BUFFER_SIZE} bytes, reusing a pooled one if available. The
+     * buffer should be handed back with {@link #release(byte[])} when the caller is done with it.
+     *
+     * @return A buffer of BUFFER_SIZE bytes. Its contents are undefined.
+     */
+    public static byte[] acquire() {
+        synchronized (sBuffers) {
+            byte[] buffer = sBuffers.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that weren't handed out by {@link #acquire()} are
+     * ignored, as are buffers returned while the pool is already full.
+     *
+     * @param buffer The buffer to return to the pool
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (sBuffers) {
+            if (sBuffers.size() < MAX_POOLED_BUFFERS) {
+                sBuffers.offerFirst(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lets work that blocks on the network be stopped from another thread. Interrupting a thread
+ * doesn't unblock a read from an HttpURLConnection, but closing the connection does. So every
+ * connection opened on behalf of a cancellable piece of work is registered with its token, and
+ * cancelling the token closes all of them at once.
+ * <p>
+ * A token is bound to the threads doing the work with {@link #bind(CancellationToken)}, which
+ * is how {@link NetworkUtils} and the transports find it without passing it through every
+ * method in between. Work that hands part of itself to other threads binds the same token on
+ * those threads too.
+ */
+public final class CancellationToken {
+
+    private static final ThreadLocal<CancellationToken> sCurrent = new ThreadLocal<>();
+
+    /* Everything to close when the token is cancelled. Guarded by this. */
+    private final Set<Closeable> mResources = new LinkedHashSet<>();
+    private boolean mCancelled;
+
+    /**
+     * @return The token bound to the calling thread, or null if its work can't be cancelled
+     */
+    public static CancellationToken current() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Binds a token to the calling thread, until another one is bound.
+     *
+     * @param token The token of the work the thread is about to do, or null for none
+     * @return The token that was bound before, to bind again once the work is done
+     */
+    public static CancellationToken bind(CancellationToken token) {
+        CancellationToken previous = sCurrent.get();
+        if (token != null) {
+            sCurrent.set(token);
+        } else {
+            sCurrent.remove();
+        }
+        return previous;
+    }
+
+    /**
+     * @throws InterruptedIOException If the token bound to the calling thread was cancelled
+     */
+    public static void throwIfCurrentCancelled() throws InterruptedIOException {
+        CancellationToken token = sCurrent.get();
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+    }
+
+    /**
+     * Stopping work by closing its connections makes its reads fail with whatever the
+     * connection throws when closed under it, typically a SocketException. This gives callers
+     * an InterruptedIOException instead, so that a cancellation isn't mistaken for a network
+     * failure, and counted or retried as one.
+     *
+     * @param failure What the work threw
+     * @return failure, or if the token bound to the calling thread was cancelled, an
+     * InterruptedIOException caused by it
+     */
+    public static IOException translate(IOException failure) {
+        CancellationToken token = sCurrent.get();
+        if (token == null || !token.isCancelled()) {
+            return failure;
+        }
+        if (failure instanceof InterruptedIOException
+                && !(failure instanceof SocketTimeoutException)) {
+            return failure;
+        }
+        InterruptedIOException cancelled = new InterruptedIOException("Cancelled");
+        cancelled.initCause(failure);
+        return cancelled;
+    }
+
+    /**
+     * Cancels the work: closes everything registered, and makes {@link #throwIfCancelled()}
+     * throw from now on. Can be called from any thread, any number of times.
+     */
+    public void cancel() {
+        List<Closeable> resources;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            resources = new ArrayList<>(mResources);
+            mResources.clear();
+        }
+
+        for (Closeable resource : resources) {
+            closeQuietly(resource);
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @throws InterruptedIOException If the token was cancelled
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /**
+     * Registers something to close if the token is cancelled. If it already was, the resource
+     * is closed right away.
+     *
+     * @param resource Closes the connection, or whatever the work may be blocked on. Its close
+     *                 must be safe to call from any thread.
+     * @throws InterruptedIOException If the token was already cancelled
+     */
+    public void register(Closeable resource) throws InterruptedIOException {
+        synchronized (this) {
+            if (!mCancelled) {
+                mResources.add(resource);
+                return;
+            }
+        }
+        closeQuietly(resource);
+        throw new InterruptedIOException("Cancelled");
+    }
+
+    /**
+     * Forgets a resource that has been released normally, and no longer needs closing.
+     */
+    public synchronized void unregister(Closeable resource) {
+        mResources.remove(resource);
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process {@link WeatherTransport} that answers every request with canned forecasts,
+ * without touching the network. Install it with {@link NetworkUtils#setTransport} to benchmark
+ * or test the rest of the sync pipeline (parsing, database writes, notifications) in isolation.
+ * <p>
+ * Each canned forecast is given an ETag, and requests that send it back get a "304 Not
+ * Modified", just like they would from the real server.
+ */
+public class FakeWeatherTransport implements WeatherTransport {
+
+    private final Map<String, byte[]> mBodiesByUrl = new ConcurrentHashMap<>();
+    private volatile byte[] mDefaultBody;
+    private volatile long mLatencyMillis;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * @param defaultBody The body returned for any URL without a body of its own. If null, such
+     *                    URLs get a 404.
+     */
+    public FakeWeatherTransport(byte[] defaultBody) {
+        mDefaultBody = defaultBody;
+    }
+
+    /**
+     * Sets the body returned for one particular URL.
+     */
+    public void setResponseBody(URL url, byte[] body) {
+        mBodiesByUrl.put(url.toString(), body);
+    }
+
+    public void setDefaultResponseBody(byte[] body) {
+        mDefaultBody = body;
+    }
+
+    /**
+     * Makes every request take at least this long, to simulate a network round trip.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @return The number of requests this transport has answered
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    @Override
+    public WeatherResponse execute(URL url, Map<String, String> requestHeaders)
+            throws InterruptedIOException {
+        mRequestCount.incrementAndGet();
+
+        long latencyMillis = mLatencyMillis;
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + url);
+            }
+        }
+
+        byte[] body = mBodiesByUrl.get(url.toString());
+        if (body == null) {
+            body = mDefaultBody;
+        }
+        if (body == null) {
+            return new FakeResponse(HttpURLConnection.HTTP_NOT_FOUND, null, new byte[0]);
+        }
+
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            if ("If-None-Match".equalsIgnoreCase(header.getKey())
+                    && eTag.equals(header.getValue())) {
+                return new FakeResponse(HttpURLConnection.HTTP_NOT_MODIFIED, eTag, new byte[0]);
+            }
+        }
+        return new FakeResponse(HttpURLConnection.HTTP_OK, eTag, body);
+    }
+
+    private static class FakeResponse implements WeatherResponse {
+
+        private final int mStatusCode;
+        private final Map<String, String> mHeaders = new HashMap<>();
+        private final byte[] mBody;
+
+        FakeResponse(int statusCode, String eTag, byte[] body) {
+            mStatusCode = statusCode;
+            mBody = body;
+            if (eTag != null) {
+                mHeaders.put("etag", eTag);
+            }
+        }
+
+        @Override
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(mBody);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
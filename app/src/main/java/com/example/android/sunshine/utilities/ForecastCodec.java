@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import com.example.android.sunshine.data.ForecastBatch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Encodes forecasts in, and decodes them from, Sunshine's compact binary format: the second
+ * format, besides JSON, that a forecast can be requested in (see
+ * {@link NetworkUtils#setWireFormat}) and stored in the response cache in.
+ * <p>
+ * An encoded forecast is laid out as follows. Varints are unsigned LEB128, as in protocol
+ * buffers, and every fixed-width value is big endian.
+ * <pre>
+ *   magic        'S' 'W' 'F' VERSION
+ *   message code varint. Anything but 200 ends the message, as the server's error.
+ *   flags        1 byte. FLAG_HAS_COORDINATES means the city's coordinates follow.
+ *   latitude     int32, in millionths of a degree   } only with FLAG_HAS_COORDINATES
+ *   longitude    int32, in millionths of a degree   }
+ *   day count    varint
+ *   days         day count times:
+ *     date       zigzag varint, the days since the previous day's date (the first day's is
+ *                relative to the epoch)
+ *     weather ID uint16
+ *     min temp   int16, in hundredths of a degree
+ *     max temp   int16, in hundredths of a degree
+ *     humidity   uint8, in percent
+ *     pressure   int32, in hundredths of a hPa
+ *     wind speed uint16, in hundredths
+ *     degrees    uint16, in hundredths of a degree
+ * </pre>
+ * A 14 day forecast takes up under 250 bytes this way, where the server's JSON takes several
+ * kilobytes. Every value is stored exactly: decoding a forecast gives the same doubles that
+ * parsing the JSON it was encoded from gave, and a forecast with a value that can't be stored
+ * exactly isn't encoded at all. This is what allows a binary forecast to be merged into the
+ * weather table as if it had been parsed from JSON.
+ */
+public final class ForecastCodec {
+
+    /* The first bytes of every encoded forecast. No JSON starts with these. */
+    private static final byte[] MAGIC = {'S', 'W', 'F'};
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    private static final int FLAG_HAS_COORDINATES = 1;
+
+    /* The fixed-width part of each day, everything but its date */
+    private static final int RECORD_LENGTH = 15;
+
+    private static final double TEMPERATURE_SCALE = 100;
+    private static final double PRESSURE_SCALE = 100;
+    private static final double WIND_SCALE = 100;
+    private static final double DEGREES_SCALE = 100;
+    private static final double COORDINATE_SCALE = 1e6;
+
+    /*
+     * The day count comes from the payload, so it can't be trusted to size the forecast. The
+     * forecast grows past this if there really are more days.
+     */
+    private static final int MAX_INITIAL_CAPACITY = 64;
+
+    private ForecastCodec() {
+    }
+
+    /**
+     * Encodes a forecast.
+     *
+     * @param forecast  The forecast. Every date must be a normalized date, see
+     *                  {@link SunshineDateUtils#normalizeDate(long)}.
+     * @param latitude  Latitude of the forecast's city, or NaN if it isn't known
+     * @param longitude Longitude of the forecast's city, or NaN if it isn't known
+     * @return The encoded forecast
+     * @throws IllegalArgumentException If one of the forecast's values can't be stored exactly
+     */
+    public static byte[] encode(ForecastBatch forecast, double latitude, double longitude) {
+        int size = forecast.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + size * (RECORD_LENGTH + 2));
+        writeHeader(out, HttpURLConnection.HTTP_OK);
+
+        boolean hasCoordinates = !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        out.write(hasCoordinates ? FLAG_HAS_COORDINATES : 0);
+        if (hasCoordinates) {
+            writeInt(out, scale(latitude, COORDINATE_SCALE, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE, "latitude"));
+            writeInt(out, scale(longitude, COORDINATE_SCALE, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE, "longitude"));
+        }
+
+        writeVarint(out, size);
+        long previousDay = 0;
+        for (int i = 0; i < size; i++) {
+            long date = forecast.getDate(i);
+            if (!SunshineDateUtils.isDateNormalized(date)) {
+                throw new IllegalArgumentException("Date isn't normalized: " + date);
+            }
+            long day = date / SunshineDateUtils.DAY_IN_MILLIS;
+            long delta = day - previousDay;
+            if (delta < Integer.MIN_VALUE || delta > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Date out of range: " + date);
+            }
+            writeVarint(out, zigzag((int) delta));
+            previousDay = day;
+
+            int weatherId = forecast.getWeatherId(i);
+            if (weatherId < 0 || weatherId > 0xffff) {
+                throw new IllegalArgumentException("Weather ID out of range: " + weatherId);
+            }
+            writeShort(out, weatherId);
+            writeShort(out, scale(forecast.getMinTemp(i), TEMPERATURE_SCALE,
+                    Short.MIN_VALUE, Short.MAX_VALUE, "min temp"));
+            writeShort(out, scale(forecast.getMaxTemp(i), TEMPERATURE_SCALE,
+                    Short.MIN_VALUE, Short.MAX_VALUE, "max temp"));
+            out.write(scale(forecast.getHumidity(i), 1, 0, 0xff, "humidity"));
+            writeInt(out, scale(forecast.getPressure(i), PRESSURE_SCALE,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, "pressure"));
+            writeShort(out, scale(forecast.getWindSpeed(i), WIND_SCALE, 0, 0xffff, "wind"));
+            writeShort(out, scale(forecast.getDegrees(i), DEGREES_SCALE, 0, 0xffff,
+                    "degrees"));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes an error the server reports in place of a forecast.
+     *
+     * @param messageCode The error's message code, anything but 200
+     * @return The encoded error
+     */
+    public static byte[] encodeError(int messageCode) {
+        if (messageCode == HttpURLConnection.HTTP_OK || messageCode < 0) {
+            throw new IllegalArgumentException("Not an error: " + messageCode);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + 5);
+        writeHeader(out, messageCode);
+        return out.toByteArray();
+    }
+
+    /**
+     * Tells whether a response is in this format, from its first bytes.
+     *
+     * @param head   The start of a response
+     * @param length The number of bytes of head to look at
+     * @return True if head starts with the format's magic, of any version
+     */
+    public static boolean isEncoded(byte[] head, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a forecast. Like OpenWeatherJsonUtils#getForecastFromStream, this has no side
+     * effects, and the result is either a forecast or the error the server sent instead.
+     * Anything after the last day is left unread.
+     *
+     * @param in The encoded forecast. It is not closed by this method.
+     * @return The forecast and its city's coordinates, or the error the server reported
+     * @throws EOFException If the stream ends before the forecast does
+     * @throws IOException  If the stream can't be read or doesn't hold a forecast of this
+     *                      version
+     */
+    public static ForecastResult decode(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        byte[] record = new byte[RECORD_LENGTH];
+        data.readFully(record, 0, HEADER_LENGTH);
+        if (!isEncoded(record, HEADER_LENGTH)) {
+            throw new IOException("Not a binary forecast");
+        }
+        if (record[MAGIC.length] != VERSION) {
+            throw new IOException("Unsupported binary forecast version: "
+                    + record[MAGIC.length]);
+        }
+
+        int messageCode = readVarint(data);
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            return ForecastResult.error(messageCode);
+        }
+
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        int flags = data.readUnsignedByte();
+        if ((flags & FLAG_HAS_COORDINATES) != 0) {
+            latitude = data.readInt() / COORDINATE_SCALE;
+            longitude = data.readInt() / COORDINATE_SCALE;
+        }
+
+        int size = readVarint(data);
+        if (size < 0) {
+            throw new IOException("Invalid day count: " + size);
+        }
+        ForecastBatch forecast = new ForecastBatch(Math.min(size, MAX_INITIAL_CAPACITY));
+
+        long day = 0;
+        for (int i = 0; i < size; i++) {
+            day += unzigzag(readVarint(data));
+            data.readFully(record, 0, RECORD_LENGTH);
+            forecast.add(day * SunshineDateUtils.DAY_IN_MILLIS,
+                    readUnsignedShort(record, 0),
+                    readSignedShort(record, 2) / TEMPERATURE_SCALE,
+                    readSignedShort(record, 4) / TEMPERATURE_SCALE,
+                    record[6] & 0xff,
+                    readInt(record, 7) / PRESSURE_SCALE,
+                    readUnsignedShort(record, 11) / WIND_SCALE,
+                    readUnsignedShort(record, 13) / DEGREES_SCALE);
+        }
+        return ForecastResult.ok(forecast, latitude, longitude);
+    }
+
+    private static void writeHeader(ByteArrayOutputStream out, int messageCode) {
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        writeVarint(out, messageCode);
+    }
+
+    /**
+     * Scales a value into an integer, making sure that dividing the integer by scale gives
+     * back exactly the same value.
+     */
+    private static int scale(double value, double scale, int min, int max, String name) {
+        double scaled = Math.rint(value * scale);
+        if (scaled < min || scaled > max || scaled / scale != value) {
+            throw new IllegalArgumentException("Can't encode " + name + ": " + value);
+        }
+        return (int) scaled;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readUnsignedShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+    }
+
+    private static int readSignedShort(byte[] buffer, int offset) {
+        return (short) readUnsignedShort(buffer, offset);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24)
+                | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8)
+                | (buffer[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, on-disk cache of raw forecast responses, keyed by the exact URL they were fetched
+ * from (see {@link NetworkUtils#getUrl(Context)}).
+ * <p>
+ * Entries expire after a time-to-live, and once the cache grows beyond its maximum size, the
+ * least recently used entries are evicted. With this cache in place, flipping back to a
+ * location the user looked at recently rebuilds the weather table straight from disk rather
+ * than waiting on a network round trip.
+ * <p>
+ * Responses are stored in whichever format they arrived in, JSON or binary (see
+ * {@link ForecastCodec}). The format is part of the URL, and a binary entry takes up a fraction
+ * of the space, so the same cache holds many more binary forecasts.
+ */
+public final class ForecastResponseCache {
+
+    private static final String TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast_responses";
+    private static final String ENTRY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /* Responses stay fresh for as long as the interval between periodic syncs */
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(3);
+
+    /* A 14 day forecast is a few kilobytes, so this is room for plenty of locations */
+    private static final long DEFAULT_MAX_SIZE_BYTES = 512 * 1024;
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mTtlMillis;
+    private final long mMaxSizeBytes;
+
+    /* Entry sizes keyed by file name, ordered from least to most recently used */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSizeBytes;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * Returns the cache shared by the whole app, creating it on first use.
+     *
+     * @param context Used to find the app's cache directory
+     */
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(),
+                    CACHE_DIRECTORY);
+            sInstance = new ForecastResponseCache(directory, DEFAULT_TTL_MILLIS,
+                    DEFAULT_MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param directory    Where to store entries. Created if it doesn't exist.
+     * @param ttlMillis    How long an entry may be served after it was stored
+     * @param maxSizeBytes The most bytes of responses to keep before evicting entries
+     */
+    public ForecastResponseCache(File directory, long ttlMillis, long maxSizeBytes) {
+        mDirectory = directory;
+        mTtlMillis = ttlMillis;
+        mMaxSizeBytes = maxSizeBytes;
+        loadIndex();
+    }
+
+    /**
+     * Rebuilds the LRU order from the entries on disk. An entry's last modified time is bumped
+     * every time it's used, so sorting by it recovers the order from the last run.
+     */
+    private synchronized void loadIndex() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDirectory);
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(ENTRY_SUFFIX)) {
+                mEntries.put(name, file.length());
+                mSizeBytes += file.length();
+            } else if (name.endsWith(TEMP_SUFFIX)) {
+                /* Left behind by a write that never finished */
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Returns the body cached for a URL, if there is one and it hasn't expired. Every call
+     * counts as either a hit or a miss.
+     *
+     * @param url The URL the response was fetched from
+     * @return A stream of the cached body, which the caller must close, or null on a miss
+     */
+    public InputStream get(String url) {
+        String name = entryName(url);
+        File file = new File(mDirectory, name);
+
+        synchronized (this) {
+            if (mEntries.get(name) == null) {
+                mMissCount.incrementAndGet();
+                return null;
+            }
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            long storedAtMillis = in.readLong();
+            if (System.currentTimeMillis() - storedAtMillis > mTtlMillis) {
+                in.close();
+                remove(name);
+                mMissCount.incrementAndGet();
+                return null;
+            }
+
+            file.setLastModified(System.currentTimeMillis());
+            mHitCount.incrementAndGet();
+            return in;
+        } catch (IOException e) {
+            closeQuietly(in);
+            remove(name);
+            mMissCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Starts storing the body of a response for the given URL. Nothing is visible in the cache
+     * until {@link Writer#commit()} is called, so a response that fails halfway through (or that
+     * turned out to be an error) never replaces a good entry.
+     *
+     * @param url The URL the response is being fetched from
+     * @return A writer for the new entry, or null if the entry can't be written
+     */
+    public Writer edit(String url) {
+        String name = entryName(url);
+        File temp = new File(mDirectory, name + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return null;
+            }
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeLong(System.currentTimeMillis());
+            return new Writer(name, temp, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write cache entry for " + url, e);
+            temp.delete();
+            return null;
+        }
+    }
+
+    private synchronized void commit(String name, File temp) {
+        File file = new File(mDirectory, name);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+
+        Long previousSize = mEntries.put(name, file.length());
+        if (previousSize != null) {
+            mSizeBytes -= previousSize;
+        }
+        mSizeBytes += file.length();
+        trimToSize();
+    }
+
+    private synchronized void remove(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        new File(mDirectory, name).delete();
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits within its maximum size.
+     */
+    private synchronized void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            mSizeBytes -= entry.getValue();
+            new File(mDirectory, entry.getKey()).delete();
+            mEvictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes every entry from the cache. The counters are left alone.
+     */
+    public synchronized void clear() {
+        List<String> names = new ArrayList<>(mEntries.keySet());
+        for (String name : names) {
+            remove(name);
+        }
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ForecastResponseCache{"
+                + "hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", sizeBytes=" + getSizeBytes()
+                + '}';
+    }
+
+    /**
+     * URLs contain characters that don't belong in file names, so entries are named after a
+     * hash of their URL instead.
+     */
+    private static String entryName(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.append(ENTRY_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            /* Every Android device has SHA-1 and UTF-8 */
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Writes a new entry. Usually used with {@link #tee(InputStream)}, which copies a response
+     * into the cache as it is being parsed.
+     */
+    public final class Writer {
+
+        private final String mName;
+        private final File mTemp;
+        private final OutputStream mOut;
+        private InputStream mTee;
+        private boolean mDone;
+
+        private Writer(String name, File temp, OutputStream out) {
+            mName = name;
+            mTemp = temp;
+            mOut = out;
+        }
+
+        /**
+         * Wraps a response body so that every byte read from the returned stream is also
+         * written to this entry.
+         *
+         * @param in The response body
+         * @return A stream that reads from in and copies into the cache
+         */
+        public InputStream tee(InputStream in) {
+            mTee = new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b != -1) {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = in.read(buffer, offset, length);
+                    if (read > 0) {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long byteCount) throws IOException {
+                    /* Skipped bytes still need to be cached, so read them instead */
+                    byte[] buffer = new byte[(int) Math.min(byteCount, 512)];
+                    int read = read(buffer, 0, buffer.length);
+                    return Math.max(read, 0);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+            return mTee;
+        }
+
+        /**
+         * Opens the body written to this entry so far, so that a response can be downloaded
+         * into the cache first and parsed from disk after. The caller must close the stream.
+         *
+         * @return A stream of the body written so far, without the entry's header
+         */
+        public InputStream openWritten() throws IOException {
+            mOut.flush();
+            DataInputStream in = new DataInputStream(new FileInputStream(mTemp));
+            try {
+                /* Skip when the entry was stored */
+                in.readLong();
+            } catch (IOException e) {
+                closeQuietly(in);
+                throw e;
+            }
+            return in;
+        }
+
+        /**
+         * Reads whatever the parser left of the body, then publishes the entry.
+         */
+        public void commit() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                if (mTee != null) {
+                    byte[] buffer = ByteArrayPool.acquire();
+                    try {
+                        while (mTee.read(buffer) != -1) {
+                            /* Keep copying until the end of the body */
+                        }
+                    } finally {
+                        ByteArrayPool.release(buffer);
+                    }
+                }
+                mOut.close();
+                ForecastResponseCache.this.commit(mName, mTemp);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to commit cache entry", e);
+                mTemp.delete();
+            }
+        }
+
+        /**
+         * Throws away the entry. Does nothing if it was already committed.
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            mTemp.delete();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import com.example.android.sunshine.data.ForecastBatch;
+
+import java.net.HttpURLConnection;
+
+/**
+ * What OpenWeatherJsonUtils found in a response from the weather server: either a forecast and
+ * the coordinates of its city, or the error the server reported in place of one.
+ */
+public final class ForecastResult {
+
+    public enum Status {
+        /* The response holds a forecast */
+        OK,
+        /* The server doesn't know the location. Asking again won't change its mind. */
+        LOCATION_INVALID,
+        /* The server failed to produce a forecast, and may well succeed later */
+        SERVER_DOWN
+    }
+
+    private final Status mStatus;
+    private final int mMessageCode;
+    private final ForecastBatch mForecast;
+    private final double mLatitude;
+    private final double mLongitude;
+
+    private ForecastResult(Status status, int messageCode, ForecastBatch forecast,
+                           double latitude, double longitude) {
+        mStatus = status;
+        mMessageCode = messageCode;
+        mForecast = forecast;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * @param latitude  Latitude of the forecast's city, or NaN if it wasn't decoded
+     * @param longitude Longitude of the forecast's city, or NaN if it wasn't decoded
+     */
+    static ForecastResult ok(ForecastBatch forecast, double latitude, double longitude) {
+        return new ForecastResult(Status.OK, HttpURLConnection.HTTP_OK, forecast, latitude,
+                longitude);
+    }
+
+    /**
+     * For a forecast that was handed on as it was decoded, rather than returned
+     */
+    static ForecastResult streamed() {
+        return new ForecastResult(Status.OK, HttpURLConnection.HTTP_OK, null, Double.NaN,
+                Double.NaN);
+    }
+
+    /**
+     * @param messageCode The "cod" the server sent, which is anything but 200
+     */
+    static ForecastResult error(int messageCode) {
+        Status status = messageCode == HttpURLConnection.HTTP_NOT_FOUND
+                ? Status.LOCATION_INVALID
+                : Status.SERVER_DOWN;
+        return new ForecastResult(status, messageCode, null, Double.NaN, Double.NaN);
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return The "cod" the server sent, or 200 if it didn't send one
+     */
+    public int getMessageCode() {
+        return mMessageCode;
+    }
+
+    /**
+     * @return The forecast, or null unless the status is {@link Status#OK}. It is also null
+     * for a forecast that was streamed, see OpenWeatherJsonUtils#streamHourlyForecast.
+     */
+    public ForecastBatch getForecast() {
+        return mForecast;
+    }
+
+    /**
+     * @return Latitude of the forecast's city, or NaN if there is no forecast or the city
+     * wasn't decoded
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return Longitude of the forecast's city, or NaN if there is no forecast or the city
+     * wasn't decoded
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    @Override
+    public String toString() {
+        return mStatus + " (" + mMessageCode + ")";
+    }
+}
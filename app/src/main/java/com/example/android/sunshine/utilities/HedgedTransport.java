@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WeatherTransport} that sends "hedged" requests. A request for the primary endpoint
+ * is sent as usual, but if no response has arrived by the time 95% of the primary endpoint's
+ * responses usually have, the same request is sent to a backup endpoint as well. Whichever
+ * response comes back first is used, and the other is closed as soon as it arrives.
+ * <p>
+ * This trims the long tail of slow syncs at the cost of about 5% more requests. The latencies
+ * come from the {@link LatencyHistogram} of each endpoint, which the wrapped transport is
+ * expected to fill in (as {@link KeepAliveHttpTransport} does).
+ * <p>
+ * Requests for URLs that don't start with the primary endpoint are passed straight through.
+ */
+public class HedgedTransport implements WeatherTransport {
+
+    private static final String TAG = HedgedTransport.class.getSimpleName();
+
+    /* The fraction of responses that should arrive before we send a backup request */
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    /* Until we have this many latencies for the primary, its p95 means very little */
+    private static final int MIN_SAMPLES = 20;
+
+    /* How long to wait for the primary until we know its p95 */
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 2000;
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    private final WeatherTransport mDelegate;
+    private final String mPrimaryBaseUrl;
+    private final String mBackupBaseUrl;
+
+    /**
+     * @param delegate       The transport that actually sends the requests
+     * @param primaryBaseUrl The endpoint requests are normally sent to
+     * @param backupBaseUrl  The endpoint to send backup requests to. A backup request's URL is
+     *                       the original URL with primaryBaseUrl replaced by this.
+     */
+    public HedgedTransport(WeatherTransport delegate, String primaryBaseUrl,
+                           String backupBaseUrl) {
+        mDelegate = delegate;
+        mPrimaryBaseUrl = primaryBaseUrl;
+        mBackupBaseUrl = backupBaseUrl;
+    }
+
+    /**
+     * @return The transport that actually sends the requests
+     */
+    WeatherTransport getDelegate() {
+        return mDelegate;
+    }
+
+    /**
+     * @return How long to wait for the primary endpoint before sending a backup request
+     */
+    long getHedgeDelayMillis(URL url) {
+        LatencyHistogram histogram = LatencyHistogram.forEndpoint(url);
+        if (histogram.getCount() < MIN_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MILLIS;
+        }
+        return histogram.getPercentile(HEDGE_PERCENTILE);
+    }
+
+    @Override
+    public WeatherResponse execute(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        URL backupUrl = getBackupUrl(url);
+        if (backupUrl == null) {
+            return mDelegate.execute(url, requestHeaders);
+        }
+
+        CompletionService<WeatherResponse> completionService =
+                new ExecutorCompletionService<>(sExecutor);
+        List<Future<WeatherResponse>> pending = new ArrayList<>(2);
+        pending.add(completionService.submit(newRequest(url, requestHeaders)));
+        boolean hedged = false;
+
+        IOException failure = null;
+        try {
+            Future<WeatherResponse> done =
+                    completionService.poll(getHedgeDelayMillis(url), TimeUnit.MILLISECONDS);
+
+            while (true) {
+                /*
+                 * Send the backup request if the primary is taking too long, or has already
+                 * failed. There is no point in waiting for the backup if the primary fails.
+                 */
+                if (!hedged && (done == null || isFailed(done))) {
+                    Log.v(TAG, "Sending backup request to " + backupUrl);
+                    pending.add(completionService.submit(newRequest(backupUrl, requestHeaders)));
+                    hedged = true;
+                }
+
+                if (done != null) {
+                    pending.remove(done);
+                    try {
+                        return done.get();
+                    } catch (ExecutionException e) {
+                        failure = asIOException(e.getCause());
+                    }
+                }
+
+                if (pending.isEmpty()) {
+                    throw failure;
+                }
+                done = completionService.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        } finally {
+            for (Future<WeatherResponse> loser : pending) {
+                closeWhenDone(loser);
+            }
+        }
+    }
+
+    /**
+     * @return The URL to send the backup request for the URL to, or null if it isn't for the
+     * primary endpoint
+     */
+    private URL getBackupUrl(URL url) {
+        String urlString = url.toString();
+        if (!urlString.startsWith(mPrimaryBaseUrl)) {
+            return null;
+        }
+        try {
+            return new URL(mBackupBaseUrl + urlString.substring(mPrimaryBaseUrl.length()));
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * The request runs on one of our own threads, but belongs to the caller's work, so it is
+     * bound to the caller's {@link CancellationToken}.
+     */
+    private Callable<WeatherResponse> newRequest(final URL url,
+                                                 final Map<String, String> requestHeaders) {
+        final CancellationToken cancellationToken = CancellationToken.current();
+        return new Callable<WeatherResponse>() {
+            @Override
+            public WeatherResponse call() throws IOException {
+                CancellationToken previous = CancellationToken.bind(cancellationToken);
+                try {
+                    return mDelegate.execute(url, requestHeaders);
+                } finally {
+                    CancellationToken.bind(previous);
+                }
+            }
+        };
+    }
+
+    private static boolean isFailed(Future<WeatherResponse> future) {
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException | InterruptedException e) {
+            return true;
+        }
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * The request that lost the race still holds a connection. Wait for its response in the
+     * background, and close it so that the connection can be reused.
+     */
+    private static void closeWhenDone(final Future<WeatherResponse> loser) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loser.get().close();
+                } catch (ExecutionException | InterruptedException ignored) {
+                }
+            }
+        });
+    }
+}
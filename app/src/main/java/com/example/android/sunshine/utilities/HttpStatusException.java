@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the weather server answers with an error status, either as the HTTP status of
+ * its response or as the message code in its body. A 404 is reported as a
+ * FileNotFoundException instead, as the location it asked about will never have a forecast.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * @return The status, or message code, the server sent
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.SystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A {@link WeatherTransport} built on HttpURLConnection that keeps connections to the weather
+ * server alive between requests.
+ * <p>
+ * HttpURLConnection already keeps a pool of idle connections, but a connection only goes back
+ * into that pool if its response was read to the end and it was never disconnected. Calling
+ * disconnect() after every request, as we used to, meant every sync paid for a brand new TCP
+ * and TLS handshake. This transport instead drains whatever is left of a response when it is
+ * closed, so back to back syncs and multi-location fetches can reuse the same connection.
+ * <p>
+ * Unlike a plain HttpURLConnection, requests made through this transport time out, so one
+ * stalled server can't hold up a sync forever. The time until each response's headers arrive is
+ * recorded in the {@link LatencyHistogram} of the endpoint it was sent to.
+ * <p>
+ * A request made on a thread bound to a {@link CancellationToken} is disconnected as soon as
+ * the token is cancelled, which unblocks whatever read is waiting on it.
+ */
+public class KeepAliveHttpTransport implements WeatherTransport {
+
+    /* The most idle connections to keep around, and how long to keep them */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    /*
+     * If more than this many bytes of a response are left unread when it is closed, reading them
+     * just to save the connection costs more than a new handshake would.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /* How long to wait for a connection, and for each read once connected */
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private volatile int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private volatile int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    private static final String HEADER_CONNECTION = "Connection";
+    private static final String KEEP_ALIVE = "keep-alive";
+
+    /*
+     * The pool belongs to HttpURLConnection and is shared by the whole process, so it is set up
+     * once, when the first transport is created, rather than by each transport.
+     */
+    static {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", Long.toString(KEEP_ALIVE_MILLIS));
+    }
+
+    /**
+     * Creates a transport. Every transport shares HttpURLConnection's pool, which keeps up to 5
+     * idle connections for up to 5 minutes.
+     */
+    public KeepAliveHttpTransport() {
+    }
+
+    /**
+     * Sets how long requests may take before they fail with a
+     * {@link java.net.SocketTimeoutException}. The defaults are 15 seconds to connect and 20
+     * seconds for each read.
+     *
+     * @param connectTimeoutMillis How long to wait for a connection to the server
+     * @param readTimeoutMillis    How long to wait for each read of the response, including the
+     *                             wait for its headers
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts must be positive, a zero timeout "
+                    + "would wait forever");
+        }
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public WeatherResponse execute(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        urlConnection.setRequestProperty(HEADER_CONNECTION, KEEP_ALIVE);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        HttpResponse response = new HttpResponse(urlConnection,
+                CancellationToken.current());
+        long startMillis = SystemClock.elapsedRealtime();
+        try {
+            response.registerAbort();
+            /* Sends the request and reads the status line and headers */
+            response.getStatusCode();
+        } catch (IOException e) {
+            response.abort();
+            throw e;
+        }
+        LatencyHistogram.forEndpoint(url).record(SystemClock.elapsedRealtime() - startMillis);
+        return response;
+    }
+
+    /**
+     * Reads and throws away what's left of a stream, then closes it.
+     *
+     * @return true if the stream was read to the end, false if there was too much left
+     */
+    private static boolean drainAndClose(InputStream in) {
+        byte[] buffer = ByteArrayPool.acquire();
+        try {
+            int drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            ByteArrayPool.release(buffer);
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static class HttpResponse implements WeatherResponse {
+
+        private final HttpURLConnection mUrlConnection;
+
+        /* The token of the work this response belongs to, may be null */
+        private final CancellationToken mCancellationToken;
+
+        /* Disconnects the response when its token is cancelled, instead of draining it */
+        private final Closeable mAbort = new Closeable() {
+            @Override
+            public void close() {
+                mUrlConnection.disconnect();
+            }
+        };
+
+        /* The connection's own stream, and the wrapper we hand out that drains it on close */
+        private InputStream mRawBody;
+        private InputStream mBody;
+
+        private boolean mClosed;
+
+        HttpResponse(HttpURLConnection urlConnection, CancellationToken cancellationToken) {
+            mUrlConnection = urlConnection;
+            mCancellationToken = cancellationToken;
+        }
+
+        void registerAbort() throws IOException {
+            if (mCancellationToken != null) {
+                mCancellationToken.register(mAbort);
+            }
+        }
+
+        /**
+         * Drops the connection without reading what is left of the response.
+         */
+        void abort() {
+            mClosed = true;
+            if (mCancellationToken != null) {
+                mCancellationToken.unregister(mAbort);
+            }
+            mUrlConnection.disconnect();
+        }
+
+        @Override
+        public int getStatusCode() throws IOException {
+            return mUrlConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mUrlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mClosed) {
+                throw new IOException("Response closed");
+            }
+            if (mBody == null) {
+                mRawBody = openRawBody();
+                /*
+                 * Closing the body closes the whole response, which drains the rest of the body.
+                 * That is what allows the connection to go back into the pool even if the
+                 * reader stopped early.
+                 */
+                mBody = new FilterInputStream(mRawBody) {
+                    @Override
+                    public void close() {
+                        HttpResponse.this.close();
+                    }
+                };
+            }
+            return mBody;
+        }
+
+        private InputStream openRawBody() throws IOException {
+            if (getStatusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                InputStream errorStream = mUrlConnection.getErrorStream();
+                return errorStream != null ? errorStream : new ByteArrayInputStream(new byte[0]);
+            }
+            return mUrlConnection.getInputStream();
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+
+            /* Draining can block too, so the token can still abort it */
+            try {
+                release();
+            } finally {
+                if (mCancellationToken != null) {
+                    mCancellationToken.unregister(mAbort);
+                }
+            }
+        }
+
+        private void release() {
+            if (mCancellationToken != null && mCancellationToken.isCancelled()) {
+                mUrlConnection.disconnect();
+                return;
+            }
+
+            InputStream rawBody = mRawBody;
+            if (rawBody == null) {
+                try {
+                    rawBody = openRawBody();
+                } catch (IOException e) {
+                    mUrlConnection.disconnect();
+                    return;
+                }
+            }
+
+            if (!drainAndClose(rawBody)) {
+                mUrlConnection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts how long requests to one endpoint of the weather server take, in buckets that grow by
+ * 25% each, from 1 millisecond up to 2 minutes. That keeps the error of any percentile read
+ * back from the histogram within 25%, in a fixed amount of memory, however many requests are
+ * recorded.
+ * <p>
+ * Every endpoint's histogram lives for as long as the process does, and can be looked up with
+ * {@link #forEndpoint(URL)}.
+ */
+public class LatencyHistogram {
+
+    /* The upper bound, in milliseconds, of each bucket. Slower requests go in the last one. */
+    private static final long[] BUCKET_BOUNDS;
+
+    static {
+        long[] bounds = new long[64];
+        int count = 0;
+        double bound = 1;
+        while (bound < 2 * 60 * 1000) {
+            long rounded = Math.round(bound);
+            if (count == 0 || rounded > bounds[count - 1]) {
+                bounds[count++] = rounded;
+            }
+            bound *= 1.25;
+        }
+        bounds[count++] = Long.MAX_VALUE;
+
+        BUCKET_BOUNDS = new long[count];
+        System.arraycopy(bounds, 0, BUCKET_BOUNDS, 0, count);
+    }
+
+    private static final Map<String, LatencyHistogram> sHistogramsByEndpoint = new HashMap<>();
+
+    private final long[] mCounts = new long[BUCKET_BOUNDS.length];
+    private long mTotalCount;
+    private long mMaxMillis;
+
+    /**
+     * Returns the histogram for the endpoint a URL points at. URLs that only differ in their
+     * query (the location asked for, for example) share a histogram.
+     *
+     * @param url Any URL of the endpoint
+     * @return The endpoint's histogram, created empty the first time it is asked for
+     */
+    public static LatencyHistogram forEndpoint(URL url) {
+        String endpoint = getEndpoint(url);
+        synchronized (sHistogramsByEndpoint) {
+            LatencyHistogram histogram = sHistogramsByEndpoint.get(endpoint);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                sHistogramsByEndpoint.put(endpoint, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * @return The URL without its query or fragment, such as
+     * "https://andfun-weather.udacity.com:443/weather"
+     */
+    static String getEndpoint(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port + url.getPath();
+    }
+
+    /**
+     * Records the latency of one request.
+     *
+     * @param millis How long the request took, in milliseconds
+     */
+    public synchronized void record(long millis) {
+        long latency = Math.max(millis, 0);
+        int bucket = 0;
+        while (latency > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mTotalCount++;
+        mMaxMillis = Math.max(mMaxMillis, latency);
+    }
+
+    /**
+     * @return The number of latencies recorded so far
+     */
+    public synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the latency that the given fraction of requests completed within. For example,
+     * getPercentile(0.95) is the 95th percentile ("p95") latency.
+     *
+     * @param fraction Between 0 and 1
+     * @return The upper bound of the bucket the percentile falls in (never more than the slowest
+     * latency recorded), or -1 if nothing has been recorded yet
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (mTotalCount == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(fraction * mTotalCount);
+        rank = Math.max(1, Math.min(rank, mTotalCount));
+
+        long seen = 0;
+        for (int bucket = 0; bucket < mCounts.length; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS[bucket], mMaxMillis);
+            }
+        }
+        return mMaxMillis;
+    }
+
+    /**
+     * Forgets every latency recorded so far.
+     */
+    public synchronized void reset() {
+        for (int bucket = 0; bucket < mCounts.length; bucket++) {
+            mCounts[bucket] = 0;
+        }
+        mTotalCount = 0;
+        mMaxMillis = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LatencyHistogram{count=" + mTotalCount
+                + ", p50=" + getPercentile(0.5)
+                + "ms, p95=" + getPercentile(0.95)
+                + "ms, max=" + mMaxMillis + "ms}";
+    }
+}
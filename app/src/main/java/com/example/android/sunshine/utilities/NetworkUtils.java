@@ -16,17 +16,28 @@
 package com.example.android.sunshine.utilities;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
+import android.telephony.TelephonyManager;
 import android.util.Log;
 
+import com.example.android.sunshine.data.HttpValidatorStore;
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -56,6 +67,21 @@ public final class NetworkUtils {
 
     private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+    /*
+     * When hedged requests are enabled, this is where a request for the FORECAST_BASE_URL is sent
+     * if that endpoint is slower to answer than usual. See setHedgingEnabled.
+     */
+    private static final String BACKUP_BASE_URL = DYNAMIC_WEATHER_URL;
+
+    /*
+     * The fake weather server only has daily forecasts, so the 3-hour forecast comes from
+     * OpenWeatherMap itself. OpenWeatherMap wants an API key with every request, which Sunshine
+     * doesn't come with: put yours in OWM_APP_ID to turn the 3-hour forecast on.
+     */
+    private static final String HOURLY_FORECAST_URL =
+            "https://api.openweathermap.org/data/2.5/forecast";
+    private static final String OWM_APP_ID = "";
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -65,9 +91,39 @@ public final class NetworkUtils {
 
     /* The format we want our API to return */
     private static final String format = "json";
+
+    /**
+     * The formats the daily forecast can be asked for in. Whichever is asked for, the response
+     * is read according to what it holds, so a server that doesn't know the binary format may
+     * keep sending JSON.
+     */
+    public enum WireFormat {
+        /* The weather server's own format */
+        JSON("json"),
+        /* Sunshine's compact binary format, see ForecastCodec */
+        BINARY("sbf");
+
+        private final String mMode;
+
+        WireFormat(String mode) {
+            mMode = mode;
+        }
+
+        /**
+         * @return The value of the format parameter that asks for this format
+         */
+        public String getMode() {
+            return mMode;
+        }
+    }
+
+    private static volatile WireFormat sWireFormat = WireFormat.JSON;
     /* The units we want our API to return */
     private static final String units = "metric";
-    /* The number of days we want our API to return */
+    /*
+     * The number of days we want our API to return. This is the whole horizon of the forecast;
+     * syncs on metered or slow networks may ask for fewer days than this, see getUrl.
+     */
     private static final int numDays = 14;
 
     /* The query parameter allows us to provide a location string to the API */
@@ -82,6 +138,43 @@ public final class NetworkUtils {
     private static final String UNITS_PARAM = "units";
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
+    /* OpenWeatherMap's API key */
+    private static final String APP_ID_PARAM = "appid";
+
+    /* Headers used to make conditional requests and to read the validators for them */
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    /*
+     * Headers used to negotiate compression. Once we set Accept-Encoding ourselves,
+     * HttpURLConnection leaves decompression up to us, which is what lets us decompress the
+     * forecast while it streams into the parser and count the bytes on both sides.
+     */
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    /**
+     * Selects the format every daily forecast URL asks for from now on. The default is
+     * {@link WireFormat#JSON}, the only one the real weather server speaks. The 3-hour forecast
+     * is always asked for in JSON.
+     *
+     * @param wireFormat The format to ask for
+     */
+    public static void setWireFormat(WireFormat wireFormat) {
+        sWireFormat = wireFormat;
+    }
+
+    /**
+     * @return The format daily forecast URLs ask for
+     */
+    public static WireFormat getWireFormat() {
+        return sWireFormat;
+    }
 
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
@@ -98,14 +191,105 @@ public final class NetworkUtils {
      * @return URL to query weather service
      */
     public static URL getUrl(Context context) {
+        return getUrl(context, numDays);
+    }
+
+    /**
+     * @return The number of days of the forecast {@link #getUrl(Context)} asks for, starting
+     * today
+     */
+    public static int getForecastDays() {
+        return numDays;
+    }
+
+    /**
+     * Works like {@link #getUrl(Context)}, but asks for a forecast of the given number of days,
+     * starting today, rather than the whole horizon.
+     *
+     * @param context used to access other Utility methods
+     * @param days    The number of days of forecast to ask for
+     * @return URL to query weather service
+     */
+    public static URL getUrl(Context context, int days) {
         if (SunshinePreferences.isLocationLatLonAvailable(context)) {
             double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
             double latitude = preferredCoordinates[0];
             double longitude = preferredCoordinates[1];
-            return buildUrlWithLatitudeLongitude(latitude, longitude);
+            return buildUrlWithLatitudeLongitude(latitude, longitude, days);
         } else {
             String locationQuery = SunshinePreferences.getPreferredWeatherLocation(context);
-            return buildUrlWithLocationQuery(locationQuery);
+            return buildUrlWithLocationQuery(locationQuery, days);
+        }
+    }
+
+    /**
+     * Tells whether the device is on a network where every byte counts, either because the
+     * user pays for it (mobile data, a hotspot) or because it is a slow, 2G-class connection.
+     * Syncs on such networks download only the part of the forecast that matters most.
+     *
+     * @param context Used to access the ConnectivityManager
+     * @return true if the active network is metered or slow
+     */
+    public static boolean isNetworkConstrained(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        if (connectivityManager.isActiveNetworkMetered()) {
+            return true;
+        }
+
+        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+        if (activeNetwork == null || activeNetwork.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return false;
+        }
+        switch (activeNetwork.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Retrieves the URL of the 3-hour forecast for the preferred location, which covers the
+     * next 5 days.
+     *
+     * @param context used to access other Utility methods
+     * @return URL to query for the 3-hour forecast, or null if there's no API key for it
+     */
+    public static URL getHourlyUrl(Context context) {
+        if (OWM_APP_ID.isEmpty()) {
+            return null;
+        }
+
+        Uri.Builder builder = Uri.parse(HOURLY_FORECAST_URL).buildUpon();
+        if (SunshinePreferences.isLocationLatLonAvailable(context)) {
+            double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
+            builder.appendQueryParameter(LAT_PARAM, String.valueOf(preferredCoordinates[0]))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(preferredCoordinates[1]));
+        } else {
+            builder.appendQueryParameter(QUERY_PARAM,
+                    SunshinePreferences.getPreferredWeatherLocation(context));
+        }
+        Uri hourlyQueryUri = builder
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(APP_ID_PARAM, OWM_APP_ID)
+                .build();
+
+        try {
+            URL hourlyQueryUrl = new URL(hourlyQueryUri.toString());
+            Log.v(TAG, "URL: " + hourlyQueryUrl);
+            return hourlyQueryUrl;
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
@@ -115,15 +299,17 @@ public final class NetworkUtils {
      *
      * @param latitude  The latitude of the location
      * @param longitude The longitude of the location
+     * @param days      The number of days of forecast to ask for
      * @return The Url to use to query the weather server.
      */
-    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
+    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude,
+                                                     int days) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
-                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(FORMAT_PARAM, sWireFormat.getMode())
                 .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(days))
                 .build();
 
         try {
@@ -143,12 +329,23 @@ public final class NetworkUtils {
      * @param locationQuery The location that will be queried for.
      * @return The URL to use to query the weather server.
      */
-    private static URL buildUrlWithLocationQuery(String locationQuery) {
+    public static URL buildUrlWithLocationQuery(String locationQuery) {
+        return buildUrlWithLocationQuery(locationQuery, numDays);
+    }
+
+    /**
+     * Works like {@link #buildUrlWithLocationQuery(String)}, for the given number of days.
+     *
+     * @param locationQuery The location that will be queried for.
+     * @param days          The number of days of forecast to ask for
+     * @return The URL to use to query the weather server.
+     */
+    private static URL buildUrlWithLocationQuery(String locationQuery, int days) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
-                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(FORMAT_PARAM, sWireFormat.getMode())
                 .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(days))
                 .build();
 
         try {
@@ -162,29 +359,284 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Consumes the body of an HTTP response as it streams in from the network. Implementations
+     * are handed the connection's InputStream directly, so they can decode the response without
+     * ever holding all of it in memory at once.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response, null if no response
+     * @param <T> The type of object decoded from the response
+     */
+    public interface ResponseHandler<T> {
+        T handleResponse(InputStream in) throws IOException;
+    }
+
+    /*
+     * The transport used to talk to the weather server. By default, it keeps connections alive
+     * between requests so that back to back syncs don't each pay for a new handshake.
+     */
+    private static volatile WeatherTransport sTransport = new KeepAliveHttpTransport();
+
+    /**
+     * Replaces the transport used for every request made through NetworkUtils. This is how
+     * tests and benchmarks run the sync without a network, using {@link FakeWeatherTransport}.
+     *
+     * @param transport The transport to use from now on
+     */
+    public static synchronized void setTransport(WeatherTransport transport) {
+        sTransport = transport;
+    }
+
+    /**
+     * Turns hedged requests on or off (they are off by default). With hedging on, a request that
+     * the weather server hasn't answered by its usual 95th percentile latency is also sent to
+     * the other weather endpoint, and whichever answers first wins. See {@link HedgedTransport}.
+     * <p>
+     * Hedging wraps the transport in use, so whatever it was set up with, such as its timeouts,
+     * still applies. Turning it off again goes back to that transport.
+     *
+     * @param enabled Whether to send hedged requests
+     */
+    public static synchronized void setHedgingEnabled(boolean enabled) {
+        WeatherTransport transport = sTransport;
+        boolean hedged = transport instanceof HedgedTransport;
+        if (enabled && !hedged) {
+            sTransport = new HedgedTransport(transport, FORECAST_BASE_URL, BACKUP_BASE_URL);
+        } else if (!enabled && hedged) {
+            sTransport = ((HedgedTransport) transport).getDelegate();
+        }
+    }
+
+    /**
+     * @return The transport currently used for every request made through NetworkUtils
+     */
+    public static WeatherTransport getTransport() {
+        return sTransport;
+    }
+
+    /**
+     * Opens a connection to the given URL and hands the body of the response to the provided
+     * handler. The stream given to the handler is buffered using a pooled buffer (see
+     * {@link ByteArrayPool}) and is closed once the handler returns.
+     * <p>
+     * If the calling thread is bound to a {@link CancellationToken}, cancelling it drops the
+     * connection, and this throws an InterruptedIOException.
+     *
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response
+     * @param <T>     The type of object the handler decodes from the response
+     * @return Whatever the handler returned
      * @throws IOException Related to network and stream reading
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+    public static <T> T getResponseFromHttpUrl(URL url, ResponseHandler<T> handler)
+            throws IOException {
+        WeatherResponse response = execute(url, Collections.<String, String>emptyMap());
+        InputStream in = null;
+        try {
+            checkStatusCode(url, response.getStatusCode());
+            in = new PooledBufferedInputStream(response.getBody());
+            return handler.handleResponse(in);
+        } catch (IOException e) {
+            throw CancellationToken.translate(e);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            response.close();
+        }
+    }
+
+    /**
+     * Works like {@link #getResponseFromHttpUrl(URL, ResponseHandler)}, but also takes care of
+     * HTTP validators. The ETag and Last-Modified values of every response the handler accepts
+     * (returns non-null for) are stored in {@link HttpValidatorStore}. If asked to, they are sent
+     * back on the next request for the same URL. If the server then answers "304 Not Modified",
+     * the handler is never called at all.
+     *
+     * @param context     Used to access the stored validators
+     * @param url         The URL to fetch the HTTP response from.
+     * @param conditional true to send stored validators with the request. Only pass true if the
+     *                    data last returned for this URL is still in use, since a 304 means
+     *                    "what you already have is current".
+     * @param handler     Consumes the body of the response
+     * @param <T>         The type of object the handler decodes from the response
+     * @return Whatever the handler returned, or null if the server reported that nothing changed
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> T getResponseFromHttpUrl(Context context, URL url, boolean conditional,
+                                               ResponseHandler<T> handler) throws IOException {
+        return getResponseFromHttpUrl(context, url, conditional, null, handler);
+    }
+
+    /**
+     * Works like {@link #getResponseFromHttpUrl(Context, URL, boolean, ResponseHandler)}, and
+     * also fills in the given TransferStats with the number of bytes that came over the wire and
+     * the number of bytes handed to the handler.
+     * <p>
+     * The server is told that we accept gzip and deflate compressed responses. A compressed
+     * response is decompressed as it is read by the handler, never all at once.
+     *
+     * @param stats Filled in with byte counts once the handler is done. May be null.
+     * @see #getResponseFromHttpUrl(Context, URL, boolean, ResponseHandler)
+     */
+    public static <T> T getResponseFromHttpUrl(Context context, URL url, boolean conditional,
+                                               TransferStats stats, ResponseHandler<T> handler)
+            throws IOException {
+        String urlString = url.toString();
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        requestHeaders.put(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+
+        if (conditional) {
+            String eTag = HttpValidatorStore.getETag(context, urlString);
+            String lastModified = HttpValidatorStore.getLastModified(context, urlString);
+            if (eTag != null) {
+                requestHeaders.put(HEADER_IF_NONE_MATCH, eTag);
+            }
+            if (lastModified != null) {
+                requestHeaders.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        WeatherResponse response = execute(url, requestHeaders);
+        CountingInputStream compressedIn = null;
+        CountingInputStream uncompressedIn = null;
+        InputStream in = null;
         try {
-            InputStream in = urlConnection.getInputStream();
+            int statusCode = response.getStatusCode();
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.v(TAG, "Not modified: " + urlString);
+                return null;
+            }
+            checkStatusCode(url, statusCode);
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+            String contentEncoding = response.getHeader(HEADER_CONTENT_ENCODING);
+            compressedIn = new CountingInputStream(response.getBody());
+            uncompressedIn = new CountingInputStream(decode(compressedIn, contentEncoding));
+            in = new PooledBufferedInputStream(uncompressedIn);
+
+            T result = handler.handleResponse(in);
+
+            if (stats != null) {
+                stats.contentEncoding = contentEncoding;
+                stats.compressedBytes = compressedIn.getCount();
+                stats.uncompressedBytes = uncompressedIn.getCount();
+            }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+            /*
+             * Only remember the validators of responses that were actually used. Otherwise, a
+             * 304 for a response we rejected would stop us from ever getting good data again.
+             */
+            if (result != null) {
+                /* Once stopped, we won't use the response, so it mustn't be vouched for */
+                CancellationToken.throwIfCurrentCancelled();
+                HttpValidatorStore.saveValidators(context, urlString,
+                        response.getHeader(HEADER_ETAG),
+                        response.getHeader(HEADER_LAST_MODIFIED));
             }
-            scanner.close();
-            return response;
+            return result;
+        } catch (IOException e) {
+            throw CancellationToken.translate(e);
         } finally {
-            urlConnection.disconnect();
+            if (in != null) {
+                in.close();
+            } else if (compressedIn != null) {
+                compressedIn.close();
+            }
+            response.close();
+        }
+    }
+
+    /**
+     * Sends a request through the current transport, unless the work it is for has been
+     * cancelled. See {@link CancellationToken}.
+     */
+    private static WeatherResponse execute(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        CancellationToken.throwIfCurrentCancelled();
+        try {
+            return sTransport.execute(url, requestHeaders);
+        } catch (IOException e) {
+            throw CancellationToken.translate(e);
+        }
+    }
+
+    /**
+     * Error responses don't contain a forecast, so there is no point in handing them to a
+     * parser. HttpURLConnection used to take care of this by throwing from getInputStream.
+     *
+     * @throws FileNotFoundException If the server couldn't find what we asked for
+     * @throws HttpStatusException   For any other error status
+     */
+    private static void checkStatusCode(URL url, int statusCode) throws IOException {
+        if (statusCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException(url.toString());
+        }
+        if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new HttpStatusException(statusCode, "HTTP " + statusCode + " for " + url);
+        }
+    }
+
+    /**
+     * Wraps the body of a response so that reading from it yields the decompressed content.
+     *
+     * @param in              The body of the response, as sent by the server
+     * @param contentEncoding The value of the response's Content-Encoding header, may be null
+     * @return A stream of the decompressed body
+     * @throws IOException If the server used an encoding we never asked for
+     */
+    private static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
         }
+
+        String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        switch (encoding) {
+            case ENCODING_GZIP:
+                return new GZIPInputStream(in, ByteArrayPool.BUFFER_SIZE);
+
+            /* HTTP's "deflate" is a zlib wrapped stream, which InflaterInputStream expects */
+            case ENCODING_DEFLATE:
+                return new InflaterInputStream(in);
+
+            case "":
+            case "identity":
+                return in;
+
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response.
+     * <p>
+     * Sunshine's sync no longer uses this method, as it decodes the forecast straight from the
+     * network stream using {@link #getResponseFromHttpUrl(URL, ResponseHandler)}. It is kept
+     * for callers that really do want the whole response as a String.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static String getResponseFromHttpUrl(URL url) throws IOException {
+        return getResponseFromHttpUrl(url, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(InputStream in) throws IOException {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = ByteArrayPool.acquire();
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        response.write(buffer, 0, read);
+                    }
+                } finally {
+                    ByteArrayPool.release(buffer);
+                }
+
+                if (response.size() == 0) {
+                    return null;
+                }
+                return response.toString("UTF-8");
+            }
+        });
     }
-}
\ No newline at end of file
+}
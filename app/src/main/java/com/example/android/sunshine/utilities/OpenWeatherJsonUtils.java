@@ -17,14 +17,24 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HourlyForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 
 /**
@@ -43,6 +53,9 @@ public final class OpenWeatherJsonUtils {
     /* Weather information. Each day's forecast info is an element of the "list" array */
     private static final String OWM_LIST = "list";
 
+    /* The time of each day's forecast (or each entry of the 3-hour forecast), in seconds */
+    private static final String OWM_TIME = "dt";
+
     private static final String OWM_PRESSURE = "pressure";
     private static final String OWM_HUMIDITY = "humidity";
     private static final String OWM_WINDSPEED = "speed";
@@ -60,6 +73,58 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * Each entry of the 3-hour forecast's "list" groups its values into the "main" and "wind"
+     * objects. "weather" is the same as in the daily forecast.
+     */
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_TEMPERATURE_MIN = "temp_min";
+    private static final String OWM_TEMPERATURE_MAX = "temp_max";
+
+    /*
+     * How much of a response is scanned for the message code before parsing starts. Error
+     * responses are tiny, and in a forecast the code follows the "city" object, which is well
+     * under this size.
+     */
+    private static final int SNIFF_LENGTH = 512;
+
+    /* Returned by sniffMessageCode when the code isn't within the bytes it was given */
+    static final int MESSAGE_CODE_UNKNOWN = -1;
+
+    /**
+     * The parsers getForecastFromStream can use.
+     */
+    public enum Parser {
+        /* Pulls each value off the stream as it arrives, and never holds the whole response */
+        STREAMING,
+        /*
+         * Reads the whole response into a String, and then into a tree of JSONObjects, before
+         * picking out the values. This is how Sunshine used to parse every forecast. It is kept
+         * as a fallback, and as a baseline to measure the streaming parser against.
+         */
+        DOM
+    }
+
+    private static volatile Parser sParser = Parser.STREAMING;
+
+    /**
+     * Selects the parser used by every call to getForecastFromStream from now on. Both
+     * produce identical forecasts, and the default is {@link Parser#STREAMING}.
+     *
+     * @param parser The parser to use
+     */
+    public static void setParser(Parser parser) {
+        sParser = parser;
+    }
+
+    /**
+     * @return The parser used by getForecastFromStream
+     */
+    public static Parser getParser() {
+        return sParser;
+    }
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -77,21 +142,25 @@ public final class OpenWeatherJsonUtils {
     public static ContentValues[] getWeatherContentValuesFromJson(Context context, String forecastJsonStr)
             throws JSONException {
 
+        return toContentValues(context, readForecastFromJson(forecastJsonStr));
+    }
+
+    /**
+     * Does the parsing for getWeatherContentValuesFromJson, building the whole JSON tree in
+     * memory before walking it.
+     */
+    private static ForecastResult readForecastFromJson(String forecastJsonStr)
+            throws JSONException {
+
         JSONObject forecastJson = new JSONObject(forecastJsonStr);
 
         /* Is there an error? */
         if (forecastJson.has(OWM_MESSAGE_CODE)) {
             int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
 
-            switch (errorCode) {
-                case HttpURLConnection.HTTP_OK:
-                    break;
-                case HttpURLConnection.HTTP_NOT_FOUND:
-                    /* Location invalid */
-                    return null;
-                default:
-                    /* Server probably down */
-                    return null;
+            /* Location invalid or server probably down, see ForecastResult.error */
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return ForecastResult.error(errorCode);
             }
         }
 
@@ -103,20 +172,7 @@ public final class OpenWeatherJsonUtils {
         double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
         double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-        SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
-
-        ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
-
-        /*
-         * OWM returns daily forecasts based upon the local time of the city that is being asked
-         * for, which means that we need to know the GMT offset to translate this data properly.
-         * Since this data is also sent in-order and the first day is always the current day, we're
-         * going to take advantage of that to get a nice normalized UTC date for all of our weather.
-         */
-//        long now = System.currentTimeMillis();
-//        long normalizedUtcStartDay = SunshineDateUtils.normalizeDate(now);
-
-        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ForecastBatch forecast = new ForecastBatch(jsonWeatherArray.length());
 
         for (int i = 0; i < jsonWeatherArray.length(); i++) {
 
@@ -135,10 +191,12 @@ public final class OpenWeatherJsonUtils {
             JSONObject dayForecast = jsonWeatherArray.getJSONObject(i);
 
             /*
-             * We ignore all the datetime values embedded in the JSON and assume that
-             * the values are returned in-order by day (which is not guaranteed to be correct).
+             * OWM sends the time of each day's forecast in seconds, at noon local time of the
+             * city being asked for. We store the day that time falls on, which doesn't depend on
+             * the day the forecast is parsed, nor on the order of the days.
              */
-            dateTimeMillis = normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i;
+            dateTimeMillis = SunshineDateUtils.getNormalizedLocalDate(
+                    dayForecast.getLong(OWM_TIME) * 1000);
 
             pressure = dayForecast.getDouble(OWM_PRESSURE);
             humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -166,19 +224,906 @@ public final class OpenWeatherJsonUtils {
             high = temperatureObject.getDouble(OWM_MAX);
             low = temperatureObject.getDouble(OWM_MIN);
 
-            ContentValues weatherValues = new ContentValues();
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                    windDirection);
+        }
+
+        return ForecastResult.ok(forecast, cityLatitude, cityLongitude);
+    }
+
+    /**
+     * Parses the forecast straight from a stream of JSON, such as the body of an HTTP response.
+     * Unlike {@link #getWeatherContentValuesFromJson(Context, String)}, this method never holds
+     * the whole response in memory. It makes a single forward pass over the JSON and appends
+     * each day to the forecast as soon as that day has been read. (That is, unless the DOM
+     * parser was selected with {@link #setParser(Parser)}.)
+     * <p>
+     * Before any parsing, the first few hundred bytes are scanned for the server's message
+     * code. If the server reported an error there, the rest of the stream is never read.
+     * A forecast the server sent in the binary format instead is decoded with
+     * {@link ForecastCodec}.
+     * <p>
+     * This method has no side effects. In particular, the coordinates of the forecast's city are
+     * returned rather than stored, so that parsing may be repeated, cached or run on several
+     * threads at once. Storing them is up to whoever stores the forecast.
+     *
+     * @param in Stream of JSON from the server. It is not closed by this method.
+     *
+     * @return The forecast and its city's coordinates, or the error the server reported instead
+     *
+     * @throws IOException If the stream can't be read or doesn't contain a valid forecast
+     */
+    public static ForecastResult getForecastFromStream(InputStream in) throws IOException {
+        return readForecast(in, FIELD_ALL);
+    }
+
+    /**
+     * Works like {@link #getForecastFromStream(InputStream)}, but only decodes the values of
+     * the columns in projection. The values of every other key are skipped over without being
+     * converted into numbers, and the "weather" and "temp" objects of each day are only walked
+     * if one of their columns is needed. Columns left out of the projection are 0 in the
+     * returned forecast, so such a forecast is meant for display, never for WeatherProvider.
+     * The city isn't decoded either, so the result has no coordinates.
+     * <p>
+     * This always uses the streaming parser, whatever {@link #setParser(Parser)} selected, as
+     * the DOM parser has decoded everything before it gets to pick anything out.
+     *
+     * @param in         Stream of JSON from the server. It is not closed by this method.
+     * @param projection The WeatherEntry columns the caller needs. The date is always there.
+     *
+     * @return The forecast, or the error the server reported instead
+     *
+     * @throws IOException If the stream can't be read or is missing one of the columns needed
+     */
+    public static ForecastResult getForecastFromStream(InputStream in, String[] projection)
+            throws IOException {
+        return readForecast(in, getFields(projection));
+    }
+
+    /**
+     * Consumes the entries of a 3-hour forecast in chunks, as {@link #streamHourlyForecast}
+     * decodes them.
+     */
+    public interface HourlyForecastHandler {
+
+        /**
+         * Called each time the chunk is full, and once more for the last entries if they don't
+         * fill it. The chunk is cleared and refilled as soon as this returns, so anything that
+         * is needed from it must be used or copied by then.
+         *
+         * @param chunk The entries decoded since the last call
+         * @throws IOException To stop decoding, which then throws the same exception
+         */
+        void handleChunk(HourlyForecastBatch chunk) throws IOException;
+    }
+
+    /**
+     * Decodes a 3-hour forecast in a single forward pass over the stream, handing its entries
+     * to handler one chunk at a time. Only one chunk of the forecast is ever held in memory, no
+     * matter how many entries the response holds.
+     * <p>
+     * Each entry's date is the local day it falls on, normalized like those of the daily
+     * forecast, so that one day's entries can be picked out to go with that day's forecast.
+     * <p>
+     * The message code is sniffed out of the start of the stream first, so an error is reported
+     * before anything reaches handler.
+     *
+     * @param in      Stream of JSON from the server. It is not closed by this method.
+     * @param chunk   Filled with entries and handed to handler each time it is full. Its
+     *                capacity is the size of every chunk but the last.
+     * @param handler Consumes each chunk
+     *
+     * @return A result whose status tells whether the forecast was decoded. It never holds the
+     * forecast itself, as that went to handler.
+     *
+     * @throws IOException If the stream can't be read or doesn't contain a valid forecast, or if
+     *                     handler threw one. Chunks handled before that are not taken back.
+     */
+    public static ForecastResult streamHourlyForecast(InputStream in, HourlyForecastBatch chunk,
+                                                      HourlyForecastHandler handler)
+            throws IOException {
+        byte[] head = ByteArrayPool.acquire();
+        try {
+            int length = readHead(in, head, SNIFF_LENGTH);
+            int messageCode = sniffMessageCode(head, length);
+            if (messageCode != MESSAGE_CODE_UNKNOWN
+                    && messageCode != HttpURLConnection.HTTP_OK) {
+                return ForecastResult.error(messageCode);
+            }
+
+            InputStream json = new SequenceInputStream(
+                    new ByteArrayInputStream(head, 0, length), in);
+            try {
+                return readHourlyForecastFromStream(json, chunk, handler);
+            } catch (IllegalStateException | NumberFormatException e) {
+                /* See readForecast */
+                throw new MalformedJsonException(e.getMessage());
+            }
+        } finally {
+            ByteArrayPool.release(head);
+        }
+    }
+
+    /**
+     * Works like {@link #getForecastFromStream(InputStream)}, for callers that need the
+     * forecast as ContentValues. Unlike it, this stores the coordinates of the forecast's city
+     * in preferences. The ContentValues produced are identical to those of
+     * {@link #getWeatherContentValuesFromJson(Context, String)}.
+     *
+     * @param context Used to store the coordinates of the forecast's city
+     * @param in      Stream of JSON from the server. It is not closed by this method.
+     *
+     * @return Array of ContentValues, one per day, or null if the server reported an error
+     *
+     * @throws IOException If the stream can't be read or doesn't contain a valid forecast
+     */
+    public static ContentValues[] getWeatherContentValuesFromStream(Context context, InputStream in)
+            throws IOException {
+        return toContentValues(context, getForecastFromStream(in));
+    }
+
+    /**
+     * Stores the coordinates of a successfully parsed forecast, and converts it to ContentValues.
+     *
+     * @return The forecast as ContentValues, or null if the server reported an error
+     */
+    private static ContentValues[] toContentValues(Context context, ForecastResult result) {
+        ForecastBatch forecast = result.getForecast();
+        if (forecast == null) {
+            return null;
+        }
+        SunshinePreferences.setLocationDetails(context, result.getLatitude(),
+                result.getLongitude());
+        return forecast.toContentValues();
+    }
+
+    /**
+     * Works like {@link #getForecastFromStream(InputStream)}, for callers that need the forecast
+     * as ContentValues. The coordinates of the forecast's city are thrown away.
+     *
+     * @param in Stream of JSON from the server. It is not closed by this method.
+     *
+     * @return Array of ContentValues, one per day, or null if the server reported an error
+     *
+     * @throws IOException If the stream can't be read or doesn't contain a valid forecast
+     */
+    public static ContentValues[] getWeatherContentValuesFromStream(InputStream in)
+            throws IOException {
+        ForecastBatch forecast = getForecastFromStream(in).getForecast();
+        return forecast == null ? null : forecast.toContentValues();
+    }
+
+    /**
+     * Converts a projection of WeatherEntry columns into FIELD_ bits.
+     *
+     * @throws IllegalArgumentException If a column isn't one the parser produces
+     */
+    private static int getFields(String[] projection) {
+        int fields = 0;
+        for (String column : projection) {
+            switch (column) {
+                case WeatherEntry.COLUMN_DATE:
+                    /* Always parsed, every day needs one, see readDailyForecast */
+                    break;
+                case WeatherEntry.COLUMN_PRESSURE:
+                    fields |= FIELD_PRESSURE;
+                    break;
+                case WeatherEntry.COLUMN_HUMIDITY:
+                    fields |= FIELD_HUMIDITY;
+                    break;
+                case WeatherEntry.COLUMN_WIND_SPEED:
+                    fields |= FIELD_WIND_SPEED;
+                    break;
+                case WeatherEntry.COLUMN_DEGREES:
+                    fields |= FIELD_WIND_DIRECTION;
+                    break;
+                case WeatherEntry.COLUMN_WEATHER_ID:
+                    fields |= FIELD_WEATHER_ID;
+                    break;
+                case WeatherEntry.COLUMN_MAX_TEMP:
+                case WeatherEntry.COLUMN_MIN_TEMP:
+                    fields |= FIELD_TEMPERATURES;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown column: " + column);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Does the parsing for every getForecastFromStream method. The message code is sniffed out
+     * of the start of the stream first, and then the whole stream is handed to whichever parser
+     * was selected with {@link #setParser(Parser)}.
+     * <p>
+     * A forecast in the binary format (see {@link ForecastCodec}) is recognized by its first
+     * bytes and decoded in full whatever the fields, which costs less than skipping over JSON.
+     * That way a forecast is read the same whichever format the server answered in, or the
+     * response cache held.
+     *
+     * @param fields FIELD_ bits of the values to decode for each day. The DOM parser is only
+     *               used when all of them are needed.
+     */
+    private static ForecastResult readForecast(InputStream in, int fields) throws IOException {
+        byte[] head = ByteArrayPool.acquire();
+        try {
+            int length = readHead(in, head, SNIFF_LENGTH);
+            if (ForecastCodec.isEncoded(head, length)) {
+                return ForecastCodec.decode(new SequenceInputStream(
+                        new ByteArrayInputStream(head, 0, length), in));
+            }
+
+            int messageCode = sniffMessageCode(head, length);
+            if (messageCode != MESSAGE_CODE_UNKNOWN
+                    && messageCode != HttpURLConnection.HTTP_OK) {
+                /* No need to read, let alone parse, the rest of it */
+                return ForecastResult.error(messageCode);
+            }
+
+            /* The parsers need the whole response, including the bytes we already read */
+            InputStream json = new SequenceInputStream(
+                    new ByteArrayInputStream(head, 0, length), in);
+
+            if (sParser == Parser.DOM && fields == FIELD_ALL) {
+                try {
+                    return readForecastFromJson(readFully(json));
+                } catch (JSONException e) {
+                    throw new MalformedJsonException(e.getMessage());
+                }
+            }
+            try {
+                return readForecastFromStream(json, fields);
+            } catch (IllegalStateException | NumberFormatException e) {
+                /*
+                 * JsonReader reports a value of the wrong type, such as a String where a number
+                 * or an object should be, with these. Like the DOM parser, we report any such
+                 * response as malformed rather than let them escape.
+                 */
+                throw new MalformedJsonException(e.getMessage());
+            }
+        } finally {
+            ByteArrayPool.release(head);
+        }
+    }
+
+    /**
+     * Reads from the stream until buffer holds length bytes, or the stream ends.
+     *
+     * @return The number of bytes read
+     */
+    private static int readHead(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Finds the server's message code ("cod") among the keys of the top level object, without
+     * parsing anything else. The JSON may be cut off anywhere, in which case the code may not
+     * be found.
+     *
+     * @param json   The start of a response
+     * @param length The number of bytes of json to look at
+     * @return The message code, or MESSAGE_CODE_UNKNOWN if it isn't within the bytes given
+     * @throws MalformedJsonException If the response isn't a JSON object at all
+     */
+    static int sniffMessageCode(byte[] json, int length) throws MalformedJsonException {
+        int i = skipWhitespace(json, 0, length);
+        if (i == length) {
+            return MESSAGE_CODE_UNKNOWN;
+        }
+        if (json[i] != '{') {
+            throw new MalformedJsonException("Expected a JSON object");
+        }
+
+        int depth = 0;
+        boolean expectingKey = false;
+        for (; i < length; i++) {
+            switch (json[i]) {
+                case '{':
+                    depth++;
+                    expectingKey = depth == 1;
+                    break;
+
+                case '[':
+                    depth++;
+                    break;
+
+                case '}':
+                case ']':
+                    depth--;
+                    if (depth == 0) {
+                        /* The whole object has been scanned, and there was no code in it */
+                        return MESSAGE_CODE_UNKNOWN;
+                    }
+                    break;
+
+                case ',':
+                    expectingKey = depth == 1;
+                    break;
+
+                case '"':
+                    int end = findEndOfString(json, i + 1, length);
+                    if (end == -1) {
+                        return MESSAGE_CODE_UNKNOWN;
+                    }
+                    if (expectingKey) {
+                        expectingKey = false;
+                        if (isKey(json, i + 1, end, OWM_MESSAGE_CODE)) {
+                            return readMessageCode(json, end + 1, length);
+                        }
+                    }
+                    i = end;
+                    break;
+            }
+        }
+        return MESSAGE_CODE_UNKNOWN;
+    }
+
+    /**
+     * Reads the value of "cod", which the server sends as either a number or a String.
+     *
+     * @param i Index of the first byte after the key's closing quote
+     */
+    private static int readMessageCode(byte[] json, int i, int length) {
+        i = skipWhitespace(json, i, length);
+        if (i == length || json[i] != ':') {
+            return MESSAGE_CODE_UNKNOWN;
+        }
+        i = skipWhitespace(json, i + 1, length);
+        if (i < length && json[i] == '"') {
+            i++;
+        }
+
+        int messageCode = 0;
+        int digits = 0;
+        while (i < length && json[i] >= '0' && json[i] <= '9' && digits < 9) {
+            messageCode = messageCode * 10 + (json[i] - '0');
+            digits++;
+            i++;
+        }
+
+        /* If the digits run into the end of the buffer, there may be more of them */
+        if (digits == 0 || i == length) {
+            return MESSAGE_CODE_UNKNOWN;
+        }
+        return messageCode;
+    }
+
+    private static int skipWhitespace(byte[] json, int i, int length) {
+        while (i < length
+                && (json[i] == ' ' || json[i] == '\n' || json[i] == '\r' || json[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param i Index of the first byte inside the String
+     * @return Index of the String's closing quote, or -1 if it isn't within length
+     */
+    private static int findEndOfString(byte[] json, int i, int length) {
+        while (i < length) {
+            if (json[i] == '\\') {
+                i += 2;
+            } else if (json[i] == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the bytes from start to end spell out key, which is plain ASCII
+     */
+    private static boolean isKey(byte[] json, int start, int end, String key) {
+        if (end - start != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (json[start + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            weatherContentValues[i] = weatherValues;
+    /**
+     * Reads what's left of a stream into a String, as the DOM parser needs all of it at once.
+     */
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        byte[] buffer = ByteArrayPool.acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                json.write(buffer, 0, read);
+            }
+        } finally {
+            ByteArrayPool.release(buffer);
         }
+        return json.toString("UTF-8");
+    }
+
+    /**
+     * Parses a forecast in a single forward pass over the stream, with a JsonReader.
+     *
+     * @param fields FIELD_ bits of the values to decode for each day. Unless all of them are
+     *               needed, the "city" object is skipped, and may be missing.
+     */
+    private static ForecastResult readForecastFromStream(InputStream in, int fields)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        int messageCode = HttpURLConnection.HTTP_OK;
+        double[] coordinates = null;
+        ForecastBatch forecast = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case OWM_MESSAGE_CODE:
+                    messageCode = reader.nextInt();
+                    break;
+
+                case OWM_CITY:
+                    if (fields == FIELD_ALL) {
+                        coordinates = readCityCoordinates(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+
+                case OWM_LIST:
+                    forecast = readDailyForecasts(reader, fields);
+                    break;
+
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        /* Is there an error? Location invalid or server probably down */
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            return ForecastResult.error(messageCode);
+        }
+
+        if (forecast == null) {
+            throw new MalformedJsonException("No value for " + OWM_LIST);
+        }
+
+        if (fields != FIELD_ALL) {
+            return ForecastResult.ok(forecast, Double.NaN, Double.NaN);
+        }
+        if (coordinates == null) {
+            throw new MalformedJsonException("No value for " + OWM_COORD);
+        }
+        return ForecastResult.ok(forecast, coordinates[0], coordinates[1]);
+    }
+
+    /**
+     * Reads the "city" object and returns the latitude and longitude found in its "coord"
+     * object, skipping over everything else.
+     *
+     * @return An array containing the latitude and longitude, or null if there were no "coord"
+     */
+    private static double[] readCityCoordinates(JsonReader reader) throws IOException {
+        double[] coordinates = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!OWM_COORD.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+
+            boolean hasLatitude = false;
+            boolean hasLongitude = false;
+            coordinates = new double[2];
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_LATITUDE.equals(name)) {
+                    coordinates[0] = reader.nextDouble();
+                    hasLatitude = true;
+                } else if (OWM_LONGITUDE.equals(name)) {
+                    coordinates[1] = reader.nextDouble();
+                    hasLongitude = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!hasLatitude || !hasLongitude) {
+                throw new MalformedJsonException("Incomplete value for " + OWM_COORD);
+            }
+        }
+        reader.endObject();
+
+        return coordinates;
+    }
+
+    /**
+     * Reads the "list" array, appending each day to a ForecastBatch as it goes.
+     *
+     * @param fields FIELD_ bits of the values to decode for each day
+     */
+    private static ForecastBatch readDailyForecasts(JsonReader reader, int fields)
+            throws IOException {
+        ForecastBatch forecast = new ForecastBatch();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDailyForecast(reader, fields, forecast);
+        }
+        reader.endArray();
+
+        return forecast;
+    }
+
+    /*
+     * Bits for the values of a day's forecast. They tell the parser which values to decode, and
+     * are used to make sure every value we need was present.
+     */
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_WEATHER_ID = 1 << 4;
+    private static final int FIELD_TEMPERATURES = 1 << 5;
+    private static final int FIELD_ALL = (1 << 6) - 1;
+
+    /**
+     * @return The FIELD_ bit of a key in a day's forecast object, or 0 for keys we don't use
+     */
+    private static int getField(String name) {
+        switch (name) {
+            case OWM_PRESSURE:
+                return FIELD_PRESSURE;
+            case OWM_HUMIDITY:
+                return FIELD_HUMIDITY;
+            case OWM_WINDSPEED:
+                return FIELD_WIND_SPEED;
+            case OWM_WIND_DIRECTION:
+                return FIELD_WIND_DIRECTION;
+            case OWM_WEATHER:
+                return FIELD_WEATHER_ID;
+            case OWM_TEMPERATURE:
+                return FIELD_TEMPERATURES;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reads a single day's forecast object and appends it to the forecast. Values that aren't
+     * in fields are skipped, and left as 0. The date is always decoded, see
+     * readForecastFromJson.
+     *
+     * @param fields FIELD_ bits of the values to decode
+     */
+    private static void readDailyForecast(JsonReader reader, int fields, ForecastBatch forecast)
+            throws IOException {
+        long dateTimeMillis = 0;
+        boolean hasDate = false;
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                dateTimeMillis = SunshineDateUtils.getNormalizedLocalDate(reader.nextLong() * 1000);
+                hasDate = true;
+                continue;
+            }
+            int field = getField(name);
+            if ((fields & field) == 0) {
+                /* Unknown or not needed, so don't bother decoding it */
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case OWM_PRESSURE:
+                    pressure = reader.nextDouble();
+                    seen |= FIELD_PRESSURE;
+                    break;
+
+                case OWM_HUMIDITY:
+                    /* JSONObject.getInt truncates fractional values, so we do the same */
+                    humidity = (int) reader.nextDouble();
+                    seen |= FIELD_HUMIDITY;
+                    break;
+
+                case OWM_WINDSPEED:
+                    windSpeed = reader.nextDouble();
+                    seen |= FIELD_WIND_SPEED;
+                    break;
+
+                case OWM_WIND_DIRECTION:
+                    windDirection = reader.nextDouble();
+                    seen |= FIELD_WIND_DIRECTION;
+                    break;
+
+                case OWM_WEATHER:
+                    /* "weather" is an array that is 1 element long. We only need the first. */
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = (int) reader.nextDouble();
+                                seen |= FIELD_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
+
+                case OWM_TEMPERATURE:
+                    boolean hasMax = false;
+                    boolean hasMin = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String temperatureName = reader.nextName();
+                        if (OWM_MAX.equals(temperatureName)) {
+                            high = reader.nextDouble();
+                            hasMax = true;
+                        } else if (OWM_MIN.equals(temperatureName)) {
+                            low = reader.nextDouble();
+                            hasMin = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (hasMax && hasMin) {
+                        seen |= FIELD_TEMPERATURES;
+                    }
+                    break;
+
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (!hasDate || (seen & fields) != fields) {
+            throw new MalformedJsonException("Incomplete daily forecast");
+        }
+
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /**
+     * Does the decoding for {@link #streamHourlyForecast}, once the message code has been
+     * sniffed.
+     */
+    private static ForecastResult readHourlyForecastFromStream(InputStream in,
+                                                               HourlyForecastBatch chunk,
+                                                               HourlyForecastHandler handler)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean hasList = false;
+
+        chunk.clear();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case OWM_MESSAGE_CODE:
+                    messageCode = reader.nextInt();
+                    break;
+
+                case OWM_LIST:
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (chunk.isFull()) {
+                            handler.handleChunk(chunk);
+                            chunk.clear();
+                        }
+                        readHourlyForecast(reader, chunk);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                    break;
+
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            return ForecastResult.error(messageCode);
+        }
+
+        if (!hasList) {
+            throw new MalformedJsonException("No value for " + OWM_LIST);
+        }
+
+        if (chunk.size() > 0) {
+            handler.handleChunk(chunk);
+            chunk.clear();
+        }
+        return ForecastResult.streamed();
+    }
+
+    /*
+     * Bits for the values of an entry of the 3-hour forecast, used to make sure every one of
+     * them was present.
+     */
+    private static final int HOURLY_TIME = 1;
+    private static final int HOURLY_TEMPERATURES = 1 << 1;
+    private static final int HOURLY_PRESSURE = 1 << 2;
+    private static final int HOURLY_HUMIDITY = 1 << 3;
+    private static final int HOURLY_WEATHER_ID = 1 << 4;
+    private static final int HOURLY_WIND = 1 << 5;
+    private static final int HOURLY_ALL = (1 << 6) - 1;
+
+    /**
+     * Reads a single entry of the 3-hour forecast and appends it to the chunk, which must not
+     * be full.
+     */
+    private static void readHourlyForecast(JsonReader reader, HourlyForecastBatch chunk)
+            throws IOException {
+        long timeMillis = 0;
+
+        double temperature = 0;
+        double low = 0;
+        double high = 0;
+        double pressure = 0;
+        int humidity = 0;
+
+        int weatherId = 0;
+
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWM_TIME:
+                    /* The server counts in seconds */
+                    timeMillis = reader.nextLong() * 1000;
+                    seen |= HOURLY_TIME;
+                    break;
+
+                case OWM_MAIN:
+                    boolean hasTemperature = false;
+                    boolean hasMin = false;
+                    boolean hasMax = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case OWM_TEMPERATURE:
+                                temperature = reader.nextDouble();
+                                hasTemperature = true;
+                                break;
+                            case OWM_TEMPERATURE_MIN:
+                                low = reader.nextDouble();
+                                hasMin = true;
+                                break;
+                            case OWM_TEMPERATURE_MAX:
+                                high = reader.nextDouble();
+                                hasMax = true;
+                                break;
+                            case OWM_PRESSURE:
+                                pressure = reader.nextDouble();
+                                seen |= HOURLY_PRESSURE;
+                                break;
+                            case OWM_HUMIDITY:
+                                humidity = (int) reader.nextDouble();
+                                seen |= HOURLY_HUMIDITY;
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    if (hasTemperature && hasMin && hasMax) {
+                        seen |= HOURLY_TEMPERATURES;
+                    }
+                    break;
+
+                case OWM_WEATHER:
+                    /* "weather" is an array that is 1 element long. We only need the first. */
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = (int) reader.nextDouble();
+                                seen |= HOURLY_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
+
+                case OWM_WIND:
+                    boolean hasSpeed = false;
+                    boolean hasDirection = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String windName = reader.nextName();
+                        if (OWM_WINDSPEED.equals(windName)) {
+                            windSpeed = reader.nextDouble();
+                            hasSpeed = true;
+                        } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                            windDirection = reader.nextDouble();
+                            hasDirection = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (hasSpeed && hasDirection) {
+                        seen |= HOURLY_WIND;
+                    }
+                    break;
+
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (seen != HOURLY_ALL) {
+            throw new MalformedJsonException("Incomplete hourly forecast");
+        }
+
+        /* The local day the entry falls on, at midnight UTC like every date we store */
+        long localDate = SunshineDateUtils.getNormalizedLocalDate(timeMillis);
 
-        return weatherContentValues;
+        chunk.add(timeMillis, localDate, weatherId, temperature, low, high, humidity, pressure,
+                windSpeed, windDirection);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffered InputStream whose buffer is borrowed from {@link ByteArrayPool} and handed back
+ * when the stream is closed. This works just like {@link java.io.BufferedInputStream}, minus
+ * the allocation of a new buffer for every response we read.
+ */
+public class PooledBufferedInputStream extends FilterInputStream {
+
+    private byte[] mBuffer;
+
+    /* Index of the next byte to hand out, and the number of valid bytes in mBuffer */
+    private int mPosition;
+    private int mCount;
+
+    public PooledBufferedInputStream(InputStream in) {
+        super(in);
+        mBuffer = ByteArrayPool.acquire();
+    }
+
+    /**
+     * Refills the buffer from the underlying stream.
+     *
+     * @return false if the underlying stream has no more data
+     */
+    private boolean fill() throws IOException {
+        if (mBuffer == null) {
+            throw new IOException("Stream closed");
+        }
+        int read = in.read(mBuffer, 0, mBuffer.length);
+        mPosition = 0;
+        mCount = Math.max(read, 0);
+        return read > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mPosition >= mCount && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (mPosition >= mCount) {
+            /*
+             * If the caller wants at least as much as our buffer holds, there is no point in
+             * copying the data twice. Read straight into the caller's buffer instead.
+             */
+            if (mBuffer != null && length >= mBuffer.length) {
+                return in.read(buffer, offset, length);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int copied = Math.min(length, mCount - mPosition);
+        System.arraycopy(mBuffer, mPosition, buffer, offset, copied);
+        mPosition += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        if (byteCount <= 0) {
+            return 0;
+        }
+        int buffered = mCount - mPosition;
+        if (buffered > 0) {
+            int skipped = (int) Math.min(byteCount, buffered);
+            mPosition += skipped;
+            return skipped;
+        }
+        return in.skip(byteCount);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (mCount - mPosition) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        byte[] buffer = mBuffer;
+        mBuffer = null;
+        mPosition = 0;
+        mCount = 0;
+        ByteArrayPool.release(buffer);
+        super.close();
+    }
+}
@@ -141,6 +141,21 @@ public final class SunshineDateUtils {
         return millisFromEpochToTodayAtMidnightUtc;
     }
 
+    /**
+     * Normalizes a moment in time to the day it falls on in the device's time zone. This is how
+     * the timestamps the weather server sends become the dates we store: a forecast for noon
+     * local time on Friday is stored under Friday, 00:00:00 GMT, just like
+     * {@link #getNormalizedUtcDateForToday()} stores today.
+     *
+     * @param utcMillis A moment in time, in milliseconds since the epoch
+     *
+     * @return The UTC date at 12 midnight of the local date the moment falls on
+     */
+    public static long getNormalizedLocalDate(long utcMillis) {
+        long gmtOffsetMillis = TimeZone.getDefault().getOffset(utcMillis);
+        return normalizeDate(utcMillis + gmtOffsetMillis);
+    }
+
     /**
      * In order to ensure consistent inserts into WeatherProvider, we check that dates have been
      * normalized before they are inserted. If they are not normalized, we don't want to accept
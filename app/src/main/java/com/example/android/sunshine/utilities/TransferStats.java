@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+/**
+ * Byte counts of a single response. When the server compresses the forecast, the number of
+ * bytes that came over the wire is smaller than the number of bytes handed to the parser.
+ */
+public class TransferStats {
+
+    /* Value of the response's Content-Encoding header, or null if it wasn't compressed */
+    public String contentEncoding;
+
+    /* Bytes of response body read from the network, as sent by the server */
+    public long compressedBytes;
+
+    /* Bytes of response body after decompression, as seen by the parser */
+    public long uncompressedBytes;
+
+    /**
+     * @return How many times smaller the response was on the wire, 1 if it wasn't compressed
+     */
+    public double getCompressionRatio() {
+        if (compressedBytes == 0) {
+            return 1;
+        }
+        return (double) uncompressedBytes / compressedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStats{"
+                + "contentEncoding=" + contentEncoding
+                + ", compressedBytes=" + compressedBytes
+                + ", uncompressedBytes=" + uncompressedBytes
+                + '}';
+    }
+}
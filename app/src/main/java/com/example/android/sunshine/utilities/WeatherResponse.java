@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response returned by a {@link WeatherTransport}. Responses must always be closed, which
+ * allows the transport to reuse the connection they came in on.
+ */
+public interface WeatherResponse extends Closeable {
+
+    /**
+     * @return The HTTP status code of the response, such as 200 or 304
+     */
+    int getStatusCode() throws IOException;
+
+    /**
+     * @param name The name of the header, such as "ETag". Case insensitive.
+     * @return The value of the header, or null if the response didn't include it
+     */
+    String getHeader(String name);
+
+    /**
+     * @return The body of the response, exactly as it was sent (still compressed, for example)
+     */
+    InputStream getBody() throws IOException;
+
+    /**
+     * Releases the response. Any part of the body that hasn't been read is discarded.
+     */
+    @Override
+    void close();
+}
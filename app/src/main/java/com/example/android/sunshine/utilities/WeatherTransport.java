@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Carries requests for weather data to a server and brings back the responses. NetworkUtils
+ * builds the requests and decodes the responses; how the bytes actually get from here to there
+ * and back is up to the transport.
+ * <p>
+ * Sunshine talks to the real weather server using {@link KeepAliveHttpTransport}. Tests and
+ * benchmarks can swap in {@link FakeWeatherTransport} with {@link NetworkUtils#setTransport}
+ * to run the rest of the sync pipeline without a network.
+ */
+public interface WeatherTransport {
+
+    /**
+     * Sends a GET request.
+     *
+     * @param url            The URL to request
+     * @param requestHeaders Headers to send with the request, such as validators
+     * @return The server's response. The caller must close it when done.
+     * @throws IOException If the request couldn't be sent or the response couldn't be read
+     */
+    WeatherResponse execute(URL url, Map<String, String> requestHeaders) throws IOException;
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Replays made-up histories of server updates and user visits, minute by minute over two weeks,
+ * against the fixed 3 to 4 hour schedule Sunshine used to have and against
+ * {@link SyncSchedulePolicy}. For each history and schedule, it prints how many syncs ran a
+ * day, how many of those found nothing new, and how far behind the server the forecast was
+ * whenever the user looked at it.
+ * <p>
+ * The server's forecast covers the 14 days from today, so a new day appears every local
+ * midnight, and a server update changes some of the days at random. Each sync runs in the
+ * middle of the window it was scheduled in.
+ * <p>
+ * It runs along with the other local unit tests, as it also checks that the policy beats the
+ * fixed schedule. Its table is only shown with ./gradlew testDebugUnitTest -Pbenchmarks.
+ */
+public class SyncScheduleSimulation {
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int FORECAST_DAYS = 14;
+    private static final int SIMULATED_DAYS = 14;
+
+    /* Like SunshinePreferences, only the last few syncs are remembered */
+    private static final int RECENT_SYNC_CHANGES_KEPT = 6;
+
+    /* Daylight saving time begins on the 12th, so the simulation crosses a 23 hour day */
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+
+    /* 2017-03-01 00:00 in TIME_ZONE */
+    private static final long START_MILLIS = 1488355200000L;
+
+    /* When the user opens the app, in minutes since local midnight */
+    private static final int[] VIEW_MINUTES = {8 * 60, 12 * 60 + 30, 19 * 60};
+
+    /* How a user visits the app */
+    private enum Visits {
+        /* Every day */
+        DAILY,
+        /* On the first day and the last, and never in between */
+        AWAY
+    }
+
+    /* When the server updates its forecast, and how many days it changes each time */
+    private static final class Server {
+        final String name;
+        final int firstUpdateMinute;
+        final int updateEveryMinutes;
+        final int daysChanged;
+
+        Server(String name, int firstUpdateMinute, int updateEveryMinutes, int daysChanged) {
+            this.name = name;
+            this.firstUpdateMinute = firstUpdateMinute;
+            this.updateEveryMinutes = updateEveryMinutes;
+            this.daysChanged = daysChanged;
+        }
+
+        boolean isUpdating(int minuteOfDay) {
+            return minuteOfDay >= firstUpdateMinute
+                    && (minuteOfDay - firstUpdateMinute) % updateEveryMinutes == 0;
+        }
+    }
+
+    /* Every 3 hours, changing 6 days, as an unsettled week might */
+    private static final Server VOLATILE = new Server("volatile", 0, 3 * 60, 6);
+
+    /* Once a day at 6 AM, changing 2 days */
+    private static final Server STABLE = new Server("stable", 6 * 60, 24 * 60, 2);
+
+    /* One way of deciding when to sync next */
+    private interface Schedule {
+        String getName();
+
+        /**
+         * @return How long after nowMillis the next sync runs
+         */
+        long getWaitMillis(float[] recentChanges, long nowMillis, long lastViewedMillis);
+
+        /**
+         * @return Whether the user looking at the forecast now reschedules the next sync
+         */
+        boolean reschedulesOnView(long nowMillis, long lastViewedMillis);
+    }
+
+    private static final Schedule FIXED = new Schedule() {
+        @Override
+        public String getName() {
+            return "fixed";
+        }
+
+        @Override
+        public long getWaitMillis(float[] recentChanges, long nowMillis, long lastViewedMillis) {
+            long startMillis = 3 * HOUR_MILLIS;
+            return startMillis + startMillis / 3 / 2;
+        }
+
+        @Override
+        public boolean reschedulesOnView(long nowMillis, long lastViewedMillis) {
+            return false;
+        }
+    };
+
+    /* The policy SunshineSyncUtils uses */
+    private static final SyncSchedulePolicy POLICY = new SyncSchedulePolicy(
+            3 * HOUR_MILLIS, 12 * HOUR_MILLIS, 24 * HOUR_MILLIS, 24 * HOUR_MILLIS);
+
+    private static final Schedule ADAPTIVE = new Schedule() {
+        @Override
+        public String getName() {
+            return "adaptive";
+        }
+
+        @Override
+        public long getWaitMillis(float[] recentChanges, long nowMillis, long lastViewedMillis) {
+            SyncSchedulePolicy.Window window = POLICY.getNextWindow(
+                    SyncSchedulePolicy.getVolatility(recentChanges), nowMillis, lastViewedMillis,
+                    TIME_ZONE);
+            return TimeUnit.SECONDS.toMillis(window.startSeconds + window.endSeconds) / 2;
+        }
+
+        @Override
+        public boolean reschedulesOnView(long nowMillis, long lastViewedMillis) {
+            return POLICY.isIdle(nowMillis, lastViewedMillis);
+        }
+    };
+
+    /* What one schedule did over one history */
+    private static final class Outcome {
+        int syncs;
+        int pointlessSyncs;
+        int views;
+        long totalStalenessMillis;
+        long maxStalenessMillis;
+
+        double getSyncsPerDay() {
+            return (double) syncs / SIMULATED_DAYS;
+        }
+
+        long getMeanStalenessMinutes() {
+            return views == 0 ? 0 : totalStalenessMillis / views / MINUTE_MILLIS;
+        }
+    }
+
+    @Test
+    public void compareSchedules() {
+        System.out.println(String.format(Locale.US, "%-10s %-6s %-10s %10s %10s %12s %12s",
+                "server", "visits", "schedule", "syncs/day", "pointless", "mean stale",
+                "max stale"));
+
+        for (Server server : new Server[]{VOLATILE, STABLE}) {
+            for (Visits visits : Visits.values()) {
+                Outcome fixed = replay(server, visits, FIXED);
+                Outcome adaptive = replay(server, visits, ADAPTIVE);
+
+                /* Never syncing more often than every 3 hours, we can't sync a lot more */
+                assertTrue(adaptive.syncs <= fixed.syncs + SIMULATED_DAYS);
+                if (server == STABLE || visits == Visits.AWAY) {
+                    assertTrue(adaptive.syncs < fixed.syncs);
+                }
+                if (server == STABLE) {
+                    assertTrue(adaptive.pointlessSyncs < fixed.pointlessSyncs);
+                }
+            }
+        }
+    }
+
+    private static Outcome replay(Server server, Visits visits, Schedule schedule) {
+        Random random = new Random(42);
+
+        /* Version of each day's forecast on the server, and in the weather table */
+        int[] serverVersions = new int[SIMULATED_DAYS + FORECAST_DAYS];
+        int[] storedVersions = new int[SIMULATED_DAYS + FORECAST_DAYS];
+        Arrays.fill(storedVersions, -1);
+
+        float[] recentChanges = new float[0];
+        long lastViewedMillis = 0;
+
+        /* When the server first changed something the weather table doesn't have yet */
+        long unsyncedSinceMillis = START_MILLIS;
+        long nextSyncMillis = START_MILLIS;
+
+        Outcome outcome = new Outcome();
+        long localStart = START_MILLIS + TIME_ZONE.getOffset(START_MILLIS);
+        long endMillis = START_MILLIS + SIMULATED_DAYS * DAY_MILLIS;
+        int lastToday = 0;
+        for (long now = START_MILLIS; now < endMillis; now += MINUTE_MILLIS) {
+            long localMillis = now + TIME_ZONE.getOffset(now);
+            int today = (int) ((localMillis - localStart) / DAY_MILLIS);
+            int minuteOfDay = (int) (((localMillis - localStart) % DAY_MILLIS) / MINUTE_MILLIS);
+
+            /* A new day joins the forecast at midnight */
+            if (today != lastToday) {
+                lastToday = today;
+                unsyncedSinceMillis = Math.min(unsyncedSinceMillis, now);
+            }
+
+            if (server.isUpdating(minuteOfDay)) {
+                for (int i = 0; i < server.daysChanged; i++) {
+                    serverVersions[today + random.nextInt(FORECAST_DAYS)]++;
+                }
+                unsyncedSinceMillis = Math.min(unsyncedSinceMillis, now);
+            }
+
+            if (isViewing(visits, today, minuteOfDay)) {
+                outcome.views++;
+                long stalenessMillis = now - Math.min(now, unsyncedSinceMillis);
+                outcome.totalStalenessMillis += stalenessMillis;
+                outcome.maxStalenessMillis = Math.max(outcome.maxStalenessMillis,
+                        stalenessMillis);
+
+                if (schedule.reschedulesOnView(now, lastViewedMillis)) {
+                    nextSyncMillis = now + schedule.getWaitMillis(recentChanges, now, now);
+                }
+                lastViewedMillis = now;
+            }
+
+            if (now >= nextSyncMillis) {
+                int changed = 0;
+                for (int day = today; day < today + FORECAST_DAYS; day++) {
+                    if (storedVersions[day] != serverVersions[day]) {
+                        storedVersions[day] = serverVersions[day];
+                        changed++;
+                    }
+                }
+                outcome.syncs++;
+                if (changed == 0) {
+                    outcome.pointlessSyncs++;
+                }
+                unsyncedSinceMillis = Long.MAX_VALUE;
+
+                recentChanges = append(recentChanges, (float) changed / FORECAST_DAYS);
+                nextSyncMillis = now + schedule.getWaitMillis(recentChanges, now,
+                        lastViewedMillis);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%-10s %-6s %-10s %10.1f %10d %10d m %10d m",
+                server.name, visits.name().toLowerCase(Locale.US), schedule.getName(),
+                outcome.getSyncsPerDay(), outcome.pointlessSyncs,
+                outcome.getMeanStalenessMinutes(), outcome.maxStalenessMillis / MINUTE_MILLIS));
+        return outcome;
+    }
+
+    private static boolean isViewing(Visits visits, int today, int minuteOfDay) {
+        if (visits == Visits.AWAY && today != 0 && today != SIMULATED_DAYS - 1) {
+            return false;
+        }
+        for (int viewMinute : VIEW_MINUTES) {
+            if (minuteOfDay == viewMinute) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float[] append(float[] recentChanges, float change) {
+        int kept = Math.min(recentChanges.length, RECENT_SYNC_CHANGES_KEPT - 1);
+        float[] appended = Arrays.copyOfRange(recentChanges, recentChanges.length - kept,
+                recentChanges.length + 1);
+        appended[kept] = change;
+        return appended;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that a {@link CancellationToken} closes what is registered with it exactly once, and
+ * turns the failures cancelling causes into InterruptedIOExceptions.
+ */
+public class CancellationTokenTest {
+
+    @After
+    public void tearDown() {
+        CancellationToken.bind(null);
+    }
+
+    private static Closeable counting(final AtomicInteger closes) {
+        return new Closeable() {
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void testCancelClosesRegisteredResourcesOnce() throws IOException {
+        AtomicInteger registeredCloses = new AtomicInteger();
+        AtomicInteger unregisteredCloses = new AtomicInteger();
+        CancellationToken token = new CancellationToken();
+
+        Closeable unregistered = counting(unregisteredCloses);
+        token.register(counting(registeredCloses));
+        token.register(unregistered);
+        token.unregister(unregistered);
+
+        token.cancel();
+        token.cancel();
+
+        assertEquals(1, registeredCloses.get());
+        assertEquals(0, unregisteredCloses.get());
+        assertTrue(token.isCancelled());
+    }
+
+    @Test
+    public void testRegisterAfterCancelClosesRightAway() {
+        AtomicInteger closes = new AtomicInteger();
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        try {
+            token.register(counting(closes));
+            fail("Registering with a cancelled token should throw");
+        } catch (InterruptedIOException expected) {
+        }
+        assertEquals(1, closes.get());
+    }
+
+    @Test
+    public void testBindRestoresPreviousToken() {
+        CancellationToken outer = new CancellationToken();
+        CancellationToken inner = new CancellationToken();
+
+        assertNull(CancellationToken.bind(outer));
+        assertSame(outer, CancellationToken.bind(inner));
+        assertSame(inner, CancellationToken.bind(outer));
+        assertSame(outer, CancellationToken.current());
+    }
+
+    @Test
+    public void testTranslateOnlyOnceCancelled() throws InterruptedIOException {
+        CancellationToken token = new CancellationToken();
+        CancellationToken.bind(token);
+        SocketException closed = new SocketException("Socket closed");
+        SocketTimeoutException timeout = new SocketTimeoutException();
+
+        assertSame(closed, CancellationToken.translate(closed));
+        assertSame(timeout, CancellationToken.translate(timeout));
+        CancellationToken.throwIfCurrentCancelled();
+
+        token.cancel();
+
+        IOException translated = CancellationToken.translate(closed);
+        assertTrue(translated instanceof InterruptedIOException);
+        assertSame(closed, translated.getCause());
+        assertSame(timeout, CancellationToken.translate(timeout).getCause());
+        try {
+            CancellationToken.throwIfCurrentCancelled();
+            fail("The bound token was cancelled");
+        } catch (InterruptedIOException expected) {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utils.Corpus;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Encodes the forecasts in {@link Corpus} with {@link ForecastCodec}, and checks that decoding
+ * them gives back exactly what parsing their JSON gave, whether they are decoded directly or
+ * through OpenWeatherJsonUtils.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class ForecastCodecTest {
+
+    private static final String[] VALID_FORECASTS = {
+            "daily_mountain_view.json",
+            "daily_london_16.json",
+            "unicode_sao_paulo.json",
+            "extra_fields.json",
+            "missing_optional_fields.json",
+    };
+
+    private static ForecastResult parseJson(byte[] json) throws IOException {
+        return OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(json));
+    }
+
+    private static byte[] encode(ForecastResult result) {
+        return ForecastCodec.encode(result.getForecast(), result.getLatitude(),
+                result.getLongitude());
+    }
+
+    private static void assertSameResult(String name, ForecastResult expected,
+                                         ForecastResult actual) {
+        assertEquals(name, expected.getStatus(), actual.getStatus());
+        assertEquals(name, expected.getLatitude(), actual.getLatitude());
+        assertEquals(name, expected.getLongitude(), actual.getLongitude());
+
+        ForecastBatch expectedForecast = expected.getForecast();
+        ForecastBatch actualForecast = actual.getForecast();
+        assertEquals(name, expectedForecast.size(), actualForecast.size());
+        for (int i = 0; i < expectedForecast.size(); i++) {
+            String day = name + ", day " + i;
+            assertEquals(day, expectedForecast.getDate(i), actualForecast.getDate(i));
+            assertEquals(day, expectedForecast.getWeatherId(i), actualForecast.getWeatherId(i));
+            assertEquals(day, expectedForecast.getMinTemp(i), actualForecast.getMinTemp(i));
+            assertEquals(day, expectedForecast.getMaxTemp(i), actualForecast.getMaxTemp(i));
+            assertEquals(day, expectedForecast.getHumidity(i), actualForecast.getHumidity(i));
+            assertEquals(day, expectedForecast.getPressure(i), actualForecast.getPressure(i));
+            assertEquals(day, expectedForecast.getWindSpeed(i), actualForecast.getWindSpeed(i));
+            assertEquals(day, expectedForecast.getDegrees(i), actualForecast.getDegrees(i));
+        }
+    }
+
+    @Test
+    public void testForecastsRoundTripExactly() throws IOException {
+        for (String name : VALID_FORECASTS) {
+            byte[] json = Corpus.read(name);
+            ForecastResult expected = parseJson(json);
+            byte[] binary = encode(expected);
+
+            assertTrue(name + " should be smaller in binary", binary.length * 4 < json.length);
+            assertSameResult(name, expected,
+                    ForecastCodec.decode(new ByteArrayInputStream(binary)));
+            /* Whoever reads forecasts through OpenWeatherJsonUtils gets the same */
+            assertSameResult(name + " (sniffed)", expected, parseJson(binary));
+        }
+    }
+
+    @Test
+    public void testLargeForecastRoundTrips() throws IOException {
+        ForecastResult expected = parseJson(Corpus.largeForecast(5000));
+        assertSameResult("5000 days", expected,
+                ForecastCodec.decode(new ByteArrayInputStream(encode(expected))));
+    }
+
+    @Test
+    public void testErrorsRoundTrip() throws IOException {
+        ForecastResult notFound = parseJson(ForecastCodec.encodeError(404));
+        assertEquals(ForecastResult.Status.LOCATION_INVALID, notFound.getStatus());
+        assertNull(notFound.getForecast());
+
+        ForecastResult serverError = parseJson(ForecastCodec.encodeError(500));
+        assertEquals(ForecastResult.Status.SERVER_DOWN, serverError.getStatus());
+        assertEquals(500, serverError.getMessageCode());
+    }
+
+    @Test
+    public void testValuesThatCantBeStoredExactlyAreRejected() {
+        ForecastBatch forecast = new ForecastBatch();
+        forecast.add(0, 800, 10.123, 20, 50, 1000, 1, 90);
+        try {
+            ForecastCodec.encode(forecast, Double.NaN, Double.NaN);
+            fail("A temperature with three decimals should not have been encoded");
+        } catch (IllegalArgumentException expected) {
+            /* This is what we want */
+        }
+
+        forecast = new ForecastBatch();
+        forecast.add(SunshineDateUtils.DAY_IN_MILLIS / 2, 800, 10, 20, 50, 1000, 1, 90);
+        try {
+            ForecastCodec.encode(forecast, Double.NaN, Double.NaN);
+            fail("A date that isn't normalized should not have been encoded");
+        } catch (IllegalArgumentException expected) {
+            /* This is what we want */
+        }
+    }
+
+    @Test
+    public void testEveryTruncationThrowsEOFException() throws IOException {
+        byte[] binary = encode(parseJson(Corpus.read("daily_mountain_view.json")));
+        for (int length = 0; length < binary.length; length++) {
+            try {
+                ForecastCodec.decode(new ByteArrayInputStream(Arrays.copyOf(binary, length)));
+                fail("Decoded a forecast cut off after " + length + " bytes");
+            } catch (EOFException expected) {
+                /* This is what we want */
+            }
+        }
+    }
+
+    /**
+     * Overwrites random bytes of an encoded forecast. Whatever comes out, decoding may only
+     * return a result or throw an IOException.
+     */
+    @Test
+    public void testCorruptedForecastsFailCleanly() throws IOException {
+        byte[] binary = encode(parseJson(Corpus.read("daily_london_16.json")));
+        Random random = new Random(2017);
+
+        for (int round = 0; round < 2000; round++) {
+            byte[] corrupted = binary.clone();
+            int flips = 1 + random.nextInt(4);
+            for (int i = 0; i < flips; i++) {
+                corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt(256);
+            }
+
+            try {
+                ForecastCodec.decode(new ByteArrayInputStream(corrupted));
+            } catch (IOException expected) {
+                /* This is fine */
+            } catch (RuntimeException e) {
+                throw new AssertionError("Threw " + e + " on " + Arrays.toString(corrupted));
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HourlyForecastBatch;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utils.Corpus;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Runs every parser of {@link OpenWeatherJsonUtils} over the payloads in {@link Corpus}, and
+ * over truncated and corrupted copies of them. Whatever a response holds, a parser must either
+ * return a result or throw an IOException, and both parsers must agree on every valid forecast.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class ForecastCorpusTest {
+
+    private static final OpenWeatherJsonUtils.Parser[] PARSERS =
+            OpenWeatherJsonUtils.Parser.values();
+
+    /* Complete daily forecasts, and the number of days in each */
+    private static final String[] VALID_FORECASTS = {
+            "daily_mountain_view.json",
+            "daily_mountain_view_pretty.json",
+            "daily_london_16.json",
+            "unicode_sao_paulo.json",
+            "unicode_tokyo_escaped.json",
+            "unicode_zurich_mixed.json",
+            "extra_fields.json",
+            "missing_optional_fields.json",
+            "code_after_list.json",
+    };
+    private static final int[] VALID_FORECAST_DAYS = {14, 14, 16, 14, 14, 7, 10, 9, 14};
+
+    private static final String[] MALFORMED_FORECASTS = {
+            "missing_humidity.json",
+            "empty_weather.json",
+            "truncated.json",
+    };
+
+    private static final String[] SUMMARY_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    @After
+    public void tearDown() {
+        OpenWeatherJsonUtils.setParser(OpenWeatherJsonUtils.Parser.STREAMING);
+    }
+
+    private static ForecastResult parse(OpenWeatherJsonUtils.Parser parser, byte[] payload)
+            throws IOException {
+        OpenWeatherJsonUtils.setParser(parser);
+        return OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(payload));
+    }
+
+    private static void assertSameForecast(String name, ForecastBatch expected,
+                                           ForecastBatch actual) {
+        assertEquals(name, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            String day = name + ", day " + i;
+            assertEquals(day, expected.getDate(i), actual.getDate(i));
+            assertEquals(day, expected.getWeatherId(i), actual.getWeatherId(i));
+            assertEquals(day, expected.getMinTemp(i), actual.getMinTemp(i));
+            assertEquals(day, expected.getMaxTemp(i), actual.getMaxTemp(i));
+            assertEquals(day, expected.getHumidity(i), actual.getHumidity(i));
+            assertEquals(day, expected.getPressure(i), actual.getPressure(i));
+            assertEquals(day, expected.getWindSpeed(i), actual.getWindSpeed(i));
+            assertEquals(day, expected.getDegrees(i), actual.getDegrees(i));
+        }
+    }
+
+    @Test
+    public void testValidForecastsParseTheSameWithEveryParser() throws IOException {
+        for (int f = 0; f < VALID_FORECASTS.length; f++) {
+            String name = VALID_FORECASTS[f];
+            byte[] payload = Corpus.read(name);
+
+            ForecastResult expected = null;
+            for (OpenWeatherJsonUtils.Parser parser : PARSERS) {
+                ForecastResult result = parse(parser, payload);
+                String label = name + " (" + parser + ")";
+
+                assertEquals(label, ForecastResult.Status.OK, result.getStatus());
+                assertEquals(label, VALID_FORECAST_DAYS[f], result.getForecast().size());
+                if (expected == null) {
+                    expected = result;
+                    continue;
+                }
+                assertSameForecast(label, expected.getForecast(), result.getForecast());
+                assertEquals(label, expected.getLatitude(), result.getLatitude());
+                assertEquals(label, expected.getLongitude(), result.getLongitude());
+            }
+        }
+    }
+
+    @Test
+    public void testCoordinatesFollowUnicodeCityNames() throws IOException {
+        String[] names = {
+                "unicode_sao_paulo.json", "unicode_tokyo_escaped.json", "unicode_zurich_mixed.json"
+        };
+        double[] latitudes = {-23.5475, 35.6895, 47.3667};
+        double[] longitudes = {-46.6361, 139.6917, 8.55};
+
+        for (int i = 0; i < names.length; i++) {
+            for (OpenWeatherJsonUtils.Parser parser : PARSERS) {
+                ForecastResult result = parse(parser, Corpus.read(names[i]));
+                String label = names[i] + " (" + parser + ")";
+                assertEquals(label, latitudes[i], result.getLatitude());
+                assertEquals(label, longitudes[i], result.getLongitude());
+            }
+        }
+    }
+
+    @Test
+    public void testLargeForecastsParseTheSameWithEveryParser() throws IOException {
+        for (int days : new int[]{365, 5000}) {
+            byte[] payload = Corpus.largeForecast(days);
+            ForecastBatch streaming =
+                    parse(OpenWeatherJsonUtils.Parser.STREAMING, payload).getForecast();
+            ForecastBatch dom = parse(OpenWeatherJsonUtils.Parser.DOM, payload).getForecast();
+
+            assertEquals(days, streaming.size());
+            assertSameForecast(days + " days", streaming, dom);
+        }
+    }
+
+    @Test
+    public void testProjectionAgreesOnEveryValidForecast() throws IOException {
+        for (String name : VALID_FORECASTS) {
+            byte[] payload = Corpus.read(name);
+            ForecastBatch full = parse(OpenWeatherJsonUtils.Parser.STREAMING, payload)
+                    .getForecast();
+            ForecastBatch summary = OpenWeatherJsonUtils.getForecastFromStream(
+                    new ByteArrayInputStream(payload), SUMMARY_PROJECTION).getForecast();
+
+            assertEquals(name, full.size(), summary.size());
+            for (int i = 0; i < full.size(); i++) {
+                assertEquals(name, full.getDate(i), summary.getDate(i));
+                assertEquals(name, full.getWeatherId(i), summary.getWeatherId(i));
+                assertEquals(name, full.getMinTemp(i), summary.getMinTemp(i));
+                assertEquals(name, full.getMaxTemp(i), summary.getMaxTemp(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedForecastsThrowIOException() throws IOException {
+        for (String name : MALFORMED_FORECASTS) {
+            byte[] payload = Corpus.read(name);
+            for (OpenWeatherJsonUtils.Parser parser : PARSERS) {
+                try {
+                    parse(parser, payload);
+                    fail(name + " (" + parser + ") should not have parsed");
+                } catch (IOException expected) {
+                    /* This is what we want */
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testErrorsAreReported() throws IOException {
+        for (OpenWeatherJsonUtils.Parser parser : PARSERS) {
+            ForecastResult notFound = parse(parser, Corpus.read("error_404.json"));
+            assertEquals(ForecastResult.Status.LOCATION_INVALID, notFound.getStatus());
+            assertNull(notFound.getForecast());
+
+            ForecastResult serverError = parse(parser, Corpus.read("error_500_numeric.json"));
+            assertEquals(ForecastResult.Status.SERVER_DOWN, serverError.getStatus());
+            assertEquals(500, serverError.getMessageCode());
+        }
+    }
+
+    @Test
+    public void testHourlyForecastIsStreamedInChunks() throws IOException {
+        final List<Integer> chunkSizes = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        ForecastResult result = OpenWeatherJsonUtils.streamHourlyForecast(
+                new ByteArrayInputStream(Corpus.read("hourly_mountain_view.json")),
+                new HourlyForecastBatch(16),
+                new OpenWeatherJsonUtils.HourlyForecastHandler() {
+                    @Override
+                    public void handleChunk(HourlyForecastBatch chunk) {
+                        chunkSizes.add(chunk.size());
+                        for (int i = 0; i < chunk.size(); i++) {
+                            times.add(chunk.getTime(i));
+                        }
+                    }
+                });
+
+        assertEquals(ForecastResult.Status.OK, result.getStatus());
+        assertEquals(Arrays.asList(16, 16, 8), chunkSizes);
+        for (int i = 1; i < times.size(); i++) {
+            assertEquals(3 * 3600 * 1000L, times.get(i) - times.get(i - 1));
+        }
+    }
+
+    /**
+     * Cuts a forecast off at every possible length. The server closing the connection early
+     * must never look like anything but an IOException.
+     */
+    @Test
+    public void testEveryTruncationFailsCleanly() throws IOException {
+        byte[] payload = Corpus.read("missing_optional_fields.json");
+        for (OpenWeatherJsonUtils.Parser parser : PARSERS) {
+            for (int length = 0; length < payload.length; length++) {
+                byte[] truncated = Arrays.copyOf(payload, length);
+                try {
+                    parse(parser, truncated);
+                    fail(parser + " parsed a forecast cut off after " + length + " bytes");
+                } catch (IOException expected) {
+                    /* This is what we want */
+                } catch (RuntimeException e) {
+                    throw new AssertionError(parser + " threw " + e + " when cut off after "
+                            + length + " bytes");
+                }
+            }
+        }
+    }
+
+    /**
+     * Overwrites random bytes of valid forecasts with characters that matter to JSON. Whatever
+     * comes out, the parsers may only return a result or throw an IOException.
+     */
+    @Test
+    public void testCorruptedForecastsFailCleanly() throws IOException {
+        byte[] alphabet = "{}[]\":,0123456789.-eE \\tnulx\u00e9".getBytes("UTF-8");
+        Random random = new Random(2017);
+
+        int parsed = 0;
+        for (String name : VALID_FORECASTS) {
+            byte[] payload = Corpus.read(name);
+            for (int round = 0; round < 200; round++) {
+                byte[] corrupted = payload.clone();
+                int flips = 1 + random.nextInt(4);
+                for (int i = 0; i < flips; i++) {
+                    corrupted[random.nextInt(corrupted.length)] =
+                            alphabet[random.nextInt(alphabet.length)];
+                }
+
+                for (OpenWeatherJsonUtils.Parser parser : PARSERS) {
+                    try {
+                        parse(parser, corrupted);
+                        parsed++;
+                    } catch (IOException expected) {
+                        /* This is fine */
+                    } catch (RuntimeException e) {
+                        throw new AssertionError(parser + " threw " + e + " on a corrupted "
+                                + name + ": " + new String(corrupted, "UTF-8"));
+                    }
+                }
+            }
+        }
+
+        /* Some corruptions land in values we skip, so not everything should fail */
+        assertTrue(parsed > 0);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import com.example.android.sunshine.data.HourlyForecastBatch;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utils.Benchmarks;
+import com.example.android.sunshine.utils.Corpus;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures the throughput (MB of JSON per second) and allocation rate (bytes allocated per MB
+ * of JSON) of every parser in {@link OpenWeatherJsonUtils}, on a recorded 14 day forecast, the
+ * same forecast pretty printed, a synthetic 365 day forecast and a recorded 3-hour forecast.
+ * The results are printed as a table, one row per parser and payload.
+ * <p>
+ * This runs on the JVM, against Robolectric's copy of the framework, so the numbers are not
+ * those of a device. They are good for comparing parsers, and a parser before and after a
+ * change, on the same machine. Run the device benchmark, ParserBenchmark, for absolute numbers.
+ * Allocations can only be counted on JVMs that support it, such as HotSpot.
+ * <p>
+ * A second table compares the JSON and binary (see {@link ForecastCodec}) wire formats of the
+ * same forecasts: their sizes, and the time and memory it takes to decode each one.
+ * <p>
+ * Run it with ./gradlew testDebugUnitTest -Pbenchmarks, see {@link Benchmarks}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class ParserThroughputBenchmark {
+
+    /* Parse this many bytes of JSON before measuring, and this many while measuring */
+    private static final long WARMUP_BYTES = 8L << 20;
+    private static final long MEASURED_BYTES = 16L << 20;
+
+    private static final double BYTES_PER_MB = 1 << 20;
+
+    /* Decode each payload this many times before measuring, and this many while measuring */
+    private static final int DECODE_ITERATIONS = 2000;
+
+    /* The columns a notification or a watch face shows */
+    private static final String[] SUMMARY_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    /* One way of parsing a payload */
+    private interface ParserUnderTest {
+        void parse(byte[] payload) throws IOException;
+    }
+
+    private static ParserUnderTest dailyParser(final OpenWeatherJsonUtils.Parser parser) {
+        return new ParserUnderTest() {
+            @Override
+            public void parse(byte[] payload) throws IOException {
+                OpenWeatherJsonUtils.setParser(parser);
+                OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(payload));
+            }
+        };
+    }
+
+    private static final ParserUnderTest SUMMARY_PARSER = new ParserUnderTest() {
+        @Override
+        public void parse(byte[] payload) throws IOException {
+            OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(payload),
+                    SUMMARY_PROJECTION);
+        }
+    };
+
+    private static final ParserUnderTest HOURLY_PARSER = new ParserUnderTest() {
+        private final HourlyForecastBatch mChunk = new HourlyForecastBatch(16);
+        private final OpenWeatherJsonUtils.HourlyForecastHandler mHandler =
+                new OpenWeatherJsonUtils.HourlyForecastHandler() {
+                    @Override
+                    public void handleChunk(HourlyForecastBatch chunk) {
+                    }
+                };
+
+        @Override
+        public void parse(byte[] payload) throws IOException {
+            OpenWeatherJsonUtils.streamHourlyForecast(new ByteArrayInputStream(payload), mChunk,
+                    mHandler);
+        }
+    };
+
+    private static final ParserUnderTest BINARY_DECODER = new ParserUnderTest() {
+        @Override
+        public void parse(byte[] payload) throws IOException {
+            ForecastCodec.decode(new ByteArrayInputStream(payload));
+        }
+    };
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @After
+    public void tearDown() {
+        OpenWeatherJsonUtils.setParser(OpenWeatherJsonUtils.Parser.STREAMING);
+    }
+
+    @Test
+    public void benchmarkParsers() throws IOException {
+        byte[] recorded = Corpus.read("daily_mountain_view.json");
+        byte[] pretty = Corpus.read("daily_mountain_view_pretty.json");
+        byte[] large = Corpus.largeForecast(365);
+        byte[] hourly = Corpus.read("hourly_mountain_view.json");
+
+        System.out.println(String.format(Locale.US, "%-10s %-24s %10s %10s %14s",
+                "parser", "payload", "bytes", "MB/s", "alloc B/MB"));
+
+        for (OpenWeatherJsonUtils.Parser parser : OpenWeatherJsonUtils.Parser.values()) {
+            ParserUnderTest daily = dailyParser(parser);
+            measure(parser.name(), daily, "recorded 14 days", recorded);
+            measure(parser.name(), daily, "recorded, pretty", pretty);
+            measure(parser.name(), daily, "synthetic 365 days", large);
+        }
+        measure("SUMMARY", SUMMARY_PARSER, "recorded 14 days", recorded);
+        measure("SUMMARY", SUMMARY_PARSER, "synthetic 365 days", large);
+        measure("HOURLY", HOURLY_PARSER, "recorded 3-hour", hourly);
+    }
+
+    @Test
+    public void benchmarkWireFormats() throws IOException {
+        byte[] recorded = Corpus.read("daily_mountain_view.json");
+        byte[] large = Corpus.largeForecast(365);
+
+        System.out.println(String.format(Locale.US, "%-10s %-24s %10s %12s %14s",
+                "format", "payload", "bytes", "us/decode", "alloc B/decode"));
+
+        ParserUnderTest json = dailyParser(OpenWeatherJsonUtils.Parser.STREAMING);
+        measureDecode("JSON", json, "recorded 14 days", recorded);
+        measureDecode("BINARY", BINARY_DECODER, "recorded 14 days", encode(recorded));
+        measureDecode("JSON", json, "synthetic 365 days", large);
+        measureDecode("BINARY", BINARY_DECODER, "synthetic 365 days", encode(large));
+    }
+
+    private static byte[] encode(byte[] json) throws IOException {
+        ForecastResult result =
+                OpenWeatherJsonUtils.getForecastFromStream(new ByteArrayInputStream(json));
+        return ForecastCodec.encode(result.getForecast(), result.getLatitude(),
+                result.getLongitude());
+    }
+
+    /**
+     * Like {@link #measure}, but reports the time and allocations of each decode rather than
+     * per MB, as the formats don't take the same number of bytes to hold the same forecast.
+     */
+    private static void measureDecode(String formatName, ParserUnderTest decoder,
+                                      String payloadName, byte[] payload) throws IOException {
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            decoder.parse(payload);
+        }
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            decoder.parse(payload);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+
+        double microsPerDecode = elapsedNanos / 1e3 / DECODE_ITERATIONS;
+        String allocationRate = allocatedBefore < 0 || allocatedAfter < 0
+                ? "n/a"
+                : Long.toString((allocatedAfter - allocatedBefore) / DECODE_ITERATIONS);
+
+        System.out.println(String.format(Locale.US, "%-10s %-24s %10d %12.1f %14s",
+                formatName, payloadName, payload.length, microsPerDecode, allocationRate));
+
+        assertTrue(microsPerDecode > 0);
+    }
+
+    private static void measure(String parserName, ParserUnderTest parser, String payloadName,
+                                byte[] payload) throws IOException {
+        long warmupIterations = Math.max(1, WARMUP_BYTES / payload.length);
+        for (long i = 0; i < warmupIterations; i++) {
+            parser.parse(payload);
+        }
+
+        long iterations = Math.max(1, MEASURED_BYTES / payload.length);
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            parser.parse(payload);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+
+        double megabytes = iterations * payload.length / BYTES_PER_MB;
+        double megabytesPerSecond = megabytes / (elapsedNanos / 1e9);
+        String allocationRate = allocatedBefore < 0 || allocatedAfter < 0
+                ? "n/a"
+                : String.format(Locale.US, "%.0f",
+                (allocatedAfter - allocatedBefore) / megabytes);
+
+        System.out.println(String.format(Locale.US, "%-10s %-24s %10d %10.1f %14s",
+                parserName, payloadName, payload.length, megabytesPerSecond, allocationRate));
+
+        assertTrue(megabytesPerSecond > 0);
+    }
+
+    /**
+     * @return The number of bytes the current thread has allocated so far, or -1 if the JVM
+     * can't tell
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean hotSpotThreads =
+                (com.sun.management.ThreadMXBean) threads;
+        if (!hotSpotThreads.isThreadAllocatedMemorySupported()
+                || !hotSpotThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
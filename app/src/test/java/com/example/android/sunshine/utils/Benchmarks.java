@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import org.junit.Assume;
+
+/**
+ * Keeps the benchmarks among the local unit tests out of the usual test run. They take a while
+ * and print tables of results, so they only run when asked for with ./gradlew
+ * testDebugUnitTest -Pbenchmarks, which also shows what they print.
+ */
+public final class Benchmarks {
+
+    /* Set by app/build.gradle when the build is run with -Pbenchmarks */
+    private static final String PROPERTY_ENABLED = "sunshine.benchmarks";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Skips the calling test class unless benchmarks were asked for. Call it from a
+     * {@link org.junit.BeforeClass} method.
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks only run with -Pbenchmarks",
+                Boolean.getBoolean(PROPERTY_ENABLED));
+    }
+}
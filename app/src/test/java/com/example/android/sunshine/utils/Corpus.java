@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * The forecast payloads the parser tests and benchmarks run on. Most are files under
+ * resources/corpus, in the shape the weather server sends:
+ * <ul>
+ * <li>daily_*: complete daily forecasts, as the server sends them. The _pretty variant is the
+ * same forecast with whitespace between every token.</li>
+ * <li>unicode_*: complete daily forecasts for cities whose names are not ASCII, sent as UTF-8
+ * or escaped.</li>
+ * <li>extra_fields, missing_optional_fields, code_after_list: valid forecasts with keys we don't
+ * use, without keys we don't need, and with the message code where it can't be sniffed.</li>
+ * <li>missing_humidity, empty_weather, truncated: forecasts that can't be used.</li>
+ * <li>error_*: errors the server sends in place of a forecast.</li>
+ * <li>hourly_*: 3-hour forecasts.</li>
+ * </ul>
+ * Forecasts too large to keep around as files are generated by {@link #largeForecast(int)}.
+ */
+public final class Corpus {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Seconds since the epoch of the first day in generated forecasts */
+    private static final long FIRST_DAY_SECONDS = 1485892800L;
+
+    private Corpus() {
+    }
+
+    /**
+     * @param name Name of a file under resources/corpus
+     * @return The file's bytes
+     */
+    public static byte[] read(String name) throws IOException {
+        InputStream in = Corpus.class.getClassLoader().getResourceAsStream("corpus/" + name);
+        if (in == null) {
+            throw new IOException("No corpus file named " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param days The number of days in the forecast's "list"
+     * @return A successful daily forecast for Mountain View with the given number of days
+     */
+    public static byte[] largeForecast(int days) {
+        StringBuilder json = new StringBuilder(512 + days * 320);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0132,\"cnt\":").append(days)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double max = 20 + (i % 7);
+            double min = 10 + (i % 5);
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\","
+                            + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    FIRST_DAY_SECONDS + i * 86400L,
+                    (max + min) / 2, min, max, min, max - 1, min + 1,
+                    1000 + i * 0.5, 40 + i % 50,
+                    800 + i % 4,
+                    1.5 + i % 10, (i * 37) % 360, i % 100));
+        }
+
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+}